@@ -0,0 +1,48 @@
+package Benchmarks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import Util.ConnectionUtil;
+
+/**
+ * Builds the dataset the benchmarks run against. Benchmarks fork with
+ * {@link #BENCH_DB} so they never touch the development database in ./h2.
+ */
+public final class BenchmarkData {
+
+    /**
+     * JVM argument pointing ConnectionUtil at a scratch database under target/.
+     */
+    public static final String BENCH_DB = "-Ddb.url=jdbc:h2:./target/jmh/h2/bench";
+
+    public static final String USERNAME = "testuser1";
+    public static final String PASSWORD = "password";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Recreates the schema and adds messages until the table holds
+     * {@code messageCount} rows, all posted by account 1.
+     */
+    public static void resetAndSeed(int messageCount) throws SQLException {
+        ConnectionUtil.resetTestDatabase();
+        try (Connection conn = ConnectionUtil.getConnection();
+                PreparedStatement ps = conn.prepareStatement(
+                        "insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)")) {
+            conn.setAutoCommit(false);
+            for (int i = 2; i <= messageCount; i++) {
+                ps.setString(1, "benchmark message " + i);
+                ps.setLong(2, 1669947792L + i);
+                ps.addBatch();
+                if (i % 1000 == 0) {
+                    ps.executeBatch();
+                }
+            }
+            ps.executeBatch();
+            conn.commit();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package Benchmarks;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count and writes one JMH JSON result
+ * file per run to target/jmh, so results can be archived and compared between
+ * builds. Configured through system properties:
+ * <ul>
+ * <li>bench.include - regex of benchmarks to run (default: all)</li>
+ * <li>bench.threads - comma-separated thread counts (default 1,4)</li>
+ * <li>bench.datasetSize - comma-separated dataset sizes, overriding the @Param defaults</li>
+ * </ul>
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = System.getProperty("bench.include", ".*");
+        String datasetSizes = System.getProperty("bench.datasetSize");
+        File outputDir = new File("target/jmh");
+        outputDir.mkdirs();
+
+        for (String threads : System.getProperty("bench.threads", "1,4").split(",")) {
+            int threadCount = Integer.parseInt(threads.trim());
+            File result = new File(outputDir, "results-threads-" + threadCount + ".json");
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threadCount)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(result.getPath());
+            if (datasetSizes != null) {
+                options.param("datasetSize", datasetSizes.split(","));
+            }
+            new Runner(options.build()).run();
+            System.out.println("Wrote " + result.getPath());
+        }
+    }
+}
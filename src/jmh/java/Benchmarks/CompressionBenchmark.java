@@ -0,0 +1,85 @@
+package Benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+
+import Model.Message;
+import Util.JsonUtil;
+import io.javalin.compression.LeveledBrotliStream;
+import io.javalin.compression.LeveledGzipStream;
+
+/**
+ * CPU cost against bytes saved when compressing a large GET /messages body,
+ * using the same Javalin streams the server compresses responses with. Time
+ * per operation is the CPU cost; the compressed size of each codec and level
+ * is printed at the end of its trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({ "gzip", "brotli" })
+    public String codec;
+
+    @Param({ "1", "4", "6", "9" })
+    public int level;
+
+    @Param({ "1000" })
+    public int messages;
+
+    private byte[] json;
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+    @Setup
+    public void setUp() throws IOException {
+        if ("brotli".equals(codec) && !BrotliLoader.isBrotliAvailable()) {
+            throw new IllegalStateException("jvm-brotli native library is not available on this platform");
+        }
+        List<Message> list = new ArrayList<>(messages);
+        for (int i = 1; i <= messages; i++) {
+            list.add(new Message(i, 1 + i % 50, "benchmark message number " + i + " with some ordinary text",
+                    1669947792L + i));
+        }
+        json = JsonUtil.MAPPER.writeValueAsBytes(list);
+    }
+
+    @Benchmark
+    public int compress() throws IOException {
+        compressed.reset();
+        try (OutputStream out = "gzip".equals(codec)
+                ? new LeveledGzipStream(compressed, level)
+                : new LeveledBrotliStream(compressed, level)) {
+            out.write(json);
+        }
+        return compressed.size();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%s level %d: %d bytes -> %d bytes (%.1f%%)%n", codec, level, json.length,
+                compressed.size(), 100.0 * compressed.size() / json.length);
+    }
+}
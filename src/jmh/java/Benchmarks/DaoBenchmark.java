@@ -0,0 +1,62 @@
+package Benchmarks;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MessageDao;
+import Model.Message;
+
+/**
+ * MessageDao against a table of {@code datasetSize} messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkData.BENCH_DB)
+public class DaoBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int datasetSize;
+
+    private MessageDao messageDao;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkData.resetAndSeed(datasetSize);
+        messageDao = new MessageDao();
+    }
+
+    @Benchmark
+    public Message insert() {
+        return messageDao.insert(new Message(1, "benchmark insert", 1669947792L));
+    }
+
+    @Benchmark
+    public Optional<Message> getById() {
+        return messageDao.getById(ThreadLocalRandom.current().nextInt(1, datasetSize + 1));
+    }
+
+    @Benchmark
+    @Warmup(iterations = 2, time = 5)
+    @Measurement(iterations = 3, time = 5)
+    public List<Message> getAll() {
+        return messageDao.getAll();
+    }
+}
@@ -0,0 +1,97 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Controller.SocialMediaController;
+import io.javalin.Javalin;
+
+/**
+ * Load test comparing request latency percentiles (p50/p99/p999 in the JMH
+ * output) between platform-thread and virtual-thread execution. Many more
+ * client threads than server threads are used so the platform pool saturates.
+ * The virtual mode needs a Java 21+ JVM; on older JVMs both modes use platform
+ * threads and should score the same.
+ *
+ * java -jar target/benchmarks.jar HttpLatencyBenchmark -rf json
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(128)
+@Fork(value = 1, jvmArgsAppend = BenchmarkData.BENCH_DB)
+public class HttpLatencyBenchmark {
+
+    @Param({ "platform", "virtual" })
+    public String executionMode;
+
+    /**
+     * Size of the platform thread pool; ignored in virtual mode.
+     */
+    @Param({ "16" })
+    public int serverThreads;
+
+    @Param({ "10000" })
+    public int datasetSize;
+
+    private Javalin app;
+    private HttpClient client;
+    private String baseUrl;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkData.resetAndSeed(datasetSize);
+        System.setProperty(SocialMediaController.VIRTUAL_THREADS_PROPERTY,
+                String.valueOf("virtual".equals(executionMode)));
+        System.setProperty(SocialMediaController.MAX_THREADS_PROPERTY, String.valueOf(serverThreads));
+        app = new SocialMediaController().startAPI().start(0);
+        baseUrl = "http://localhost:" + app.port();
+        client = HttpClient.newHttpClient();
+    }
+
+    @TearDown
+    public void tearDown() {
+        app.stop();
+    }
+
+    @Benchmark
+    public int timelinePage() throws IOException, InterruptedException {
+        int afterId = ThreadLocalRandom.current().nextInt(0, datasetSize);
+        HttpRequest request = HttpRequest.newBuilder(
+                URI.create(baseUrl + "/messages?after=" + afterId + "&limit=50")).build();
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        return response.body().length;
+    }
+
+    @Benchmark
+    public int postMessage() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/messages"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"posted_by\":1,\"message_text\":\"load test\",\"time_posted_epoch\":1669947792}"))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray()).statusCode();
+    }
+}
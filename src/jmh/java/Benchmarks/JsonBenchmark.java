@@ -0,0 +1,44 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Message;
+import Util.JsonUtil;
+
+/**
+ * JSON encoding and decoding of a single Message with the shared reader and writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    private final Message message = new Message(42, 1, "hello message", 1669947792L);
+    private final byte[] json = ("{\"message_id\":42,\"posted_by\":1,\"message_text\":\"hello message\","
+            + "\"time_posted_epoch\":1669947792}").getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public byte[] serializeMessage() throws IOException {
+        return JsonUtil.MESSAGE_WRITER.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public Message deserializeMessage() throws IOException {
+        return JsonUtil.MESSAGE_READER.readValue(json);
+    }
+}
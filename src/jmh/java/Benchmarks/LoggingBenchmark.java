@@ -0,0 +1,71 @@
+package Benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Model.Message;
+import Util.AsyncLogSink;
+import Util.HotPathLog;
+
+/**
+ * One per-request INFO statement with a model argument, as the services log
+ * it: synchronously through slf4j-simple, through the async ring buffer, sampled
+ * one in 100, and gated off below the configured level. Both paths write to
+ * the same file so the comparison is not dominated by terminal output. The
+ * sink blocks rather than drops when full, so the async scores are sustained
+ * throughput including the writer thread, not just the cost of publishing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = { "-Dorg.slf4j.simpleLogger.logFile=target/jmh/logging-benchmark.log",
+        "-Dlog.async.blockWhenFull=true" })
+public class LoggingBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoggingBenchmark.class);
+
+    private final HotPathLog asyncLog = HotPathLog.create(LOGGER, AsyncLogSink.shared(), 1);
+    private final HotPathLog sampledLog = HotPathLog.create(LOGGER, AsyncLogSink.shared(), 100);
+    private final Message message = new Message(42, 1, "hello message", 1669947792L);
+
+    @Benchmark
+    public void slf4jSync() {
+        LOGGER.info("Fetched message: {}", message);
+    }
+
+    @Benchmark
+    public void asyncRingBuffer() {
+        asyncLog.info("Fetched message: {}", message);
+    }
+
+    @Benchmark
+    public void asyncSampled() {
+        sampledLog.info("Fetched message: {}", message);
+    }
+
+    @Benchmark
+    public void disabledLevel() {
+        asyncLog.debug("Fetched message: {}", message);
+    }
+
+    @TearDown
+    public void reportDropped() {
+        System.out.println("Async log events dropped: " + AsyncLogSink.shared().getDroppedCount());
+    }
+}
@@ -0,0 +1,67 @@
+package Benchmarks;
+
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.AccountDao;
+import Model.Account;
+import Service.AccountService;
+import Service.PasswordHasher;
+
+/**
+ * Login throughput at different PBKDF2 costs, with more callers than hashing
+ * threads so the bounded hashing pool is the limit. The queue is large enough
+ * that no login is rejected; the rejected count is printed at the end to
+ * confirm it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(8)
+@Fork(value = 1, jvmArgsAppend = BenchmarkData.BENCH_DB)
+public class LoginBenchmark {
+
+    @Param({ "10000", "100000", "600000" })
+    public int iterations;
+
+    private PasswordHasher hasher;
+    private AccountService accountService;
+    private Account login;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkData.resetAndSeed(1);
+        hasher = new PasswordHasher(iterations, Runtime.getRuntime().availableProcessors(), 64, 60_000);
+        accountService = new AccountService(new AccountDao(), hasher);
+        accountService.createAccount(new Account("loginbench", BenchmarkData.PASSWORD));
+        login = new Account("loginbench", BenchmarkData.PASSWORD);
+    }
+
+    @Benchmark
+    public Optional<Account> validateLogin() {
+        return accountService.validateLogin(login);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println("Logins rejected: " + hasher.getRejectedCount());
+        hasher.close();
+    }
+}
@@ -0,0 +1,90 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import DAO.MessageDao;
+import Model.Message;
+import Service.MessageReadModel;
+import Util.JsonUtil;
+
+/**
+ * Writing every message as a JSON array the way GET /messages does, and one
+ * account's messages the way GET /accounts/{id}/messages does: streamed from
+ * H2 through MessageDao, or from the columns of a {@link MessageReadModel}.
+ * The output is discarded, so only producing it is measured. Run with
+ * {@code -prof gc} to compare the allocation per listing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkData.BENCH_DB)
+public class ReadModelBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int datasetSize;
+
+    @Param({ "dao", "readModel" })
+    public String source;
+
+    private MessageDao messageDao;
+    private MessageReadModel readModel;
+    private final ObjectWriter writer = JsonUtil.MAPPER.writerFor(Message.class)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkData.resetAndSeed(datasetSize);
+        messageDao = new MessageDao();
+        readModel = new MessageReadModel();
+        messageDao.streamAll(readModel::put);
+    }
+
+    @Benchmark
+    public void listAll() throws IOException {
+        try (JsonGenerator generator = JsonUtil.MAPPER.getFactory().createGenerator(OutputStream.nullOutputStream())) {
+            generator.writeStartArray();
+            if ("readModel".equals(source)) {
+                readModel.writeAll(generator);
+            } else {
+                messageDao.streamAll(message -> writer.writeValue(generator, message));
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    @Benchmark
+    public void listByAccount() throws IOException {
+        try (JsonGenerator generator = JsonUtil.MAPPER.getFactory().createGenerator(OutputStream.nullOutputStream())) {
+            generator.writeStartArray();
+            if ("readModel".equals(source)) {
+                readModel.writeByAccount(1, generator);
+            } else {
+                for (Message message : messageDao.getMessagesByAccountId(1)) {
+                    writer.writeValue(generator, message);
+                }
+            }
+            generator.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package Benchmarks;
+
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Account;
+import Model.Message;
+import Service.AccountService;
+import Service.MessageService;
+
+/**
+ * The service layer, including its caches and validation, over a table of
+ * {@code datasetSize} messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkData.BENCH_DB)
+public class ServiceBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int datasetSize;
+
+    private AccountService accountService;
+    private MessageService messageService;
+    private Optional<Account> poster;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkData.resetAndSeed(datasetSize);
+        accountService = new AccountService();
+        messageService = new MessageService();
+        poster = accountService.getAccountById(1);
+    }
+
+    @Benchmark
+    public Optional<Account> validateLogin() {
+        return accountService.validateLogin(new Account(BenchmarkData.USERNAME, BenchmarkData.PASSWORD));
+    }
+
+    @Benchmark
+    public Message createMessage() {
+        return messageService.createMessage(new Message(1, "benchmark post", 1669947792L), poster);
+    }
+}
@@ -0,0 +1,106 @@
+package Benchmarks;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MessageDao;
+import DAO.ShardedMessageStore;
+import Model.Message;
+import Util.ConnectionPool;
+import Util.SchemaMigrations;
+
+/**
+ * Concurrent posting, one-account reads and scatter-gather reads against a
+ * ShardedMessageStore over 1, 2 and 4 H2 databases under target/, with
+ * messages from {@value #ACCOUNTS} accounts spread evenly over the shards.
+ * Each shard has its own store file, so writes to different shards only
+ * compete for CPU and disk; inserts should scale with the shard count up to
+ * the number of cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ShardingBenchmark {
+
+    private static final int ACCOUNTS = 1000;
+    private static final int SEEDED_MESSAGES = 10_000;
+
+    @Param({ "1", "2", "4" })
+    public int shards;
+
+    private final List<ConnectionPool> pools = new ArrayList<>();
+    private ShardedMessageStore store;
+
+    @Setup
+    public void setUp() throws SQLException {
+        List<MessageDao> daos = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            ConnectionPool pool = new ConnectionPool("jdbc:h2:./target/jmh/h2/shard-" + shard, "sa", "sa", 16,
+                    30_000, 600_000, 0, ConnectionPool.DEFAULT_STATEMENT_CACHE_SIZE);
+            try (Connection conn = pool.getConnection(); Statement statement = conn.createStatement()) {
+                statement.execute("drop table if exists message");
+                SchemaMigrations.createMessageShard(conn);
+            }
+            pools.add(pool);
+            daos.add(new MessageDao(pool));
+        }
+        ShardedMessageStore.alignIdSequences(daos);
+        store = new ShardedMessageStore(daos, 2 * shards);
+        List<Message> seed = new ArrayList<>(SEEDED_MESSAGES);
+        for (int i = 0; i < SEEDED_MESSAGES; i++) {
+            seed.add(new Message(1 + i % ACCOUNTS, "benchmark message " + i, 1669947792L + i));
+        }
+        store.insertAll(seed);
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.close();
+        pools.forEach(ConnectionPool::close);
+    }
+
+    @Benchmark
+    public Message insert() {
+        int account = ThreadLocalRandom.current().nextInt(1, ACCOUNTS + 1);
+        return store.insert(new Message(account, "benchmark insert", System.currentTimeMillis() / 1000));
+    }
+
+    @Benchmark
+    public List<Message> getMessagesByAccountId() {
+        return store.getMessagesByAccountId(ThreadLocalRandom.current().nextInt(1, ACCOUNTS + 1));
+    }
+
+    @Benchmark
+    public Optional<Message> getById() {
+        return store.getById(ThreadLocalRandom.current().nextInt(1, SEEDED_MESSAGES + 1));
+    }
+
+    @Benchmark
+    public List<Message> getPage() {
+        return store.getPage(ThreadLocalRandom.current().nextInt(0, SEEDED_MESSAGES - 100), 100);
+    }
+}
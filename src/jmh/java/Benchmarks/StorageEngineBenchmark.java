@@ -0,0 +1,104 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MappedMessageLog;
+import DAO.MessageDao;
+import DAO.MessageStore;
+import Model.Message;
+
+/**
+ * The two message storage engines side by side: the H2 message table through
+ * MessageDao and the memory-mapped MappedMessageLog, both holding the same
+ * {@code datasetSize} messages. The log is filled by importing the seeded
+ * table into a scratch directory under target/.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkData.BENCH_DB)
+public class StorageEngineBenchmark {
+
+    private static final Path LOG_DIR = Paths.get("target/jmh/message-log");
+
+    @Param({ "h2", "log" })
+    public String engine;
+
+    @Param({ "1000", "100000" })
+    public int datasetSize;
+
+    private MessageStore store;
+
+    @Setup
+    public void setUp() throws SQLException, IOException {
+        BenchmarkData.resetAndSeed(datasetSize);
+        if ("log".equals(engine)) {
+            MappedMessageLog.deleteSegments(LOG_DIR);
+            MappedMessageLog log = new MappedMessageLog(LOG_DIR, 65_536, false, 0.5, 0);
+            log.importFrom(new MessageDao());
+            store = log;
+        } else {
+            store = new MessageDao();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (store instanceof MappedMessageLog) {
+            ((MappedMessageLog) store).close();
+        }
+    }
+
+    /**
+     * Posts at the current time, after every seeded message, as new posts are.
+     */
+    @Benchmark
+    public Message insert() {
+        return store.insert(new Message(1, "benchmark insert", System.currentTimeMillis() / 1000));
+    }
+
+    @Benchmark
+    public Optional<Message> getById() {
+        return store.getById(ThreadLocalRandom.current().nextInt(1, datasetSize + 1));
+    }
+
+    @Benchmark
+    public boolean update() {
+        int id = ThreadLocalRandom.current().nextInt(1, datasetSize + 1);
+        return store.update(new Message(id, 1, "benchmark update " + id, 1669947792L + id));
+    }
+
+    @Benchmark
+    public List<Message> getTimeline() {
+        return store.getTimeline(1, Long.MAX_VALUE, Integer.MAX_VALUE, 20);
+    }
+
+    @Benchmark
+    @Warmup(iterations = 2, time = 5)
+    @Measurement(iterations = 3, time = 5)
+    public List<Message> getAll() {
+        return store.getAll();
+    }
+}
@@ -0,0 +1,78 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import Model.Message;
+import Util.WireFormat;
+
+/**
+ * Encoding and decoding throughput of each {@link WireFormat} for a single
+ * Message and for a 100-message list, with the same readers and writers the
+ * controller uses. The encoded size of both payloads is printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    @Param({ "JSON", "CBOR", "SMILE" })
+    public WireFormat format;
+
+    private final Message message = new Message(42, 1, "hello message", 1669947792L);
+    private final List<Message> messages = new ArrayList<>();
+    private ObjectWriter listWriter;
+    private byte[] encodedMessage;
+    private byte[] encodedList;
+
+    @Setup
+    public void setUp() throws IOException {
+        for (int i = 1; i <= 100; i++) {
+            messages.add(new Message(i, 1 + i % 10, "benchmark message number " + i, 1669947792L + i));
+        }
+        listWriter = format.writerFor(ArrayList.class);
+        encodedMessage = format.getMessageWriter().writeValueAsBytes(message);
+        encodedList = listWriter.writeValueAsBytes(messages);
+        System.out.println(format + ": message " + encodedMessage.length + " bytes, 100 messages "
+                + encodedList.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encodeMessage() throws IOException {
+        return format.getMessageWriter().writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public Message decodeMessage() throws IOException {
+        return format.getMessageReader().readValue(encodedMessage);
+    }
+
+    @Benchmark
+    public byte[] encodeList() throws IOException {
+        return listWriter.writeValueAsBytes(messages);
+    }
+
+    @Benchmark
+    public List<Message> decodeList() throws IOException {
+        return format.getMessageListReader().readValue(encodedList);
+    }
+}
@@ -0,0 +1,68 @@
+package Controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import Util.JsonUtil;
+import io.javalin.json.JsonMapper;
+
+/**
+ * Javalin JsonMapper backed by the shared {@link JsonUtil#MAPPER}. Readers and
+ * writers are resolved once per type and reused, so ctx.json() and
+ * ctx.bodyAsClass() do not repeat Jackson's type lookups on each request.
+ */
+class JacksonJsonMapper implements JsonMapper {
+
+    private final Map<Type, ObjectWriter> writers = new ConcurrentHashMap<>();
+    private final Map<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    @Override
+    public String toJsonString(Object obj, Type type) {
+        if (obj instanceof String) {
+            return (String) obj;
+        }
+        try {
+            return writerFor(type).writeValueAsString(obj);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonString(String json, Type targetType) {
+        try {
+            return readerFor(targetType).readValue(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonStream(InputStream json, Type targetType) {
+        try {
+            return readerFor(targetType).readValue(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ObjectWriter writerFor(Type type) {
+        return writers.computeIfAbsent(type, t -> JsonUtil.MAPPER.writerFor(javaType(t)));
+    }
+
+    private ObjectReader readerFor(Type type) {
+        return readers.computeIfAbsent(type, t -> JsonUtil.MAPPER.readerFor(javaType(t)));
+    }
+
+    private static JavaType javaType(Type type) {
+        return JsonUtil.MAPPER.getTypeFactory().constructType(type);
+    }
+}
@@ -1,18 +1,76 @@
 package Controller;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 import Model.Account;
 import Model.Message;
+import Model.MessageFilter;
 import Service.AccountService;
+import Service.MessageEvent;
+import Service.MessageFeed;
+import Service.MessageReadModel;
+import Service.MessageSearchIndex;
 import Service.MessageService;
+import Service.MessageWritePipeline;
+import Service.PasswordHasher;
+import Service.ServiceBusyException;
 import Service.ServiceException;
+import Service.SessionTokenService;
+import Service.TimelineCursor;
+import Util.BulkFormat;
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+import Util.ETags;
+import Util.LatencyHistogram;
+import Util.LruCache;
+import Util.Metrics;
+import Util.WireFormat;
 import io.javalin.Javalin;
+import io.javalin.compression.Brotli;
+import io.javalin.compression.CompressionStrategy;
+import io.javalin.compression.Gzip;
 import io.javalin.http.Context;
+import io.javalin.http.Cookie;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import io.javalin.http.Header;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.SameSite;
+import io.javalin.http.sse.SseClient;
+import io.javalin.http.sse.SseHandler;
+import io.javalin.util.ConcurrencyUtil;
+import io.javalin.util.LoomUtil;
+import io.javalin.websocket.WsConfig;
+import io.javalin.websocket.WsContext;
 
 /**
  * TODO: You will need to write your own endpoints and handlers for your controller. The endpoints you will need can be
@@ -22,10 +80,78 @@ import io.javalin.http.Context;
 public class SocialMediaController {
     private final AccountService accountService;
     private final MessageService messageService;
+    /**
+     * Live message changes for /messages/stream, owned by the controller and
+     * closed with the message service when the server stops.
+     */
+    private final MessageFeed feed = new MessageFeed();
+    private final SessionTokenService sessionTokens;
+    private final SseHandler messageStreamSse = new SseHandler(this::streamMessageEvents);
+    private final Map<String, MessageFeed.Subscription> messageStreamSockets = new ConcurrentHashMap<>();
+    /**
+     * Cookie carrying the session token issued by /login. The token can also be
+     * sent as an {@code Authorization: Bearer} header.
+     */
+    public static final String SESSION_COOKIE = "session_token";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    /**
+     * Returned by sinks whose writes have finished by the time they return.
+     */
+    private static final CompletableFuture<Void> WRITTEN = CompletableFuture.completedFuture(null);
+    private static final String POSTED_BY_FILTER = "messageStream.postedBy";
+    /**
+     * Cache-Control sent with a single message. Messages can be edited, so by
+     * default clients keep them briefly and then revalidate with If-None-Match.
+     */
+    private static final String MESSAGE_CACHE_CONTROL = System.getProperty("http.cacheControl.message",
+            "private, max-age=5");
+    /**
+     * Cache-Control sent with an account's messages, which change whenever the
+     * account posts, so by default clients revalidate on every use.
+     */
+    private static final String TIMELINE_CACHE_CONTROL = System.getProperty("http.cacheControl.timeline",
+            "private, no-cache");
+    private static final Map<WireFormat, ObjectWriter> MESSAGE_STREAM_WRITERS = new EnumMap<>(WireFormat.class);
+    static {
+        for (WireFormat format : WireFormat.values()) {
+            MESSAGE_STREAM_WRITERS.put(format,
+                    format.getMessageWriter().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE));
+        }
+    }
+
+    /**
+     * Set to true to run request handlers on virtual threads instead of Jetty's
+     * platform thread pool. Needs a Java 21+ runtime (see the virtual-threads
+     * Maven profile); on older runtimes the platform pool is used. Blocking JDBC
+     * calls stay bounded by the connection pool's permits, which virtual threads
+     * wait on by parking rather than by holding a carrier thread.
+     */
+    public static final String VIRTUAL_THREADS_PROPERTY = "server.virtualThreads";
+    /**
+     * Maximum size of the platform thread pool, defaulting to Javalin's own.
+     */
+    public static final String MAX_THREADS_PROPERTY = "server.maxThreads";
+    /**
+     * Response compression: auto (default) offers Brotli when jvm-brotli is on
+     * the classpath (see the brotli Maven profile) and gzip otherwise, gzip
+     * offers only gzip, and none turns compression off. Levels are set with
+     * http.compression.brotliLevel (default 4) and http.compression.gzipLevel
+     * (default 6).
+     */
+    public static final String COMPRESSION_PROPERTY = "http.compression";
+    /**
+     * Responses smaller than this many bytes (default 1500, about one packet)
+     * are sent uncompressed, since compressing them saves too little to pay for
+     * the CPU.
+     */
+    public static final String COMPRESSION_MIN_SIZE_PROPERTY = "http.compression.minSize";
+    private static final int COMPRESSION_MIN_SIZE = Integer.getInteger(COMPRESSION_MIN_SIZE_PROPERTY, 1500);
+    private static final Logger LOGGER = LoggerFactory.getLogger(SocialMediaController.class);
 
     public SocialMediaController() {
         this.accountService = new AccountService();
-        this.messageService = new MessageService();
+        this.messageService = new MessageService(feed);
+        this.sessionTokens = new SessionTokenService();
     }
     /**
      * In order for the test cases to work, you will need to write the endpoints in the startAPI() method, as the test
@@ -33,81 +159,650 @@ public class SocialMediaController {
      * @return a Javalin app object which defines the behavior of the Javalin controller.
      */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
-        app.post("/register", this::registerAccount);
-        app.post("/login", this::loginAccount);
-        app.post("/messages", this::createMessage);
-        app.get("/messages", this::getAllMessages);
-        app.get("/messages/{message_id}", this::getMessageById);
-        app.delete("/messages/{message_id}", this::deleteMessageById);
-        app.patch("/messages/{message_id}", this::updateMessageById);
-        app.get("/accounts/{account_id}/messages",
+        boolean virtualThreads = useVirtualThreads();
+        ConcurrencyUtil.INSTANCE.setUseLoom(virtualThreads);
+        Integer maxThreads = Integer.getInteger(MAX_THREADS_PROPERTY);
+        Javalin app = Javalin.create(config -> {
+            config.jsonMapper(new JacksonJsonMapper());
+            config.compression.custom(compressionStrategy());
+            if (!virtualThreads && maxThreads != null) {
+                config.jetty.server(() -> new Server(new QueuedThreadPool(maxThreads, Math.min(8, maxThreads))));
+            }
+        });
+        boolean compression = !"none".equals(System.getProperty(COMPRESSION_PROPERTY));
+        String vary = compression ? Header.ACCEPT + ", " + Header.ACCEPT_ENCODING : Header.ACCEPT;
+        app.before(ctx -> ctx.res().setHeader(Header.VARY, vary));
+        route(app, HandlerType.POST, "/register", this::registerAccount);
+        route(app, HandlerType.POST, "/login", this::loginAccount);
+        route(app, HandlerType.POST, "/messages", this::createMessage);
+        route(app, HandlerType.POST, "/messages/batch", this::createMessages);
+        route(app, HandlerType.GET, "/messages", this::getAllMessages);
+        route(app, HandlerType.GET, "/messages/search", this::searchMessages);
+        // long-lived, so kept out of the request latency metrics
+        app.get("/messages/stream", this::openMessageStream);
+        app.ws("/messages/stream", this::configureMessageStreamSocket);
+        route(app, HandlerType.GET, "/messages/{message_id}", this::getMessageById);
+        route(app, HandlerType.DELETE, "/messages/{message_id}", this::deleteMessageById);
+        route(app, HandlerType.PATCH, "/messages/{message_id}", this::updateMessageById);
+        route(app, HandlerType.GET, "/accounts/{account_id}/messages",
                 this::getMessagesByAccountId);
+        route(app, HandlerType.GET, "/export/messages", this::exportMessages);
+        app.get("/metrics", this::getMetrics);
+        registerGauges();
+        app.events(listener -> listener.serverStopped(() -> {
+            feed.close();
+            messageService.close();
+        }));
 
         return app;
     }
 
+    /**
+     * Javalin picks the encoding from Accept-Encoding, preferring Brotli, and
+     * decides whether to compress on the first write to the response, so a
+     * response is compressed when its first written chunk reaches the minimum
+     * size.
+     */
+    private static CompressionStrategy compressionStrategy() {
+        String mode = System.getProperty(COMPRESSION_PROPERTY, "auto");
+        if ("none".equals(mode)) {
+            return CompressionStrategy.NONE;
+        }
+        Brotli brotli = "auto".equals(mode) && isBrotliOnClasspath()
+                ? new Brotli(Integer.getInteger("http.compression.brotliLevel", 4))
+                : null;
+        CompressionStrategy strategy = new CompressionStrategy(brotli,
+                new Gzip(Integer.getInteger("http.compression.gzipLevel", 6)));
+        strategy.setMinSizeForCompression(COMPRESSION_MIN_SIZE);
+        return strategy;
+    }
+
+    private static boolean isBrotliOnClasspath() {
+        try {
+            Class.forName("com.nixxcode.jvmbrotli.common.BrotliLoader");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Registers a handler wrapped with its own latency timer and per status
+     * class request counters. Both are resolved here, once, so timing a request
+     * costs a clock read and a few atomic increments. A request the handler
+     * fails is counted under the status Javalin answers it with: the status
+     * of an {@link HttpResponseException}, 500 for anything else.
+     */
+    private static void route(Javalin app, HandlerType method, String path, Handler handler) {
+        String labels = Metrics.labels("method", method.name(), "route", path);
+        LatencyHistogram latency = Metrics.timer("http_server_request_duration_seconds",
+                "Time spent handling HTTP requests.", labels);
+        LongAdder[] requestsByStatusClass = new LongAdder[6];
+        for (int statusClass = 1; statusClass < requestsByStatusClass.length; statusClass++) {
+            requestsByStatusClass[statusClass] = Metrics.counter("http_server_requests_total",
+                    "HTTP requests handled, by status class.", labels + ",status=\"" + statusClass + "xx\"");
+        }
+        app.addHandler(method, path, ctx -> {
+            long start = System.nanoTime();
+            int status = 500;
+            try {
+                handler.handle(ctx);
+                status = ctx.statusCode();
+            } catch (HttpResponseException e) {
+                status = e.getStatus();
+                throw e;
+            } finally {
+                latency.recordSince(start);
+                int statusClass = status / 100;
+                if (statusClass >= 1 && statusClass <= 5) {
+                    requestsByStatusClass[statusClass].increment();
+                }
+            }
+        });
+    }
+
+    /**
+     * Exposes the connection pool, the caches, password hashing and the write
+     * pipeline as gauges read at scrape time, and their running totals as
+     * counters read the same way. A later controller replaces the gauges and
+     * counters of an earlier one, so they always describe the services
+     * currently serving requests.
+     */
+    private void registerGauges() {
+        ConnectionPool pool = ConnectionUtil.getPool();
+        Metrics.gauge("db_pool_connections", "Pooled connections by state.", "state=\"active\"",
+                pool::getActiveCount);
+        Metrics.gauge("db_pool_connections", "Pooled connections by state.", "state=\"idle\"",
+                pool::getIdleCount);
+        Metrics.gauge("db_pool_connections_max", "Maximum pool size.", "", pool::getMaxSize);
+        Metrics.gauge("db_pool_waiting_threads", "Threads waiting for a connection.", "", pool::getWaitingCount);
+        Metrics.counterFunction("db_pool_acquire_timeouts_total", "Connection requests that timed out.", "",
+                pool::getAcquireTimeoutCount);
+        Metrics.counterFunction("db_pool_leaks_total", "Connections held past the leak detection threshold.", "",
+                pool::getLeakCount);
+        Metrics.counterFunction("db_statement_cache_hits_total", "Prepared statements reused from the cache.", "",
+                pool::getStatementCacheHits);
+        Metrics.counterFunction("db_statement_cache_misses_total", "Prepared statements that had to be prepared.", "",
+                pool::getStatementCacheMisses);
+
+        registerCacheGauges(messageService.getMessageCache());
+        registerCacheGauges(accountService.getAccountsByIdCache());
+        registerCacheGauges(accountService.getAccountsByUsernameCache());
+        registerCacheGauges(accountService.getUnknownUsernamesCache());
+        registerCacheGauges(sessionTokens.getVerifiedTokenCache());
+
+        PasswordHasher hasher = PasswordHasher.shared();
+        Metrics.gauge("password_hash_queue_depth", "Password hashes waiting for a hashing thread.", "",
+                hasher::getQueueDepth);
+        Metrics.gauge("password_hash_active_threads", "Hashing threads currently hashing.", "",
+                hasher::getActiveCount);
+        Metrics.counterFunction("password_hash_rejected_total", "Password hashes turned away while saturated.", "",
+                hasher::getRejectedCount);
+
+        MessageSearchIndex searchIndex = messageService.getSearchIndex();
+        if (searchIndex != null) {
+            Metrics.gauge("search_index_documents", "Messages held by the search index.", "",
+                    searchIndex::getDocumentCount);
+            Metrics.gauge("search_index_terms", "Distinct terms held by the search index.", "",
+                    searchIndex::getTermCount);
+            Metrics.gauge("search_index_bytes", "Estimated heap bytes held by the search index.", "",
+                    searchIndex::getEstimatedBytes);
+        }
+
+        MessageReadModel readModel = messageService.getReadModel();
+        if (readModel != null) {
+            Metrics.gauge("read_model_messages", "Messages held by the columnar read model.", "",
+                    readModel::getRowCount);
+            Metrics.gauge("read_model_offheap_bytes", "Off-heap bytes allocated by the columnar read model.", "",
+                    readModel::getOffHeapBytes);
+        }
+
+        Metrics.gauge("message_feed_subscribers", "Live subscribers to /messages/stream.", "",
+                feed::getSubscriberCount);
+        Metrics.counterFunction("message_feed_dropped_total", "Events not delivered because a subscriber fell behind.", "",
+                feed::getDroppedCount);
+        Metrics.counterFunction("message_feed_disconnected_total", "Subscribers disconnected for falling behind.", "",
+                feed::getDisconnectedCount);
+
+        MessageWritePipeline pipeline = messageService.getWritePipeline();
+        if (pipeline != null) {
+            Metrics.gauge("message_write_queue_depth", "Messages waiting to be written.", "",
+                    pipeline::getQueueDepth);
+            Metrics.counterFunction("message_write_batches_total", "Batches committed by the write pipeline.", "",
+                    pipeline::getBatchCount);
+            Metrics.counterFunction("message_write_messages_total", "Messages committed by the write pipeline.", "",
+                    pipeline::getMessagesWritten);
+            Metrics.counterFunction("message_write_rejected_total", "Messages rejected because the queue was full.", "",
+                    pipeline::getRejectedCount);
+            Metrics.gauge("message_write_flush_max_seconds", "Longest batch insert and commit.", "",
+                    () -> pipeline.getMaxFlushMicros() / 1_000_000.0);
+        }
+    }
+
+    private static void registerCacheGauges(LruCache<?, ?> cache) {
+        String labels = Metrics.labels("cache", cache.getName());
+        Metrics.gauge("cache_entries", "Entries held by the cache.", labels, cache::size);
+        Metrics.gauge("cache_weight_bytes", "Estimated bytes held by the cache.", labels, cache::getWeight);
+        Metrics.counterFunction("cache_hits_total", "Lookups served from the cache.", labels, cache::getHits);
+        Metrics.counterFunction("cache_misses_total", "Lookups not served from the cache.", labels, cache::getMisses);
+        Metrics.counterFunction("cache_evictions_total", "Entries evicted to stay within bounds.", labels,
+                cache::getEvictions);
+    }
+
+    private void getMetrics(Context ctx) {
+        ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+        ctx.result(Metrics.scrape());
+    }
+
+    /**
+     * Javalin prefers virtual threads whenever the runtime has them, so the
+     * setting is applied explicitly in both directions to keep them opt-in.
+     */
+    private static boolean useVirtualThreads() {
+        if (!Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY)) {
+            return false;
+        }
+        if (!LoomUtil.INSTANCE.getLoomAvailable()) {
+            LOGGER.warn("{} is set but Java {} has no virtual threads, using platform threads",
+                    VIRTUAL_THREADS_PROPERTY, System.getProperty("java.version"));
+            return false;
+        }
+        LOGGER.info("Handling requests on virtual threads, database concurrency bounded by {}",
+                ConnectionUtil.getPool());
+        return true;
+    }
+
     /**
      * This is an example handler for an example endpoint.
      * @param context The Javalin Context object manages information about both the HTTP request and response.
      */
-    private void registerAccount(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(ctx.body(), Account.class);
+    private void registerAccount(Context ctx) throws IOException {
+        Account account = requestFormat(ctx).getAccountReader().readValue(ctx.bodyInputStream());
         try {
             Account registeredAccount = accountService.createAccount(account);
 
             
-            ctx.json(mapper.writeValueAsString(registeredAccount));
+            respond(ctx, registeredAccount);
+        } catch (ServiceBusyException e) {
+            ctx.status(503);
         } catch (ServiceException e) {
             
             ctx.status(400);
         }
     }
     
-    private void loginAccount(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper(); 
-                                                  
-        Account account = mapper.readValue(ctx.body(), Account.class);
+    private void loginAccount(Context ctx) throws IOException {
+        Account account = requestFormat(ctx).getAccountReader().readValue(ctx.bodyInputStream());
 
         try {
             Optional<Account> loggedInAccount = accountService
                     .validateLogin(account);
             if (loggedInAccount.isPresent()) {
-                
-                ctx.json(mapper.writeValueAsString(loggedInAccount));
-                ctx.sessionAttribute("logged_in_account",
-                        loggedInAccount.get());
-                ctx.json(loggedInAccount.get());
+                String token = sessionTokens.issue(loggedInAccount.get().getAccount_id());
+                ctx.cookie(new Cookie(SESSION_COOKIE, token, "/", (int) sessionTokens.getTtlSeconds(), false, 0, true,
+                        null, null, SameSite.STRICT));
+                respond(ctx, loggedInAccount.get());
             } else {
                 
                 ctx.status(401);
             }
+        } catch (ServiceBusyException e) {
+            ctx.status(503);
         } catch (ServiceException e) {
             
             ctx.status(401);
         }
     }
 
-    private void createMessage(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Message mappedMessage = mapper.readValue(ctx.body(), Message.class);
+    /**
+     * A caller with a valid session token is trusted to be the account the
+     * token was issued to, without looking the account up. Callers without a
+     * token fall back to checking that posted_by exists.
+     */
+    private void createMessage(Context ctx) throws IOException {
+        Message mappedMessage = requestFormat(ctx).getMessageReader().readValue(ctx.bodyInputStream());
         try {
-            Optional<Account> account = accountService
-                    .getAccountById(mappedMessage.getPosted_by());
+            Optional<Account> account;
+            String token = sessionToken(ctx);
+            if (token != null) {
+                OptionalInt accountId = sessionTokens.verify(token);
+                if (accountId.isEmpty()) {
+                    ctx.status(401);
+                    return;
+                }
+                account = Optional.of(new Account(accountId.getAsInt(), null, null));
+            } else {
+                account = accountService.getAccountById(mappedMessage.getPosted_by());
+            }
+            if (messageService.isAsyncWrites()) {
+                messageService.createMessageAsync(mappedMessage, account);
+                ctx.status(202);
+                return;
+            }
             Message message = messageService.createMessage(mappedMessage,
                     account);
-            ctx.json(message);
+            respond(ctx, message);
+        } catch (ServiceBusyException e) {
+            ctx.status(503);
         } catch (ServiceException e) {
             
             ctx.status(400);
         }
     }
 
-    private void getAllMessages(Context ctx) {
+    /**
+     * Accepts a JSON array of messages and creates the valid ones in one batch.
+     * The response lists one result per submitted message, in order, carrying
+     * either the created message or the reason it was rejected. As with a
+     * single message, a caller with a valid session token may only post as
+     * the token's account; a batch holding a message posted by any other
+     * account is refused as a whole with 403.
+     */
+    private void createMessages(Context ctx) throws IOException {
+        List<Message> messages = requestFormat(ctx).getMessageListReader().readValue(ctx.bodyInputStream());
+        try {
+            Set<Integer> postedBy = new HashSet<>();
+            for (Message message : messages) {
+                if (message != null) {
+                    postedBy.add(message.getPosted_by());
+                }
+            }
+            OptionalInt tokenAccountId = OptionalInt.empty();
+            String token = sessionToken(ctx);
+            if (token != null) {
+                tokenAccountId = sessionTokens.verify(token);
+                if (tokenAccountId.isEmpty()) {
+                    ctx.status(401);
+                    return;
+                }
+                postedBy.remove(tokenAccountId.getAsInt());
+                if (!postedBy.isEmpty()) {
+                    ctx.status(403);
+                    return;
+                }
+            }
+            Set<Integer> existingAccountIds = accountService.findExistingAccountIds(postedBy);
+            tokenAccountId.ifPresent(existingAccountIds::add);
+            respond(ctx, messageService.createMessages(messages, existingAccountIds));
+        } catch (ServiceException e) {
+            ctx.status(400);
+        }
+    }
 
-        List<Message> messages = messageService.getAllMessages();
-        ctx.json(messages);
+    /**
+     * @return the format the request body is in, from its Content-Type
+     */
+    private static WireFormat requestFormat(Context ctx) {
+        return WireFormat.forContentType(ctx.contentType());
+    }
+
+    /**
+     * Writes the response body in the format the Accept header asks for. JSON
+     * goes through ctx.json() as before; CBOR and Smile are encoded with the
+     * format's writer for the body's type.
+     */
+    private static void respond(Context ctx, Object body) {
+        WireFormat format = WireFormat.forAccept(ctx.header(Header.ACCEPT));
+        if (format == WireFormat.JSON) {
+            ctx.json(body);
+            return;
+        }
+        try {
+            ctx.contentType(format.getMediaType());
+            ctx.result(format.writerFor(body.getClass()).writeValueAsBytes(body));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the session token from the Authorization header or the session
+     *         cookie, or null if the request carries none
+     */
+    private static String sessionToken(Context ctx) {
+        String authorization = ctx.header("Authorization");
+        if (authorization != null && authorization.startsWith("Bearer ")) {
+            return authorization.substring("Bearer ".length()).trim();
+        }
+        return ctx.cookie(SESSION_COOKIE);
+    }
+
+    /**
+     * Without query parameters every message is streamed straight from the
+     * result set to the response. With ?after= and/or ?limit= a single keyset
+     * page is returned, and a Link header points at the next page when this one
+     * was full.
+     */
+    private void getAllMessages(Context ctx) throws IOException {
+        String after = ctx.queryParam("after");
+        String limit = ctx.queryParam("limit");
+        if (after == null && limit == null) {
+            streamAllMessages(ctx);
+            return;
+        }
+        try {
+            int afterId = after == null ? 0 : Integer.parseInt(after);
+            int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limit);
+            List<Message> messages = messageService.getMessagesPage(afterId, pageSize);
+            if (messages.size() == pageSize) {
+                int lastId = messages.get(messages.size() - 1).getMessage_id();
+                ctx.header("Link", "</messages?after=" + lastId + "&limit=" + pageSize + ">; rel=\"next\"");
+            }
+            respond(ctx, messages);
+        } catch (NumberFormatException | ServiceException e) {
+            ctx.status(400);
+        }
+    }
+
+    /**
+     * Writes the JSON array one message at a time as rows are read, so memory
+     * use does not grow with the table and the first bytes go out before the
+     * last row is read. If the database fails part way through, the array is
+     * deliberately left unterminated so the client cannot mistake it for a
+     * complete list. With the read model, rows come from its columns instead;
+     * without it, a 503 turns the request away when too many downloads are
+     * running.
+     */
+    private void streamAllMessages(Context ctx) throws IOException {
+        MessageReadModel readModel = messageService.getReadModel();
+        WireFormat format = WireFormat.forAccept(ctx.header(Header.ACCEPT));
+        JsonGenerator generator = startMessageArray(ctx, format);
+        if (readModel != null) {
+            readModel.writeAll(generator);
+        } else {
+            ObjectWriter writer = MESSAGE_STREAM_WRITERS.get(format);
+            try {
+                messageService.streamAllMessages(message -> writer.writeValue(generator, message));
+            } catch (ServiceBusyException e) {
+                // nothing has left the buffers yet, so the array is dropped
+                ctx.status(503);
+                return;
+            }
+        }
+        generator.writeEndArray();
+        generator.close();
+    }
+
+    /**
+     * Starts a streamed array of messages in the negotiated format. Rows are
+     * buffered up to at least the compression minimum before anything is
+     * written, so that the compression decision, made on the first write, sees
+     * either a full buffer or the whole of a short list.
+     */
+    private static JsonGenerator startMessageArray(Context ctx, WireFormat format) throws IOException {
+        ctx.contentType(format.getMediaType());
+        OutputStream out = new BufferedOutputStream(ctx.outputStream(), Math.max(8192, COMPRESSION_MIN_SIZE));
+        JsonGenerator generator = format.getMapper().getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        generator.writeStartArray();
+        return generator;
+    }
+
+    /**
+     * Bulk export of the message table as ?format=ndjson (default) or csv,
+     * optionally only ?posted_by= one account and only messages posted from
+     * ?from= (inclusive) to ?to= (exclusive), in epoch seconds. Rows stream
+     * from the store to the response as they are read, and are compressed
+     * like any other response when the client sends Accept-Encoding. As with
+     * GET /messages, a failure part way through leaves the output cut short,
+     * and a 503 turns the request away when too many downloads are running.
+     */
+    private void exportMessages(Context ctx) throws IOException {
+        BulkFormat format;
+        MessageFilter filter;
+        try {
+            String formatName = ctx.queryParam("format");
+            format = formatName == null ? BulkFormat.NDJSON : BulkFormat.forName(formatName);
+            filter = new MessageFilter(postedByFilter(ctx.queryParam("posted_by")),
+                    epochParam(ctx.queryParam("from")), epochParam(ctx.queryParam("to")));
+        } catch (IllegalArgumentException e) {
+            ctx.status(400);
+            return;
+        }
+        ctx.contentType(format.getMediaType());
+        ctx.header("Content-Disposition", "attachment; filename=\"messages." + format.getExtension() + "\"");
+        OutputStream out = new BufferedOutputStream(ctx.outputStream(), Math.max(8192, COMPRESSION_MIN_SIZE));
+        try {
+            messageService.exportMessages(filter, format, out);
+        } catch (ServiceBusyException e) {
+            ctx.res().setHeader("Content-Disposition", null);
+            ctx.status(503);
+            return;
+        }
+        out.close();
+    }
+
+    private static Long epochParam(String value) {
+        return value == null ? null : Long.parseLong(value);
+    }
+
+    /**
+     * Returns the messages containing every word of ?q=, newest first, up to
+     * ?limit= of them.
+     */
+    private void searchMessages(Context ctx) {
+        String query = ctx.queryParam("q");
+        String limit = ctx.queryParam("limit");
+        if (query == null) {
+            ctx.status(400);
+            return;
+        }
+        try {
+            int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limit);
+            respond(ctx, messageService.searchMessages(query, pageSize));
+        } catch (NumberFormatException | ServiceException e) {
+            ctx.status(400);
+        }
+    }
+
+    /**
+     * Server-Sent Events feed of committed message changes, one event named
+     * created, updated or deleted per change with the change as JSON data.
+     * ?posted_by= limits the feed to one account's messages. Clients must
+     * send Accept: text/event-stream.
+     */
+    private void openMessageStream(Context ctx) throws Exception {
+        try {
+            ctx.attribute(POSTED_BY_FILTER, postedByFilter(ctx.queryParam("posted_by")));
+        } catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
+        }
+        messageStreamSse.handle(ctx);
+    }
+
+    private void streamMessageEvents(SseClient client) {
+        SseSink sink = new SseSink(client);
+        client.onClose(sink::clientClosed);
+        sink.subscribe(feed, client.ctx.attribute(POSTED_BY_FILTER));
+        client.keepAlive();
+    }
+
+    /**
+     * Writes feed events to an SSE client, and ends the subscription when the
+     * client goes away, which SseClient only notices on a failed write.
+     * SseClient can only write by blocking, so closing the sink aborts the
+     * connection to fail a write stuck on a client that stopped reading.
+     */
+    private static class SseSink implements MessageFeed.Sink {
+        private final SseClient client;
+        private volatile MessageFeed.Subscription subscription;
+        private volatile boolean closed;
+
+        SseSink(SseClient client) {
+            this.client = client;
+        }
+
+        void subscribe(MessageFeed feed, Integer postedBy) {
+            subscription = feed.subscribe(postedBy, this);
+            if (closed) {
+                subscription.close();
+            }
+        }
+
+        void clientClosed() {
+            closed = true;
+            if (subscription != null) {
+                subscription.close();
+            }
+        }
+
+        @Override
+        public CompletionStage<?> send(MessageEvent event) {
+            client.sendEvent(event.getType().getName(), event.getJson());
+            return WRITTEN;
+        }
+
+        @Override
+        public CompletionStage<?> heartbeat() {
+            client.sendComment("heartbeat");
+            return WRITTEN;
+        }
+
+        @Override
+        public void close() {
+            Request request = Request.getBaseRequest(client.ctx.req());
+            if (request != null) {
+                request.getHttpChannel().abort(new TimeoutException("Feed subscriber fell behind"));
+            }
+            client.close();
+        }
+    }
+
+    /**
+     * Writes feed events to a WebSocket client without blocking a sender
+     * thread, completing each write from Jetty's callback.
+     */
+    private static class WebSocketSink implements MessageFeed.Sink {
+        private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+        private final WsContext ctx;
+
+        WebSocketSink(WsContext ctx) {
+            this.ctx = ctx;
+        }
+
+        @Override
+        public CompletionStage<?> send(MessageEvent event) {
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            ctx.session.getRemote().sendString(event.getJson(), callback(written));
+            return written;
+        }
+
+        @Override
+        public CompletionStage<?> heartbeat() {
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            ctx.session.getRemote().sendPing(EMPTY.duplicate(), callback(written));
+            return written;
+        }
+
+        @Override
+        public void close() {
+            ctx.closeSession(StatusCode.TRY_AGAIN_LATER, "Subscriber fell behind");
+        }
+
+        private static WriteCallback callback(CompletableFuture<Void> written) {
+            return new WriteCallback() {
+                @Override
+                public void writeSuccess() {
+                    written.complete(null);
+                }
+
+                @Override
+                public void writeFailed(Throwable failure) {
+                    written.completeExceptionally(failure);
+                }
+            };
+        }
+    }
+
+    /**
+     * WebSocket variant of the message feed on the same path: each change is
+     * sent as a text frame holding {@code {"type":...,"message":{...}}}.
+     */
+    private void configureMessageStreamSocket(WsConfig ws) {
+        ws.onConnect(ctx -> {
+            Integer postedBy;
+            try {
+                postedBy = postedByFilter(ctx.queryParam("posted_by"));
+            } catch (NumberFormatException e) {
+                ctx.closeSession(StatusCode.POLICY_VIOLATION, "posted_by must be an account id");
+                return;
+            }
+            messageStreamSockets.put(ctx.getSessionId(), feed.subscribe(postedBy, new WebSocketSink(ctx)));
+        });
+        ws.onClose(ctx -> closeMessageStreamSocket(ctx.getSessionId()));
+        ws.onError(ctx -> closeMessageStreamSocket(ctx.getSessionId()));
+    }
+
+    private void closeMessageStreamSocket(String sessionId) {
+        MessageFeed.Subscription subscription = messageStreamSockets.remove(sessionId);
+        if (subscription != null) {
+            subscription.close();
+        }
+    }
+
+    private static Integer postedByFilter(String postedBy) {
+        return postedBy == null ? null : Integer.valueOf(postedBy);
     }
 
     private void getMessageById(Context ctx) {
@@ -115,7 +810,14 @@ public class SocialMediaController {
             int id = Integer.parseInt(ctx.pathParam("message_id"));
             Optional<Message> message = messageService.getMessageById(id);
             if (message.isPresent()) {
-                ctx.json(message.get());
+                String etag = ETags.forMessage(message.get(), WireFormat.forAccept(ctx.header(Header.ACCEPT)));
+                ctx.header(Header.ETAG, etag);
+                ctx.header(Header.CACHE_CONTROL, MESSAGE_CACHE_CONTROL);
+                if (ETags.matches(ctx.header(Header.IF_NONE_MATCH), etag)) {
+                    ctx.status(304);
+                    return;
+                }
+                respond(ctx, message.get());
             } else {
                 
                 ctx.status(200); 
@@ -143,7 +845,7 @@ public class SocialMediaController {
                 messageService.deleteMessage(message.get());
                 ctx.status(200);
                 
-                ctx.json(message.get());
+                respond(ctx, message.get());
             } else {
                 
                 ctx.status(200);
@@ -154,9 +856,8 @@ public class SocialMediaController {
         }
     }
 
-    private void updateMessageById(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Message mappedMessage = mapper.readValue(ctx.body(), Message.class);
+    private void updateMessageById(Context ctx) throws IOException {
+        Message mappedMessage = requestFormat(ctx).getMessageReader().readValue(ctx.bodyInputStream());
         try {
             int id = Integer.parseInt(ctx.pathParam("message_id"));
             mappedMessage.setMessage_id(id);
@@ -166,7 +867,7 @@ public class SocialMediaController {
                     .updateMessage(mappedMessage);
 
             
-            ctx.json(messageUpdated);
+            respond(ctx, messageUpdated);
 
         } catch (ServiceException e) {
             
@@ -174,22 +875,63 @@ public class SocialMediaController {
         }
     }
 
-    private void getMessagesByAccountId(Context ctx) {
+    /**
+     * Without query parameters every message of the account is returned. With
+     * ?cursor= and/or ?limit= a newest-first timeline page is returned, and a
+     * Link header carries the cursor for the next page when this one was full.
+     *
+     * The ETag comes from the account's timeline version, so a matching
+     * If-None-Match is answered with 304 after one aggregate over the
+     * account's index entries, without reading any message. Without
+     * query parameters, the read model serves the list when there is one.
+     */
+    private void getMessagesByAccountId(Context ctx) throws IOException {
         try {
             int accountId = Integer.parseInt(ctx.pathParam("account_id"));
+            String etag = ETags.forVersion(WireFormat.forAccept(ctx.header(Header.ACCEPT)).getMediaType() + ' '
+                    + ctx.path() + '?' + ctx.queryString(),
+                    messageService.getTimelineVersion(accountId));
+            ctx.header(Header.ETAG, etag);
+            ctx.header(Header.CACHE_CONTROL, TIMELINE_CACHE_CONTROL);
+            if (ETags.matches(ctx.header(Header.IF_NONE_MATCH), etag)) {
+                ctx.status(304);
+                return;
+            }
+            String cursor = ctx.queryParam("cursor");
+            String limit = ctx.queryParam("limit");
+            if (cursor != null || limit != null) {
+                int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limit);
+                List<Message> messages = messageService.getTimeline(accountId,
+                        cursor == null ? TimelineCursor.START : TimelineCursor.decode(cursor), pageSize);
+                if (messages.size() == pageSize) {
+                    String next = TimelineCursor.after(messages.get(messages.size() - 1)).encode();
+                    ctx.header("Link", "</accounts/" + accountId + "/messages?cursor=" + next + "&limit=" + pageSize
+                            + ">; rel=\"next\"");
+                }
+                respond(ctx, messages);
+                return;
+            }
+            MessageReadModel readModel = messageService.getReadModel();
+            if (readModel != null) {
+                JsonGenerator generator = startMessageArray(ctx, WireFormat.forAccept(ctx.header(Header.ACCEPT)));
+                readModel.writeByAccount(accountId, generator);
+                generator.writeEndArray();
+                generator.close();
+                return;
+            }
 
            
             List<Message> messages = messageService
                     .getMessagesByAccountId(accountId);
             if (!messages.isEmpty()) {
                 
-                ctx.json(messages);
+                respond(ctx, messages);
             } else {
                 
-                ctx.json(messages);
+                respond(ctx, messages);
                 ctx.status(200);
             }
-        } catch (ServiceException e) {
+        } catch (NumberFormatException | ServiceException e) {
             
             ctx.status(400);
         }
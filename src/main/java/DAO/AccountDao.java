@@ -2,6 +2,8 @@ package DAO;
 
 import Model.Account;
 import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import Util.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,15 +14,28 @@ import java.sql.Statement;
 import java.sql.SQLException;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 
 
 public class AccountDao implements BaseDao<Account> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AccountDao.class);
+    private static final LatencyHistogram GET_BY_ID_TIMER = Metrics.daoTimer("AccountDao", "getById");
+    private static final LatencyHistogram GET_ALL_TIMER = Metrics.daoTimer("AccountDao", "getAll");
+    private static final LatencyHistogram FIND_ACCOUNT_BY_USERNAME_TIMER = Metrics.daoTimer("AccountDao", "findAccountByUsername");
+    private static final LatencyHistogram VALIDATE_LOGIN_TIMER = Metrics.daoTimer("AccountDao", "validateLogin");
+    private static final LatencyHistogram DOES_USERNAME_EXIST_TIMER = Metrics.daoTimer("AccountDao", "doesUsernameExist");
+    private static final LatencyHistogram FIND_EXISTING_IDS_TIMER = Metrics.daoTimer("AccountDao", "findExistingIds");
+    private static final LatencyHistogram FIND_EXISTING_USERNAMES_TIMER = Metrics.daoTimer("AccountDao", "findExistingUsernames");
+    private static final LatencyHistogram INSERT_TIMER = Metrics.daoTimer("AccountDao", "insert");
+    private static final LatencyHistogram UPDATE_TIMER = Metrics.daoTimer("AccountDao", "update");
+    private static final LatencyHistogram DELETE_TIMER = Metrics.daoTimer("AccountDao", "delete");
 
     
     private void handleSQLException(SQLException e, String sql, String errorMessage) {
@@ -37,8 +52,8 @@ public class AccountDao implements BaseDao<Account> {
     public Optional<Account> getById(int id) {
 
         String sql = "SELECT * FROM account WHERE account_id = ?";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = ConnectionUtil.getConnection(GET_BY_ID_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, id);
             
             try (ResultSet rs = ps.executeQuery()) {
@@ -59,8 +74,8 @@ public class AccountDao implements BaseDao<Account> {
     public List<Account> getAll() {
         List<Account> accounts = new ArrayList<>();
         String sql = "SELECT * FROM account";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = ConnectionUtil.getConnection(GET_ALL_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
                     Account account = new Account(
@@ -80,9 +95,8 @@ public class AccountDao implements BaseDao<Account> {
     public Optional<Account> findAccountByUsername(String username) {
 
         String sql = "SELECT * FROM account WHERE username = ?";
-        Connection conn = ConnectionUtil.getConnection();
-
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = ConnectionUtil.getConnection(FIND_ACCOUNT_BY_USERNAME_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, username);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
@@ -98,12 +112,18 @@ public class AccountDao implements BaseDao<Account> {
         return Optional.empty();
     }
 
-    
+    /**
+     * Compares the stored password as plain text, so it only matches accounts
+     * that have not been upgraded to a password hash yet.
+     *
+     * @deprecated passwords are stored hashed; use AccountService.validateLogin,
+     *             which verifies the hash off the request thread
+     */
+    @Deprecated
     public Optional<Account> validateLogin(String username, String password) {
         String sql = "SELECT * FROM account WHERE username = ?";
-        Connection conn = ConnectionUtil.getConnection();
-
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = ConnectionUtil.getConnection(VALIDATE_LOGIN_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, username);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
@@ -128,8 +148,8 @@ public class AccountDao implements BaseDao<Account> {
 
     public boolean doesUsernameExist(String username) {
         String sql = "SELECT COUNT(*) FROM account WHERE username = ?";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = ConnectionUtil.getConnection(DOES_USERNAME_EXIST_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, username);
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
@@ -144,11 +164,62 @@ public class AccountDao implements BaseDao<Account> {
         return false;
     }
 
+    /**
+     * Resolves which of the given account ids exist with a single query, instead
+     * of one getById round trip per id.
+     *
+     * @return the subset of {@code ids} that belong to an account
+     */
+    public Set<Integer> findExistingIds(Collection<Integer> ids) {
+        Set<Integer> existing = new HashSet<>();
+        if (ids.isEmpty()) {
+            return existing;
+        }
+        String sql = "SELECT account_id FROM account WHERE account_id = ANY(?)";
+        try (Connection conn = ConnectionUtil.getConnection(FIND_EXISTING_IDS_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setObject(1, ids.toArray(new Integer[0]));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    existing.add(rs.getInt(1));
+                }
+            }
+        } catch (SQLException e) {
+            handleSQLException(e, sql, "Error while checking which of " + ids.size() + " accounts exist");
+        }
+        return existing;
+    }
+
+    /**
+     * Resolves which of the given usernames are taken with a single query.
+     *
+     * @return the subset of {@code usernames} that belong to an account
+     */
+    public Set<String> findExistingUsernames(Collection<String> usernames) {
+        Set<String> existing = new HashSet<>();
+        if (usernames.isEmpty()) {
+            return existing;
+        }
+        String sql = "SELECT username FROM account WHERE username = ANY(?)";
+        try (Connection conn = ConnectionUtil.getConnection(FIND_EXISTING_USERNAMES_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setObject(1, usernames.toArray(new String[0]));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    existing.add(rs.getString(1));
+                }
+            }
+        } catch (SQLException e) {
+            handleSQLException(e, sql, "Error while checking which of " + usernames.size() + " usernames exist");
+        }
+        return existing;
+    }
+
     
     public Account insert(Account account) {
         String sql = "INSERT INTO account (username, password) VALUES (?, ?)";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection conn = ConnectionUtil.getConnection(INSERT_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             ps.setString(1, account.getUsername());
             ps.setString(2, account.getPassword());
             ps.executeUpdate();
@@ -169,8 +240,8 @@ public class AccountDao implements BaseDao<Account> {
     
     public boolean update(Account account) {
         String sql = "UPDATE account SET username = ?, password = ? WHERE account_id = ?";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = ConnectionUtil.getConnection(UPDATE_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, account.getUsername());
             ps.setString(2, account.getPassword());
             ps.setInt(3, account.getAccount_id());
@@ -187,8 +258,8 @@ public class AccountDao implements BaseDao<Account> {
 
     public boolean delete(Account account) {
         String sql = "DELETE FROM account WHERE account_id = ?";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = ConnectionUtil.getConnection(DELETE_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, account.getAccount_id());
             int affectedRows = ps.executeUpdate();
             return affectedRows > 0;
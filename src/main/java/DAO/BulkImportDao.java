@@ -0,0 +1,274 @@
+package DAO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import Util.Metrics;
+
+/**
+ * Batched loading of accounts and messages for bulk imports, plus the
+ * import_checkpoint table recording how far each import job got.
+ *
+ * Each commit inserts its rows as JDBC batches and moves the job's
+ * checkpoint forward in one transaction, so the checkpoint never counts rows
+ * that were rolled back, nor misses rows that were committed. Rows that carry
+ * an id keep it; the others get a generated one. The rows with ids go in
+ * first, then the generated ids are restarted above the highest id in the
+ * table, still in the same transaction, and only then are the other rows
+ * inserted, so a generated id never runs into one given in the same or an
+ * earlier commit.
+ */
+public class BulkImportDao {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkImportDao.class);
+    private static final LatencyHistogram COMMIT_ACCOUNTS_TIMER = Metrics.daoTimer("BulkImportDao", "commitAccounts");
+    private static final LatencyHistogram COMMIT_MESSAGES_TIMER = Metrics.daoTimer("BulkImportDao", "commitMessages");
+    private static final String CHECKPOINT_SQL = "MERGE INTO import_checkpoint (job, records_done, imported, rejected)"
+            + " KEY (job) VALUES (?, ?, ?, ?)";
+
+    /**
+     * How far an import job got: the input records it has dealt with, and how
+     * many of those were imported or rejected.
+     */
+    public static final class Checkpoint {
+        public static final Checkpoint START = new Checkpoint(0, 0, 0);
+
+        private final long recordsDone;
+        private final long imported;
+        private final long rejected;
+
+        public Checkpoint(long recordsDone, long imported, long rejected) {
+            this.recordsDone = recordsDone;
+            this.imported = imported;
+            this.rejected = rejected;
+        }
+
+        /**
+         * @return this checkpoint moved past {@code imported + rejected} more records
+         */
+        public Checkpoint advance(long imported, long rejected) {
+            return new Checkpoint(recordsDone + imported + rejected, this.imported + imported,
+                    this.rejected + rejected);
+        }
+
+        public long getRecordsDone() {
+            return recordsDone;
+        }
+
+        public long getImported() {
+            return imported;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+    }
+
+    /**
+     * Sets the parameters of an insert for a row's columns other than its id,
+     * starting at {@code parameter}.
+     */
+    @FunctionalInterface
+    private interface RowBinder<T> {
+        void bind(PreparedStatement ps, int parameter, T row) throws SQLException;
+    }
+
+    private void handleSQLException(SQLException e, String sql, String errorMessage) {
+        LOGGER.error("SQLException Details: {}", e.getMessage());
+        LOGGER.error("SQL State: {}", e.getSQLState());
+        LOGGER.error("Error Code: {}", e.getErrorCode());
+        LOGGER.error("SQL: {}", sql);
+        throw new DaoException(errorMessage, e);
+    }
+
+    /**
+     * @return the job's checkpoint, or {@link Checkpoint#START} for a job that
+     *         has not committed anything yet
+     */
+    public Checkpoint getCheckpoint(String job) {
+        String sql = "SELECT records_done, imported, rejected FROM import_checkpoint WHERE job = ?";
+        try (Connection conn = ConnectionUtil.getConnection();
+                PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, job);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return new Checkpoint(rs.getLong(1), rs.getLong(2), rs.getLong(3));
+                }
+            }
+        } catch (SQLException e) {
+            handleSQLException(e, sql, "Error while reading the checkpoint of import job: " + job);
+        }
+        return Checkpoint.START;
+    }
+
+    /**
+     * Forgets the job's checkpoint, so that running it again starts from the
+     * first record.
+     */
+    public void clearCheckpoint(String job) {
+        String sql = "DELETE FROM import_checkpoint WHERE job = ?";
+        try (Connection conn = ConnectionUtil.getConnection();
+                PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, job);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            handleSQLException(e, sql, "Error while clearing the checkpoint of import job: " + job);
+        }
+    }
+
+    /**
+     * Inserts the accounts, whose passwords must already be hashed, and moves
+     * the job to the checkpoint in one transaction.
+     */
+    public void commitAccounts(String job, Checkpoint checkpoint, List<Account> accounts, int batchSize) {
+        long start = System.nanoTime();
+        try {
+            commit(job, checkpoint, accounts, batchSize, "account", "account_id", "username, password",
+                    Account::getAccount_id, (ps, parameter, account) -> {
+                        ps.setString(parameter, account.getUsername());
+                        ps.setString(parameter + 1, account.getPassword());
+                    });
+        } finally {
+            COMMIT_ACCOUNTS_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Inserts the messages and moves the job to the checkpoint in one
+     * transaction.
+     */
+    public void commitMessages(String job, Checkpoint checkpoint, List<Message> messages, int batchSize) {
+        long start = System.nanoTime();
+        try {
+            commit(job, checkpoint, messages, batchSize, "message", "message_id",
+                    "posted_by, message_text, time_posted_epoch", Message::getMessage_id,
+                    (ps, parameter, message) -> {
+                        ps.setInt(parameter, message.getPosted_by());
+                        ps.setString(parameter + 1, message.getMessage_text());
+                        ps.setLong(parameter + 2, message.getTime_posted_epoch());
+                    });
+        } finally {
+            COMMIT_MESSAGES_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Inserts the rows into {@code columns} of the table, those with an id
+     * above 0 into {@code idColumn} too, and moves the job to the checkpoint,
+     * in one transaction.
+     */
+    private <T> void commit(String job, Checkpoint checkpoint, List<T> rows, int batchSize, String table,
+            String idColumn, String columns, ToIntFunction<T> id, RowBinder<T> binder) {
+        List<T> explicit = new ArrayList<>();
+        List<T> generated = new ArrayList<>();
+        for (T row : rows) {
+            (id.applyAsInt(row) > 0 ? explicit : generated).add(row);
+        }
+        int columnCount = columns.split(",").length;
+        String explicitSql = "INSERT INTO " + table + " (" + idColumn + ", " + columns + ") VALUES ("
+                + placeholders(columnCount + 1) + ")";
+        String generatedSql = "INSERT INTO " + table + " (" + columns + ") VALUES (" + placeholders(columnCount) + ")";
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                insert(conn, explicitSql, explicit, batchSize, (ps, parameter, row) -> {
+                    ps.setInt(parameter, id.applyAsInt(row));
+                    binder.bind(ps, parameter + 1, row);
+                });
+                if (!explicit.isEmpty()) {
+                    restartIdentity(conn, table, idColumn);
+                }
+                insert(conn, generatedSql, generated, batchSize, binder);
+                try (PreparedStatement ps = conn.prepareStatement(CHECKPOINT_SQL)) {
+                    ps.setString(1, job);
+                    ps.setLong(2, checkpoint.getRecordsDone());
+                    ps.setLong(3, checkpoint.getImported());
+                    ps.setLong(4, checkpoint.getRejected());
+                    ps.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            handleSQLException(e, CHECKPOINT_SQL, "Error while committing " + rows.size() + " rows of import job: "
+                    + job);
+        }
+    }
+
+    private static <T> void insert(Connection conn, String sql, List<T> rows, int batchSize, RowBinder<T> binder)
+            throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int from = 0; from < rows.size(); from += batchSize) {
+                for (T row : rows.subList(from, Math.min(rows.size(), from + batchSize))) {
+                    binder.bind(ps, 1, row);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    /**
+     * Restarts the generated account_ids above the highest one, after accounts
+     * were inserted with ids of their own.
+     */
+    public void restartAccountIds() {
+        restartIdentity("account", "account_id");
+    }
+
+    /**
+     * Restarts the generated message_ids above the highest one, after messages
+     * were inserted with ids of their own.
+     */
+    public void restartMessageIds() {
+        restartIdentity("message", "message_id");
+    }
+
+    private void restartIdentity(String table, String column) {
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            restartIdentity(conn, table, column);
+        } catch (SQLException e) {
+            handleSQLException(e, "ALTER TABLE " + table + " ALTER COLUMN " + column + " RESTART",
+                    "Error while restarting the generated ids of " + table);
+        }
+    }
+
+    /**
+     * Restarts the column's generated ids above the highest id in the table,
+     * as the connection sees it, so within its transaction when it has one.
+     */
+    private static void restartIdentity(Connection conn, String table, String column) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            long next;
+            try (ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(" + column + "), 0) + 1 FROM " + table)) {
+                rs.next();
+                next = rs.getLong(1);
+            }
+            statement.execute("ALTER TABLE " + table + " ALTER COLUMN " + column + " RESTART WITH " + next);
+        }
+    }
+}
@@ -0,0 +1,1070 @@
+package DAO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import Util.Metrics;
+
+/**
+ * Message storage engine that appends fixed-size records to memory-mapped
+ * segment files, as an alternative to the H2 message table for append-mostly
+ * workloads. Selected with messages.storage=log, see MessageService.
+ *
+ * Every insert, update and delete appends one {@value #RECORD_SIZE} byte
+ * record to the active segment: a CRC32 of the rest of the record, the record
+ * type (put or tombstone), message_id, posted_by, time_posted_epoch and up to
+ * {@value #MAX_TEXT_BYTES} bytes of UTF-8 message_text. The checksum is
+ * written last, so a record torn by a crash fails it and is ignored. An array
+ * indexed by message_id holds the segment and slot of each message's latest
+ * put record, which makes getById a single array read plus a mapped read.
+ * Each account's message ids, in id order and in timeline order, serve the
+ * account queries. All of it is rebuilt at startup by scanning the segments in
+ * order.
+ *
+ * A full segment is sealed and a new one started. Superseded puts and
+ * tombstones are dead records; once they make up the compaction threshold of
+ * the sealed segments, a background task appends their live records again at
+ * the end of the log and deletes the sealed segments, oldest first, so a
+ * tombstone never disappears before the record it deletes.
+ *
+ * Writes are visible to other processes and survive the JVM crashing as soon
+ * as they return. Surviving an OS crash or power loss needs messages.log.sync,
+ * which forces the segment to disk on every write.
+ *
+ * Only one log may be open on a directory at a time: opening one holds an
+ * exclusive lock on the lock file in it until the log is closed, and opening a
+ * second, in this process or another, fails. The server uses the one log
+ * returned by {@link #acquireShared()}. A log opened with
+ * {@link #openReadOnly} takes no lock, so it can be read, e.g. for an export,
+ * while the server has the log open; it sees the records written before it
+ * was opened.
+ *
+ * Tuned with the system properties messages.log.dir (default ./data/messages),
+ * messages.log.segmentRecords (default 65536 records per segment),
+ * messages.log.sync (default false), messages.log.compactionThreshold (default
+ * 0.5) and messages.log.compactionIntervalMs (default 60000).
+ */
+public class MappedMessageLog implements MessageStore, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedMessageLog.class);
+    private static final LatencyHistogram GET_BY_ID_TIMER = Metrics.daoTimer("MappedMessageLog", "getById");
+    private static final LatencyHistogram GET_BY_IDS_TIMER = Metrics.daoTimer("MappedMessageLog", "getByIds");
+    private static final LatencyHistogram GET_ALL_TIMER = Metrics.daoTimer("MappedMessageLog", "getAll");
+    private static final LatencyHistogram GET_PAGE_TIMER = Metrics.daoTimer("MappedMessageLog", "getPage");
+    private static final LatencyHistogram STREAM_ALL_TIMER = Metrics.daoTimer("MappedMessageLog", "streamAll");
+    private static final LatencyHistogram GET_MESSAGES_BY_ACCOUNT_ID_TIMER = Metrics.daoTimer("MappedMessageLog", "getMessagesByAccountId");
+    private static final LatencyHistogram GET_TIMELINE_TIMER = Metrics.daoTimer("MappedMessageLog", "getTimeline");
+    private static final LatencyHistogram INSERT_TIMER = Metrics.daoTimer("MappedMessageLog", "insert");
+    private static final LatencyHistogram INSERT_ALL_TIMER = Metrics.daoTimer("MappedMessageLog", "insertAll");
+    private static final LatencyHistogram UPDATE_TIMER = Metrics.daoTimer("MappedMessageLog", "update");
+    private static final LatencyHistogram DELETE_TIMER = Metrics.daoTimer("MappedMessageLog", "delete");
+
+    public static final int RECORD_SIZE = 800;
+    private static final int CHECKSUM_OFFSET = 0;
+    private static final int TYPE_OFFSET = 4;
+    private static final int ID_OFFSET = 8;
+    private static final int POSTED_BY_OFFSET = 12;
+    private static final int TIME_OFFSET = 16;
+    private static final int TEXT_LENGTH_OFFSET = 24;
+    private static final int TEXT_OFFSET = 28;
+    public static final int MAX_TEXT_BYTES = RECORD_SIZE - TEXT_OFFSET;
+    private static final int PUT = 1;
+    private static final int TOMBSTONE = 2;
+    private static final int NULL_TEXT = -1;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String LOCK_FILE = "messages.lock";
+    /**
+     * Messages read per lock hold while streaming, so a slow consumer does not
+     * hold up writers.
+     */
+    private static final int STREAM_CHUNK_SIZE = 500;
+    /**
+     * Records moved per lock hold while compacting.
+     */
+    private static final int COMPACTION_CHUNK_SIZE = 256;
+
+    private static final class Segment {
+        final int sequence;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        int records;
+        int dead;
+
+        Segment(int sequence, Path path, int capacity) throws IOException {
+            this.sequence = sequence;
+            this.path = path;
+            this.capacity = capacity;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * RECORD_SIZE);
+        }
+
+        /**
+         * Maps the records already in the file for reading only.
+         */
+        Segment(int sequence, Path path) throws IOException {
+            this.sequence = sequence;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.capacity = (int) (channel.size() / RECORD_SIZE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) capacity * RECORD_SIZE);
+        }
+    }
+
+    /**
+     * An account's message ids in ascending order, and the same messages in
+     * (time_posted_epoch, message_id) order for timeline queries. New messages
+     * normally go at the end of both; one posted with an older time than the
+     * account's latest shifts the newer timeline entries along.
+     */
+    private static final class AccountMessages {
+        int[] ids = new int[4];
+        int[] timelineIds = new int[4];
+        long[] timelineTimes = new long[4];
+        int size;
+
+        void add(int id, long time) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                timelineIds = Arrays.copyOf(timelineIds, size * 2);
+                timelineTimes = Arrays.copyOf(timelineTimes, size * 2);
+            }
+            int pos = size > 0 && ids[size - 1] > id ? -Arrays.binarySearch(ids, 0, size, id) - 1 : size;
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            pos = timelinePosition(time, id);
+            System.arraycopy(timelineIds, pos, timelineIds, pos + 1, size - pos);
+            System.arraycopy(timelineTimes, pos, timelineTimes, pos + 1, size - pos);
+            timelineIds[pos] = id;
+            timelineTimes[pos] = time;
+            size++;
+        }
+
+        void remove(int id, long time) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            pos = timelinePosition(time, id);
+            System.arraycopy(timelineIds, pos + 1, timelineIds, pos, size - pos - 1);
+            System.arraycopy(timelineTimes, pos + 1, timelineTimes, pos, size - pos - 1);
+            size--;
+        }
+
+        /**
+         * @return the number of timeline entries before (time, id)
+         */
+        int timelinePosition(long time, int id) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timelineTimes[mid] < time || timelineTimes[mid] == time && timelineIds[mid] < id) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final boolean syncWrites;
+    private final double compactionThreshold;
+    private final boolean readOnly;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final HashMap<Integer, AccountMessages> messagesByAccount = new HashMap<>();
+    private final ScheduledExecutorService compactor;
+    private final FileLock directoryLock;
+    private Segment active;
+    private boolean closed;
+    /**
+     * Latest put record of each message, indexed by message_id, as the segment
+     * sequence in the high and the slot in the low 32 bits; 0 when there is no
+     * such message. Sequences start at 1, so no location is 0.
+     */
+    private long[] locations = new long[1024];
+    private int nextId = 1;
+    private int liveCount;
+
+    private static MappedMessageLog shared;
+    private static int sharedUsers;
+
+    /**
+     * When messages are stored in the log (messages.storage=log), resetting
+     * the test database closes the process's log and deletes its segments, so
+     * the next log opened starts over from the reset message table.
+     */
+    static {
+        ConnectionUtil.onTestReset(() -> {
+            if ("log".equals(System.getProperty("messages.storage"))) {
+                closeShared();
+                try {
+                    deleteSegments(configuredDirectory());
+                } catch (IOException e) {
+                    throw new DaoException("Error while deleting the message log in " + configuredDirectory(), e);
+                }
+            }
+        });
+    }
+
+    public MappedMessageLog() {
+        this(configuredDirectory(),
+                Integer.getInteger("messages.log.segmentRecords", 65_536),
+                Boolean.parseBoolean(System.getProperty("messages.log.sync", "false")),
+                Double.parseDouble(System.getProperty("messages.log.compactionThreshold", "0.5")),
+                Long.getLong("messages.log.compactionIntervalMs", 60_000L));
+    }
+
+    /**
+     * Opens the log in {@code directory}, creating it if needed, and recovers
+     * its index by scanning the existing segments.
+     *
+     * @throws DaoException if a log is already open on the directory
+     * @param compactionIntervalMillis how often to check whether the sealed
+     *                                 segments need compacting, or 0 to only
+     *                                 compact on {@link #compact()}
+     */
+    public MappedMessageLog(Path directory, int recordsPerSegment, boolean syncWrites, double compactionThreshold,
+            long compactionIntervalMillis) {
+        this(directory, recordsPerSegment, syncWrites, compactionThreshold, compactionIntervalMillis, false);
+    }
+
+    private MappedMessageLog(Path directory, int recordsPerSegment, boolean syncWrites, double compactionThreshold,
+            long compactionIntervalMillis, boolean readOnly) {
+        this.directory = directory;
+        this.recordsPerSegment = recordsPerSegment;
+        this.syncWrites = syncWrites;
+        this.compactionThreshold = compactionThreshold;
+        this.readOnly = readOnly;
+        long start = System.nanoTime();
+        if (!readOnly) {
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new DaoException("Error while opening the message log in " + directory, e);
+            }
+        }
+        this.directoryLock = readOnly ? null : lockDirectory(directory);
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            closeSegments();
+            unlockDirectory();
+            throw e instanceof DaoException ? (DaoException) e
+                    : new DaoException("Error while opening the message log in " + directory, e);
+        }
+        LOGGER.info("Recovered {} messages from {} segments in {} in {} ms", liveCount, segments.size(), directory,
+                (System.nanoTime() - start) / 1_000_000);
+        if (compactionIntervalMillis > 0 && !readOnly) {
+            compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "message-log-compaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+            compactor.scheduleWithFixedDelay(this::compactQuietly, compactionIntervalMillis,
+                    compactionIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            compactor = null;
+        }
+    }
+
+    /**
+     * @return the directory named by messages.log.dir
+     */
+    public static Path configuredDirectory() {
+        return Paths.get(System.getProperty("messages.log.dir", "./data/messages"));
+    }
+
+    /**
+     * Opens the log in {@code directory} for reading only. Nothing is written
+     * to the directory, which is not locked, and nothing is compacted, so
+     * writes fail. A directory without segments gives an empty log.
+     */
+    public static MappedMessageLog openReadOnly(Path directory) {
+        return new MappedMessageLog(directory, 0, false, 1, 0, true);
+    }
+
+    /**
+     * Returns the process's log in messages.log.dir, opening it if it is not
+     * open. Every call must be matched by a {@link #releaseShared} call; the
+     * log is closed when the last user releases it.
+     */
+    public static synchronized MappedMessageLog acquireShared() {
+        if (shared == null) {
+            shared = new MappedMessageLog();
+        }
+        sharedUsers++;
+        return shared;
+    }
+
+    /**
+     * Gives back a log returned by {@link #acquireShared()}, closing it if no
+     * one else is using it. A log already closed by {@link #closeShared()} is
+     * ignored.
+     */
+    public static synchronized void releaseShared(MappedMessageLog log) {
+        if (log == shared && --sharedUsers == 0) {
+            closeShared();
+        }
+    }
+
+    /**
+     * Closes the process's log, if it is open, whoever is still using it. The
+     * next {@link #acquireShared()} opens it again.
+     */
+    public static synchronized void closeShared() {
+        if (shared != null) {
+            shared.close();
+            shared = null;
+            sharedUsers = 0;
+        }
+    }
+
+    private static FileLock lockDirectory(Path directory) {
+        FileChannel channel = null;
+        FileLock directoryLock = null;
+        try {
+            channel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            directoryLock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // held by another log in this process
+        } catch (IOException e) {
+            throw new DaoException("Error while locking the message log in " + directory, e);
+        } finally {
+            if (directoryLock == null && channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Could not close the lock file of the message log in {}", directory, e);
+                }
+            }
+        }
+        if (directoryLock == null) {
+            throw new DaoException("The message log in " + directory + " is already open");
+        }
+        return directoryLock;
+    }
+
+    private void unlockDirectory() {
+        if (directoryLock == null) {
+            return;
+        }
+        try {
+            directoryLock.channel().close();
+        } catch (IOException e) {
+            LOGGER.warn("Could not release the lock on the message log in {}", directory, e);
+        }
+    }
+
+    /**
+     * Deletes the segment files of the log in {@code directory}, if there are
+     * any. The log must not be open.
+     */
+    public static void deleteSegments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        for (Path path : listSegments(directory)) {
+            Files.delete(path);
+        }
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private void recover() throws IOException {
+        if (readOnly && !Files.isDirectory(directory)) {
+            return;
+        }
+        for (Path path : listSegments(directory)) {
+            String name = path.getFileName().toString();
+            int sequence = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment;
+            if (readOnly) {
+                segment = new Segment(sequence, path);
+            } else {
+                int capacity = (int) Math.max(recordsPerSegment, Files.size(path) / RECORD_SIZE);
+                segment = new Segment(sequence, path, capacity);
+            }
+            segments.put(sequence, segment);
+            scan(segment);
+        }
+        if (segments.isEmpty()) {
+            // a read-only log never appends, so it needs no active segment
+            active = readOnly ? null : openSegment(1);
+            return;
+        }
+        // appends continue after the last written record; empty segments after it were opened ahead by a batch
+        active = segments.firstEntry().getValue();
+        for (Segment segment : segments.values()) {
+            if (segment.records > 0) {
+                active = segment;
+            }
+        }
+    }
+
+    private void scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int slot = 0;
+        for (; slot < segment.capacity; slot++) {
+            int base = slot * RECORD_SIZE;
+            if (buffer.getInt(base + TYPE_OFFSET) == 0) {
+                break;
+            }
+            if (!isIntact(buffer, base)) {
+                LOGGER.warn("Ignoring a torn record in slot {} of {} and everything after it", slot, segment.path);
+                break;
+            }
+            apply(segment, slot);
+        }
+        segment.records = slot;
+    }
+
+    private static boolean isIntact(ByteBuffer buffer, int base) {
+        int type = buffer.getInt(base + TYPE_OFFSET);
+        int textLength = buffer.getInt(base + TEXT_LENGTH_OFFSET);
+        return (type == PUT || type == TOMBSTONE) && textLength >= NULL_TEXT && textLength <= MAX_TEXT_BYTES
+                && buffer.getInt(base + CHECKSUM_OFFSET) == checksum(buffer, base, textLength);
+    }
+
+    private static int checksum(ByteBuffer buffer, int base, int textLength) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(base + TYPE_OFFSET).limit(base + TEXT_OFFSET + Math.max(textLength, 0));
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    private Segment openSegment(int sequence) throws IOException {
+        Segment segment = new Segment(sequence, directory.resolve(String.format("%010d%s", sequence, SEGMENT_SUFFIX)),
+                recordsPerSegment);
+        segments.put(sequence, segment);
+        return segment;
+    }
+
+    private static long location(Segment segment, int slot) {
+        return (long) segment.sequence << 32 | slot;
+    }
+
+    private Segment segmentAt(long location) {
+        return segments.get((int) (location >>> 32));
+    }
+
+    private static int baseAt(long location) {
+        return (int) location * RECORD_SIZE;
+    }
+
+    private long locationOf(int id) {
+        return id > 0 && id < locations.length ? locations[id] : 0;
+    }
+
+    /**
+     * Updates the index for the record just written or scanned in the slot.
+     */
+    private void apply(Segment segment, int slot) {
+        ByteBuffer buffer = segment.buffer;
+        int base = slot * RECORD_SIZE;
+        int type = buffer.getInt(base + TYPE_OFFSET);
+        int id = buffer.getInt(base + ID_OFFSET);
+        int postedBy = buffer.getInt(base + POSTED_BY_OFFSET);
+        if (id >= locations.length) {
+            locations = Arrays.copyOf(locations, Math.max(id + 1, locations.length * 2));
+        }
+        long time = buffer.getLong(base + TIME_OFFSET);
+        long previous = locations[id];
+        boolean indexed = false;
+        if (previous != 0) {
+            Segment previousSegment = segmentAt(previous);
+            previousSegment.dead++;
+            int previousPostedBy = previousSegment.buffer.getInt(baseAt(previous) + POSTED_BY_OFFSET);
+            long previousTime = previousSegment.buffer.getLong(baseAt(previous) + TIME_OFFSET);
+            indexed = type == PUT && previousPostedBy == postedBy && previousTime == time;
+            if (!indexed) {
+                messagesByAccount.get(previousPostedBy).remove(id, previousTime);
+            }
+        }
+        if (type == PUT) {
+            if (previous == 0) {
+                liveCount++;
+            }
+            if (!indexed) {
+                messagesByAccount.computeIfAbsent(postedBy, key -> new AccountMessages()).add(id, time);
+            }
+            locations[id] = location(segment, slot);
+        } else {
+            if (previous != 0) {
+                liveCount--;
+            }
+            segment.dead++;
+            locations[id] = 0;
+        }
+        nextId = Math.max(nextId, id + 1);
+    }
+
+    /**
+     * Appends a record to the active segment, starting a new segment when it is
+     * full, and indexes it. Must hold the write lock.
+     */
+    private void append(int type, int id, int postedBy, long timePostedEpoch, byte[] text) throws IOException {
+        checkOpen();
+        Segment segment = slotForAppend();
+        int slot = segment.records;
+        int base = slot * RECORD_SIZE;
+        ByteBuffer buffer = segment.buffer;
+        buffer.putInt(base + TYPE_OFFSET, type);
+        buffer.putInt(base + ID_OFFSET, id);
+        buffer.putInt(base + POSTED_BY_OFFSET, postedBy);
+        buffer.putLong(base + TIME_OFFSET, timePostedEpoch);
+        int textLength = text == null ? NULL_TEXT : text.length;
+        buffer.putInt(base + TEXT_LENGTH_OFFSET, textLength);
+        if (text != null) {
+            ByteBuffer textField = buffer.duplicate();
+            textField.position(base + TEXT_OFFSET);
+            textField.put(text);
+        }
+        buffer.putInt(base + CHECKSUM_OFFSET, checksum(buffer, base, textLength));
+        finishAppend(segment);
+        apply(segment, slot);
+    }
+
+    private Segment slotForAppend() throws IOException {
+        while (active.records == active.capacity) {
+            Entry<Integer, Segment> next = segments.higherEntry(active.sequence);
+            active = next != null ? next.getValue() : openSegment(active.sequence + 1);
+        }
+        return active;
+    }
+
+    private void finishAppend(Segment segment) {
+        if (syncWrites) {
+            segment.buffer.force();
+        }
+        segment.records++;
+    }
+
+    /**
+     * Opens empty segments ahead of the active one until {@code count} more
+     * records fit, so that a batch cannot fail part way for want of a segment.
+     * Must hold the write lock.
+     */
+    private void reserve(int count) throws IOException {
+        checkOpen();
+        long free = 0;
+        Segment last = active;
+        for (Segment segment : segments.tailMap(active.sequence).values()) {
+            free += segment.capacity - segment.records;
+            last = segment;
+        }
+        while (free < count) {
+            last = openSegment(last.sequence + 1);
+            free += last.capacity;
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new DaoException("The message log in " + directory + " is closed");
+        }
+        if (readOnly) {
+            throw new DaoException("The message log in " + directory + " is open read-only");
+        }
+    }
+
+    private static byte[] encode(String text) {
+        if (text == null) {
+            return null;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_TEXT_BYTES) {
+            throw new DaoException("Message text of " + bytes.length + " bytes exceeds the log's record limit of "
+                    + MAX_TEXT_BYTES + " bytes");
+        }
+        return bytes;
+    }
+
+    private Message read(long location) {
+        ByteBuffer buffer = segmentAt(location).buffer;
+        int base = baseAt(location);
+        int textLength = buffer.getInt(base + TEXT_LENGTH_OFFSET);
+        String text = null;
+        if (textLength != NULL_TEXT) {
+            byte[] bytes = new byte[textLength];
+            ByteBuffer textField = buffer.duplicate();
+            textField.position(base + TEXT_OFFSET);
+            textField.get(bytes);
+            text = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return new Message(buffer.getInt(base + ID_OFFSET), buffer.getInt(base + POSTED_BY_OFFSET), text,
+                buffer.getLong(base + TIME_OFFSET));
+    }
+
+    public Optional<Message> getById(int id) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            long location = locationOf(id);
+            return location == 0 ? Optional.empty() : Optional.of(read(location));
+        } finally {
+            lock.readLock().unlock();
+            GET_BY_ID_TIMER.recordSince(start);
+        }
+    }
+
+    public Map<Integer, Message> getByIds(Collection<Integer> ids) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            Map<Integer, Message> messages = new HashMap<>();
+            for (int id : ids) {
+                long location = locationOf(id);
+                if (location != 0) {
+                    messages.put(id, read(location));
+                }
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+            GET_BY_IDS_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Returns every message in message_id order.
+     */
+    public List<Message> getAll() {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return pageAfter(0, Integer.MAX_VALUE);
+        } finally {
+            lock.readLock().unlock();
+            GET_ALL_TIMER.recordSince(start);
+        }
+    }
+
+    public List<Message> getPage(int afterId, int limit) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            return pageAfter(afterId, limit);
+        } finally {
+            lock.readLock().unlock();
+            GET_PAGE_TIMER.recordSince(start);
+        }
+    }
+
+    private List<Message> pageAfter(int afterId, int limit) {
+        List<Message> messages = new ArrayList<>(Math.min(limit, liveCount));
+        for (int id = Math.max(afterId, 0) + 1; id < nextId && messages.size() < limit; id++) {
+            if (locations[id] != 0) {
+                messages.add(read(locations[id]));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Walks every message in message_id order. Messages are read in chunks and
+     * the lock is released while the handler runs, so writes made during the
+     * walk may or may not be seen.
+     */
+    public void streamAll(RowHandler<Message> handler) {
+        long start = System.nanoTime();
+        try {
+            int afterId = 0;
+            List<Message> chunk;
+            do {
+                lock.readLock().lock();
+                try {
+                    chunk = pageAfter(afterId, STREAM_CHUNK_SIZE);
+                } finally {
+                    lock.readLock().unlock();
+                }
+                for (Message message : chunk) {
+                    handler.handle(message);
+                    afterId = message.getMessage_id();
+                }
+            } while (chunk.size() == STREAM_CHUNK_SIZE);
+        } catch (IOException e) {
+            throw new DaoException("Error while writing streamed messages", e);
+        } finally {
+            STREAM_ALL_TIMER.recordSince(start);
+        }
+    }
+
+    public List<Message> getMessagesByAccountId(int accountId) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            AccountMessages account = messagesByAccount.get(accountId);
+            List<Message> messages = new ArrayList<>(account == null ? 0 : account.size);
+            for (int i = 0; account != null && i < account.size; i++) {
+                messages.add(read(locations[account.ids[i]]));
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+            GET_MESSAGES_BY_ACCOUNT_ID_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Same contract as {@link MessageDao#getTimeline}: a binary search for the
+     * position in the account's timeline, then a walk back over at most
+     * {@code limit} entries.
+     */
+    public List<Message> getTimeline(int accountId, long beforeTimePostedEpoch, int beforeMessageId, int limit) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            List<Message> messages = new ArrayList<>();
+            AccountMessages account = messagesByAccount.get(accountId);
+            if (account == null) {
+                return messages;
+            }
+            int end = account.timelinePosition(beforeTimePostedEpoch, beforeMessageId);
+            for (int i = end - 1; i >= 0 && messages.size() < limit; i--) {
+                messages.add(read(locations[account.timelineIds[i]]));
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+            GET_TIMELINE_TIMER.recordSince(start);
+        }
+    }
+
+    public long getTimelineStamp(int accountId) {
+        lock.readLock().lock();
+        try {
+            AccountMessages account = messagesByAccount.get(accountId);
+            return account == null || account.size == 0 ? 0
+                    : MessageStore.timelineStamp(account.size, account.ids[account.size - 1]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Message insert(Message message) {
+        long start = System.nanoTime();
+        byte[] text = encode(message.getMessage_text());
+        lock.writeLock().lock();
+        try {
+            int id = nextId;
+            append(PUT, id, message.getPosted_by(), message.getTime_posted_epoch(), text);
+            return new Message(id, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
+        } catch (IOException e) {
+            throw new DaoException("Error while inserting a message", e);
+        } finally {
+            lock.writeLock().unlock();
+            INSERT_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Appends all messages under one lock hold. Every text is checked and the
+     * segments they need are opened before the first record is written, so
+     * either every message is inserted or none are.
+     */
+    public List<Message> insertAll(List<Message> messages) {
+        long start = System.nanoTime();
+        List<byte[]> texts = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            texts.add(encode(message.getMessage_text()));
+        }
+        lock.writeLock().lock();
+        try {
+            reserve(messages.size());
+            List<Message> inserted = new ArrayList<>(messages.size());
+            for (int i = 0; i < messages.size(); i++) {
+                Message message = messages.get(i);
+                int id = nextId;
+                append(PUT, id, message.getPosted_by(), message.getTime_posted_epoch(), texts.get(i));
+                inserted.add(new Message(id, message.getPosted_by(), message.getMessage_text(),
+                        message.getTime_posted_epoch()));
+            }
+            return inserted;
+        } catch (IOException e) {
+            throw new DaoException("Error while inserting a batch of " + messages.size() + " messages", e);
+        } finally {
+            lock.writeLock().unlock();
+            INSERT_ALL_TIMER.recordSince(start);
+        }
+    }
+
+    public boolean update(Message message) {
+        long start = System.nanoTime();
+        byte[] text = encode(message.getMessage_text());
+        lock.writeLock().lock();
+        try {
+            if (locationOf(message.getMessage_id()) == 0) {
+                return false;
+            }
+            append(PUT, message.getMessage_id(), message.getPosted_by(), message.getTime_posted_epoch(), text);
+            return true;
+        } catch (IOException e) {
+            throw new DaoException("Error while updating the message with id: " + message.getMessage_id(), e);
+        } finally {
+            lock.writeLock().unlock();
+            UPDATE_TIMER.recordSince(start);
+        }
+    }
+
+    public boolean delete(Message message) {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            long location = locationOf(message.getMessage_id());
+            if (location == 0) {
+                return false;
+            }
+            int postedBy = segmentAt(location).buffer.getInt(baseAt(location) + POSTED_BY_OFFSET);
+            append(TOMBSTONE, message.getMessage_id(), postedBy, 0, null);
+            return true;
+        } catch (IOException e) {
+            throw new DaoException("Error while deleting the message with id: " + message.getMessage_id(), e);
+        } finally {
+            lock.writeLock().unlock();
+            DELETE_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Copies every message of {@code source} into this log, keeping its
+     * message_id. Used to carry the H2 message table over when the log is
+     * first created.
+     *
+     * @return the number of messages copied
+     */
+    public int importFrom(MessageStore source) {
+        lock.writeLock().lock();
+        try {
+            int[] copied = new int[1];
+            source.streamAll(message -> {
+                append(PUT, message.getMessage_id(), message.getPosted_by(), message.getTime_posted_epoch(),
+                        encode(message.getMessage_text()));
+                copied[0]++;
+            });
+            return copied[0];
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return whether no record has been written to the log yet
+     */
+    public boolean isNew() {
+        lock.readLock().lock();
+        try {
+            return segments.values().stream().allMatch(segment -> segment.records == 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Moves the live records of the sealed segments to the end of the log and
+     * deletes those segments, if at least the compaction threshold of their
+     * records are dead. Writers are only held up for one chunk of records at a
+     * time.
+     *
+     * @return whether any segment was compacted
+     */
+    public synchronized boolean compact() {
+        if (readOnly) {
+            return false;
+        }
+        List<Segment> sealed;
+        lock.readLock().lock();
+        try {
+            sealed = new ArrayList<>(segments.headMap(active.sequence).values());
+            long records = 0;
+            long dead = 0;
+            for (Segment segment : sealed) {
+                records += segment.records;
+                dead += segment.dead;
+            }
+            if (sealed.isEmpty() || dead < compactionThreshold * records) {
+                return false;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        long start = System.nanoTime();
+        int moved = 0;
+        try {
+            for (Segment segment : sealed) {
+                for (int slot = 0; slot < segment.records;) {
+                    lock.writeLock().lock();
+                    try {
+                        for (int end = Math.min(segment.records, slot + COMPACTION_CHUNK_SIZE); slot < end; slot++) {
+                            moved += relocate(segment, slot);
+                        }
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                }
+            }
+            for (Segment segment : sealed) {
+                lock.writeLock().lock();
+                try {
+                    segments.remove(segment.sequence);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                Files.delete(segment.path);
+                segment.channel.close();
+            }
+        } catch (IOException e) {
+            throw new DaoException("Error while compacting the message log in " + directory, e);
+        }
+        LOGGER.info("Compacted {} segments of the message log, keeping {} records, in {} ms", sealed.size(), moved,
+                (System.nanoTime() - start) / 1_000_000);
+        return true;
+    }
+
+    /**
+     * Copies the record in the slot to the end of the log if it is still
+     * needed: a put that is the message's latest, or the tombstone of the
+     * highest message_id, which keeps ids from being reused after a restart.
+     * Must hold the write lock.
+     *
+     * @return 1 if the record was copied, otherwise 0
+     */
+    private int relocate(Segment segment, int slot) throws IOException {
+        ByteBuffer buffer = segment.buffer;
+        int base = slot * RECORD_SIZE;
+        int type = buffer.getInt(base + TYPE_OFFSET);
+        int id = buffer.getInt(base + ID_OFFSET);
+        boolean needed = type == PUT ? locations[id] == location(segment, slot)
+                : id == nextId - 1 && locations[id] == 0;
+        if (!needed) {
+            return 0;
+        }
+        Segment target = slotForAppend();
+        int targetBase = target.records * RECORD_SIZE;
+        ByteBuffer record = buffer.duplicate();
+        record.position(base + TYPE_OFFSET).limit(base + RECORD_SIZE);
+        ByteBuffer targetRecord = target.buffer.duplicate();
+        targetRecord.position(targetBase + TYPE_OFFSET);
+        targetRecord.put(record);
+        target.buffer.putInt(targetBase + CHECKSUM_OFFSET, buffer.getInt(base + CHECKSUM_OFFSET));
+        if (type == PUT) {
+            locations[id] = location(target, target.records);
+        } else {
+            target.dead++;
+        }
+        finishAppend(target);
+        return 1;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (RuntimeException e) {
+            LOGGER.error("Message log compaction failed", e);
+        }
+    }
+
+    /**
+     * @return the number of segment files, including the active one
+     */
+    public int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of messages in the log
+     */
+    public int getMessageCount() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stops background compaction, forces every segment to disk and releases
+     * the directory, so another log can be opened on it. Writes fail
+     * afterwards. Closing a closed log does nothing.
+     */
+    @Override
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!readOnly) {
+                for (Segment segment : segments.values()) {
+                    segment.buffer.force();
+                }
+            }
+            closeSegments();
+            unlockDirectory();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void closeSegments() {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                LOGGER.warn("Could not close {}", segment.path, e);
+            }
+        }
+    }
+}
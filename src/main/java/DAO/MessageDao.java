@@ -3,21 +3,69 @@ package DAO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import Model.Message;
+import Model.MessageFilter;
+import Util.ConnectionSource;
 import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import Util.Metrics;
 
-public class MessageDao implements BaseDao<Message> {
+public class MessageDao implements MessageStore {
     private static final Logger LOGGER = LoggerFactory.getLogger(MessageDao.class);
+    private static final LatencyHistogram GET_BY_ID_TIMER = Metrics.daoTimer("MessageDao", "getById");
+    private static final LatencyHistogram GET_BY_IDS_TIMER = Metrics.daoTimer("MessageDao", "getByIds");
+    private static final LatencyHistogram GET_ALL_TIMER = Metrics.daoTimer("MessageDao", "getAll");
+    private static final LatencyHistogram GET_PAGE_TIMER = Metrics.daoTimer("MessageDao", "getPage");
+    private static final LatencyHistogram STREAM_ALL_TIMER = Metrics.daoTimer("MessageDao", "streamAll");
+    private static final LatencyHistogram GET_MESSAGES_BY_ACCOUNT_ID_TIMER = Metrics.daoTimer("MessageDao", "getMessagesByAccountId");
+    private static final LatencyHistogram GET_TIMELINE_TIMER = Metrics.daoTimer("MessageDao", "getTimeline");
+    private static final LatencyHistogram GET_TIMELINE_STAMP_TIMER = Metrics.daoTimer("MessageDao", "getTimelineStamp");
+    private static final LatencyHistogram INSERT_TIMER = Metrics.daoTimer("MessageDao", "insert");
+    private static final LatencyHistogram INSERT_ALL_TIMER = Metrics.daoTimer("MessageDao", "insertAll");
+    private static final LatencyHistogram UPDATE_TIMER = Metrics.daoTimer("MessageDao", "update");
+    private static final LatencyHistogram DELETE_TIMER = Metrics.daoTimer("MessageDao", "delete");
+    private static final LatencyHistogram EXPORT_TIMER = Metrics.daoTimer("MessageDao", "export");
+    private static final LatencyHistogram GET_MAX_MESSAGE_ID_TIMER = Metrics.daoTimer("MessageDao", "getMaxMessageId");
+    private static final LatencyHistogram SET_ID_SEQUENCE_TIMER = Metrics.daoTimer("MessageDao", "setIdSequence");
+    private static final int STREAM_FETCH_SIZE = 500;
+    /**
+     * Rows fetched per round trip by {@link #export}, set with
+     * messages.export.fetchSize.
+     */
+    private static final int EXPORT_FETCH_SIZE = Integer.getInteger("messages.export.fetchSize", 1000);
+    public static final String TIMELINE_SQL = "SELECT * FROM message USE INDEX (message_timeline_idx)"
+            + " WHERE posted_by = ? AND time_posted_epoch <= ? AND (time_posted_epoch < ? OR message_id < ?)"
+            + " ORDER BY posted_by, time_posted_epoch DESC, message_id DESC LIMIT ?";
 
+    private final ConnectionSource connections;
+
+    /**
+     * A DAO over the message table of the main database.
+     */
+    public MessageDao() {
+        this(ConnectionUtil.getPool());
+    }
+
+    /**
+     * A DAO over the message table of whichever database the connections come
+     * from, e.g. one shard of a {@link ShardedMessageStore}.
+     */
+    public MessageDao(ConnectionSource connections) {
+        this.connections = connections;
+    }
     
     private void handleSQLException(SQLException e, String sql, String errorMessage) {
         LOGGER.error("SQLException Details: {}", e.getMessage());
@@ -31,8 +79,8 @@ public class MessageDao implements BaseDao<Message> {
     public Optional<Message> getById(int id) {
         
         String sql = "SELECT * FROM message WHERE message_id = ?";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = connections.getConnection(GET_BY_ID_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, id);
             
             try (ResultSet rs = ps.executeQuery()) {
@@ -46,12 +94,39 @@ public class MessageDao implements BaseDao<Message> {
         return Optional.empty();
     }
 
+    /**
+     * Fetches the messages with the given ids in a single query, instead of one
+     * getById round trip per id. Ids with no message are skipped.
+     *
+     * @return the found messages by id, in no particular order
+     */
+    public Map<Integer, Message> getByIds(Collection<Integer> ids) {
+        Map<Integer, Message> messages = new HashMap<>();
+        if (ids.isEmpty()) {
+            return messages;
+        }
+        String sql = "SELECT * FROM message WHERE message_id = ANY(?)";
+        try (Connection conn = connections.getConnection(GET_BY_IDS_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setObject(1, ids.toArray(new Integer[0]));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Message message = mapResultSetToMessage(rs);
+                    messages.put(message.getMessage_id(), message);
+                }
+            }
+        } catch (SQLException e) {
+            handleSQLException(e, sql, "Error while retrieving " + ids.size() + " messages by id");
+        }
+        return messages;
+    }
+
     
     public List<Message> getAll() {
         String sql = "SELECT * FROM message";
-        Connection conn = ConnectionUtil.getConnection();
         List<Message> messages = new ArrayList<>();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = connections.getConnection(GET_ALL_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
                     messages.add(mapResultSetToMessage(rs));
@@ -63,11 +138,116 @@ public class MessageDao implements BaseDao<Message> {
         return messages;
     }
 
+    /**
+     * Returns the page of messages that follows {@code afterId} in message_id
+     * order. Seeking on the primary key keeps every page as cheap as the first,
+     * unlike OFFSET which has to skip all earlier rows.
+     *
+     * @param afterId the last message_id of the previous page, or 0 for the first page
+     * @param limit   the maximum number of messages to return
+     */
+    public List<Message> getPage(int afterId, int limit) {
+        String sql = "SELECT * FROM message WHERE message_id > ? ORDER BY message_id LIMIT ?";
+        try (Connection conn = connections.getConnection(GET_PAGE_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, afterId);
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                return mapResultSetToList(rs);
+            }
+        } catch (SQLException e) {
+            handleSQLException(e, sql, "Error while retrieving messages after id: " + afterId);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Walks every message in message_id order, handing each row to the handler
+     * as it is read instead of collecting them into a list. The query runs
+     * lazily, as for {@link #export}, so memory use does not grow with the
+     * table.
+     */
+    public void streamAll(RowHandler<Message> handler) {
+        String sql = "SELECT * FROM message ORDER BY message_id";
+        try (Connection conn = connections.getConnection(STREAM_ALL_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            queryLazily(conn, ps, handler);
+        } catch (SQLException e) {
+            handleSQLException(e, sql, "Error while streaming all messages");
+        } catch (IOException e) {
+            throw new DaoException("Error while writing streamed messages", e);
+        }
+    }
+
+    /**
+     * Walks the matching messages in message_id order over a forward-only,
+     * read-only result set. The session runs the query lazily while it does,
+     * so H2 produces rows as they are fetched instead of materializing the
+     * whole result first, and memory use does not grow with the export.
+     */
+    @Override
+    public void export(MessageFilter filter, RowHandler<Message> handler) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM message WHERE TRUE");
+        if (filter.getPostedBy() != null) {
+            sql.append(" AND posted_by = ?");
+        }
+        if (filter.getFromEpoch() != null) {
+            sql.append(" AND time_posted_epoch >= ?");
+        }
+        if (filter.getToEpoch() != null) {
+            sql.append(" AND time_posted_epoch < ?");
+        }
+        sql.append(" ORDER BY message_id");
+        try (Connection conn = connections.getConnection(EXPORT_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY)) {
+            int parameter = 1;
+            if (filter.getPostedBy() != null) {
+                ps.setInt(parameter++, filter.getPostedBy());
+            }
+            if (filter.getFromEpoch() != null) {
+                ps.setLong(parameter++, filter.getFromEpoch());
+            }
+            if (filter.getToEpoch() != null) {
+                ps.setLong(parameter++, filter.getToEpoch());
+            }
+            ps.setFetchSize(EXPORT_FETCH_SIZE);
+            queryLazily(conn, ps, handler);
+        } catch (SQLException e) {
+            handleSQLException(e, sql.toString(), "Error while exporting messages matching " + filter);
+        } catch (IOException e) {
+            throw new DaoException("Error while writing exported messages", e);
+        }
+    }
+
+    /**
+     * Runs the query with the session's lazy query execution on, handing each
+     * row to the handler, then turns it off again before the pooled connection
+     * is given back.
+     */
+    private void queryLazily(Connection conn, PreparedStatement ps, RowHandler<Message> handler)
+            throws SQLException, IOException {
+        try (Statement session = conn.createStatement()) {
+            session.execute("SET LAZY_QUERY_EXECUTION TRUE");
+        }
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                handler.handle(mapResultSetToMessage(rs));
+            }
+        } finally {
+            try (Statement session = conn.createStatement()) {
+                session.execute("SET LAZY_QUERY_EXECUTION FALSE");
+            }
+        }
+    }
+
     
     public List<Message> getMessagesByAccountId(int accountId) {
         String sql = "SELECT * FROM message WHERE posted_by = ?";
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = connections.getConnection(GET_MESSAGES_BY_ACCOUNT_ID_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, accountId);
             try (ResultSet rs = ps.executeQuery()) {
                 return mapResultSetToList(rs);
@@ -78,13 +258,55 @@ public class MessageDao implements BaseDao<Message> {
         return new ArrayList<>();
     }
 
+    /**
+     * Returns up to {@code limit} of an account's messages, newest first,
+     * starting strictly after the given (time_posted_epoch, message_id)
+     * position. The query is written so that message_timeline_idx both bounds
+     * the scan and supplies the order: ORDER BY repeats the constant posted_by
+     * column so the index prefix matches, and the keyset condition is split
+     * into a range on time_posted_epoch plus a tie-break on message_id.
+     */
+    public List<Message> getTimeline(int accountId, long beforeTimePostedEpoch, int beforeMessageId, int limit) {
+        try (Connection conn = connections.getConnection(GET_TIMELINE_TIMER);
+                PreparedStatement ps = conn.prepareStatement(TIMELINE_SQL)) {
+            ps.setInt(1, accountId);
+            ps.setLong(2, beforeTimePostedEpoch);
+            ps.setLong(3, beforeTimePostedEpoch);
+            ps.setInt(4, beforeMessageId);
+            ps.setInt(5, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                return mapResultSetToList(rs);
+            }
+        } catch (SQLException e) {
+            handleSQLException(e, TIMELINE_SQL, "Error while retrieving the timeline of account ID: " + accountId);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Counted on message_timeline_idx alone, without reading any message.
+     */
+    public long getTimelineStamp(int accountId) {
+        String sql = "SELECT COUNT(*), COALESCE(MAX(message_id), 0) FROM message USE INDEX (message_timeline_idx)"
+                + " WHERE posted_by = ?";
+        try (Connection conn = connections.getConnection(GET_TIMELINE_STAMP_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, accountId);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return MessageStore.timelineStamp(rs.getInt(1), rs.getInt(2));
+            }
+        } catch (SQLException e) {
+            handleSQLException(e, sql, "Error while summarizing the messages of account: " + accountId);
+        }
+        return 0;
+    }
+
     
     public Message insert(Message message) {
         String sql = "INSERT INTO message(posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
-        Connection conn = ConnectionUtil.getConnection();
-
-        
-        try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection conn = connections.getConnection(INSERT_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             ps.setInt(1, message.getPosted_by());
             ps.setString(2, message.getMessage_text());
             ps.setLong(3, message.getTime_posted_epoch());
@@ -113,12 +335,57 @@ public class MessageDao implements BaseDao<Message> {
         throw new DaoException("Failed to insert message");
     }
 
+    /**
+     * Inserts all messages with one JDBC batch in a single transaction, so the
+     * whole list costs one round trip and one commit. Either every message is
+     * inserted or, on failure, none are.
+     *
+     * @return the inserted messages with their generated ids, in the same order
+     *         as the input
+     */
+    public List<Message> insertAll(List<Message> messages) {
+        List<Message> inserted = new ArrayList<>(messages.size());
+        if (messages.isEmpty()) {
+            return inserted;
+        }
+        String sql = "INSERT INTO message(posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
+        try (Connection conn = connections.getConnection(INSERT_ALL_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            conn.setAutoCommit(false);
+            try {
+                for (Message message : messages) {
+                    ps.setInt(1, message.getPosted_by());
+                    ps.setString(2, message.getMessage_text());
+                    ps.setLong(3, message.getTime_posted_epoch());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                try (ResultSet generatedKeys = ps.getGeneratedKeys()) {
+                    for (Message message : messages) {
+                        if (!generatedKeys.next()) {
+                            throw new DaoException("Failed to insert messages, fewer IDs obtained than rows.");
+                        }
+                        inserted.add(new Message(generatedKeys.getInt(1), message.getPosted_by(),
+                                message.getMessage_text(), message.getTime_posted_epoch()));
+                    }
+                }
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            handleSQLException(e, sql, "Error while inserting a batch of " + messages.size() + " messages");
+        }
+        return inserted;
+    }
+
     
     public boolean update(Message message) {
         String sql = "UPDATE message SET posted_by = ?, message_text = ?, time_posted_epoch = ? WHERE message_id = ?";
         int rowsUpdated = 0;
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = connections.getConnection(UPDATE_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, message.getPosted_by());
             ps.setString(2, message.getMessage_text());
             ps.setLong(3, message.getTime_posted_epoch());
@@ -134,8 +401,8 @@ public class MessageDao implements BaseDao<Message> {
     public boolean delete(Message message) {
         String sql = "DELETE FROM message WHERE message_id = ?";
         int rowsUpdated = 0;
-        Connection conn = ConnectionUtil.getConnection();
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = connections.getConnection(DELETE_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, message.getMessage_id());
             rowsUpdated = ps.executeUpdate();
         } catch (SQLException e) {
@@ -144,6 +411,38 @@ public class MessageDao implements BaseDao<Message> {
         return rowsUpdated > 0;
     }
 
+    /**
+     * @return the highest message_id in the table, or 0 when it is empty
+     */
+    public int getMaxMessageId() {
+        String sql = "SELECT COALESCE(MAX(message_id), 0) FROM message";
+        try (Connection conn = connections.getConnection(GET_MAX_MESSAGE_ID_TIMER);
+                PreparedStatement ps = conn.prepareStatement(sql);
+                ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        } catch (SQLException e) {
+            handleSQLException(e, sql, "Error while retrieving the highest message id");
+        }
+        return 0;
+    }
+
+    /**
+     * Makes the message_ids generated from now on start at {@code restartWith}
+     * and step by {@code incrementBy}, so that several tables can hand out ids
+     * from disjoint sequences.
+     */
+    public void setIdSequence(int restartWith, int incrementBy) {
+        String sql = "ALTER TABLE message ALTER COLUMN message_id RESTART WITH " + restartWith
+                + " SET INCREMENT BY " + incrementBy;
+        try (Connection conn = connections.getConnection(SET_ID_SEQUENCE_TIMER);
+                Statement statement = conn.createStatement()) {
+            statement.execute(sql);
+        } catch (SQLException e) {
+            handleSQLException(e, sql, "Error while restarting the message id sequence");
+        }
+    }
+
     
     private Message mapResultSetToMessage(ResultSet rs) throws SQLException {
         int messageId = rs.getInt("message_id");
@@ -0,0 +1,90 @@
+package DAO;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import Model.Message;
+import Model.MessageFilter;
+
+/**
+ * Everything the message service needs from a message storage engine, on top
+ * of the basic CRUD operations. {@link MessageDao} keeps messages in the H2
+ * message table, {@link ShardedMessageStore} in the message tables of several
+ * H2 databases and {@link MappedMessageLog} in memory-mapped segment files.
+ */
+public interface MessageStore extends BaseDao<Message> {
+
+    /**
+     * Retrieves the messages with the given ids. Ids with no message are
+     * skipped.
+     *
+     * @return the found messages by id, in no particular order
+     */
+    Map<Integer, Message> getByIds(Collection<Integer> ids);
+
+    /**
+     * Retrieves the page of messages that follows {@code afterId} in
+     * message_id order.
+     *
+     * @param afterId the last message_id of the previous page, or 0 for the first page
+     * @param limit   the maximum number of messages to return
+     */
+    List<Message> getPage(int afterId, int limit);
+
+    /**
+     * Walks every message in message_id order, handing each one to the handler
+     * instead of collecting them into a list.
+     */
+    void streamAll(RowHandler<Message> handler);
+
+    /**
+     * Walks the messages the filter matches in message_id order, handing each
+     * one to the handler, for bulk exports. By default this filters
+     * {@link #streamAll}; engines that can narrow the walk themselves do.
+     */
+    default void export(MessageFilter filter, RowHandler<Message> handler) {
+        streamAll(message -> {
+            if (filter.matches(message)) {
+                handler.handle(message);
+            }
+        });
+    }
+
+    /**
+     * Retrieves every message posted by the account.
+     */
+    List<Message> getMessagesByAccountId(int accountId);
+
+    /**
+     * Retrieves up to {@code limit} of an account's messages, newest first
+     * by (time_posted_epoch, message_id), starting strictly after the given
+     * position.
+     */
+    List<Message> getTimeline(int accountId, long beforeTimePostedEpoch, int beforeMessageId, int limit);
+
+    /**
+     * A cheap summary of the account's messages as stored, whoever wrote them:
+     * the number of messages in the high 32 bits and the highest message_id in
+     * the low 32 bits. Any insert or delete changes it; editing a message in
+     * place does not.
+     */
+    long getTimelineStamp(int accountId);
+
+    /**
+     * Packs a message count and highest message_id as returned by
+     * {@link #getTimelineStamp}.
+     */
+    static long timelineStamp(int count, int maxMessageId) {
+        return (long) count << 32 | (maxMessageId & 0xffffffffL);
+    }
+
+    /**
+     * Inserts all messages at once. Either every message is inserted or, on
+     * failure, none are.
+     *
+     * @return the inserted messages with their generated ids, in the same order
+     *         as the input
+     */
+    List<Message> insertAll(List<Message> messages);
+}
@@ -0,0 +1,24 @@
+package DAO;
+
+import java.io.IOException;
+
+/**
+ * Receives rows one at a time while a DAO walks a result set, so callers can
+ * write each row out (for example to an HTTP response) without the DAO
+ * building a list of every row first.
+ *
+ * @param <T> the model type each row is mapped to
+ */
+@FunctionalInterface
+public interface RowHandler<T> {
+
+    /**
+     * Handles one mapped row. The underlying connection stays open until every
+     * row has been handled, so implementations should not block for long.
+     *
+     * @param row the current row
+     * @throws IOException if the row could not be written out, which stops the
+     *                     walk
+     */
+    void handle(T row) throws IOException;
+}
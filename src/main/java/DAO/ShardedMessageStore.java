@@ -0,0 +1,411 @@
+package DAO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import Model.Message;
+import Model.MessageFilter;
+import Util.ConnectionUtil;
+import Util.SchemaMigrations;
+
+/**
+ * Spreads messages over several H2 databases by the account that posted
+ * them, so that writes for different accounts contend on different store
+ * files. Selected by setting db.shards above 1, see ConnectionUtil and
+ * MessageService.
+ *
+ * An account's messages all live on shard (posted_by - 1) mod N, which puts
+ * account 1 on shard 0, the main database. Queries about one account go to
+ * that shard alone. Everything else is scattered to all shards in parallel,
+ * with the calling thread querying shard 0 itself, and the answers gathered
+ * in message_id order by merging the per-shard results, which every shard
+ * returns already sorted.
+ *
+ * message_ids stay unique across shards because each shard draws them from
+ * its own arithmetic sequence: with M the highest id on any shard when the
+ * sequences were aligned, shard i hands out M + 1 + i, M + 1 + i + N, and so
+ * on. The server aligns them once at startup, and again after resetting the
+ * databases, see {@link #alignConfiguredIdSequences}; opening a store leaves
+ * the tables alone. Resetting the test database also empties the message
+ * tables of the shards other than the main database. Since the sequences are set at startup, only
+ * one process may write to a set of shard databases at a time.
+ *
+ * Tuned with the system property db.shardThreads, the threads querying the
+ * other shards (default twice the shard count).
+ */
+public class ShardedMessageStore implements MessageStore, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardedMessageStore.class);
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final int STREAM_PAGE_SIZE = 500;
+
+    /**
+     * The reset count of the test database when the configured shards' id
+     * sequences were last aligned, -1 if they never were.
+     */
+    private static long configuredSequencesAlignedAt = -1;
+
+    static {
+        ConnectionUtil.onTestReset(ShardedMessageStore::resetConfiguredShards);
+    }
+
+    private final List<MessageDao> shards;
+    private final ExecutorService executor;
+
+    /**
+     * A store over the shard databases configured in ConnectionUtil.
+     */
+    public ShardedMessageStore() {
+        this(shardDaos(), Integer.getInteger("db.shardThreads", 2 * ConnectionUtil.getShardCount()));
+    }
+
+    /**
+     * @param shards  the DAO of each shard's message table, shard 0 first
+     * @param threads the threads querying shards other than shard 0
+     */
+    public ShardedMessageStore(List<MessageDao> shards, int threads) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("A sharded message store needs at least one shard");
+        }
+        this.shards = new ArrayList<>(shards);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "message-shard-" + THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+    }
+
+    private static List<MessageDao> shardDaos() {
+        List<MessageDao> daos = new ArrayList<>();
+        for (int shard = 0; shard < ConnectionUtil.getShardCount(); shard++) {
+            daos.add(new MessageDao(ConnectionUtil.getShardPool(shard)));
+        }
+        return daos;
+    }
+
+    /**
+     * Restarts every shard's id sequence above the highest id on any shard,
+     * each on its own residue modulo the shard count. Must run before the
+     * shards are first written through a store, and not while one is writing.
+     *
+     * @param shards the DAO of each shard's message table, shard 0 first
+     */
+    public static void alignIdSequences(List<MessageDao> shards) {
+        int shardCount = shards.size();
+        int maxId = 0;
+        for (MessageDao shard : shards) {
+            maxId = Math.max(maxId, shard.getMaxMessageId());
+        }
+        for (int shard = 0; shard < shardCount; shard++) {
+            shards.get(shard).setIdSequence(maxId + 1 + shard, shardCount);
+        }
+        LOGGER.info("Spreading messages over {} shards, new ids start above {}", shardCount, maxId);
+    }
+
+    /**
+     * Aligns the id sequences of the shards configured in ConnectionUtil, see
+     * {@link #alignIdSequences}, the first time it is called and the first
+     * time after each reset of the test database; other calls do nothing. The
+     * server calls it before it first writes through a ShardedMessageStore, so
+     * that opening a store, e.g. for an export, never alters the tables.
+     */
+    public static synchronized void alignConfiguredIdSequences() {
+        long resets = ConnectionUtil.getResetCount();
+        if (ConnectionUtil.getShardCount() == 1 || configuredSequencesAlignedAt == resets) {
+            return;
+        }
+        alignIdSequences(shardDaos());
+        configuredSequencesAlignedAt = resets;
+    }
+
+    private static void resetConfiguredShards() {
+        for (int shard = 1; shard < ConnectionUtil.getShardCount(); shard++) {
+            try (Connection conn = ConnectionUtil.getShardPool(shard).getConnection();
+                    Statement statement = conn.createStatement()) {
+                statement.execute("drop table if exists message");
+                SchemaMigrations.createMessageShard(conn);
+            } catch (SQLException e) {
+                throw new DaoException("Error while resetting message shard " + shard, e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of shards messages are spread over
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * @return the shard holding the account's messages
+     */
+    public int shardOf(int accountId) {
+        return Math.floorMod(accountId - 1, shards.size());
+    }
+
+    private MessageDao shardFor(int accountId) {
+        return shards.get(shardOf(accountId));
+    }
+
+    /**
+     * Runs the query against every shard at once, shard 0 on the calling
+     * thread and the others on the executor.
+     *
+     * @return each shard's result, by shard number
+     */
+    private <T> List<T> scatter(IntFunction<T> query) {
+        List<CompletableFuture<T>> others = new ArrayList<>(shards.size() - 1);
+        for (int shard = 1; shard < shards.size(); shard++) {
+            int target = shard;
+            others.add(CompletableFuture.supplyAsync(() -> query.apply(target), executor));
+        }
+        List<T> results = new ArrayList<>(shards.size());
+        results.add(query.apply(0));
+        for (CompletableFuture<T> other : others) {
+            try {
+                results.add(other.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new DaoException("Error while querying a message shard", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private <T> List<T> eachShard(Function<MessageDao, T> query) {
+        return scatter(shard -> query.apply(shards.get(shard)));
+    }
+
+    /**
+     * Merges lists each sorted by message_id into one sorted list of at most
+     * {@code limit} messages.
+     */
+    private static List<Message> mergeById(List<List<Message>> sorted, int limit) {
+        int total = 0;
+        for (List<Message> messages : sorted) {
+            total += messages.size();
+        }
+        List<Message> merged = new ArrayList<>(Math.min(total, limit));
+        int[] positions = new int[sorted.size()];
+        while (merged.size() < limit) {
+            int next = -1;
+            for (int shard = 0; shard < sorted.size(); shard++) {
+                if (positions[shard] < sorted.get(shard).size() && (next < 0
+                        || sorted.get(shard).get(positions[shard]).getMessage_id()
+                                < sorted.get(next).get(positions[next]).getMessage_id())) {
+                    next = shard;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            merged.add(sorted.get(next).get(positions[next]++));
+        }
+        return merged;
+    }
+
+    public Optional<Message> getById(int id) {
+        for (Optional<Message> message : eachShard(shard -> shard.getById(id))) {
+            if (message.isPresent()) {
+                return message;
+            }
+        }
+        return Optional.empty();
+    }
+
+    public Map<Integer, Message> getByIds(Collection<Integer> ids) {
+        Map<Integer, Message> messages = new HashMap<>();
+        if (ids.isEmpty()) {
+            return messages;
+        }
+        for (Map<Integer, Message> found : eachShard(shard -> shard.getByIds(ids))) {
+            messages.putAll(found);
+        }
+        return messages;
+    }
+
+    /**
+     * @return every message, in message_id order
+     */
+    public List<Message> getAll() {
+        return mergeById(eachShard(shard -> shard.getPage(0, Integer.MAX_VALUE)), Integer.MAX_VALUE);
+    }
+
+    public List<Message> getPage(int afterId, int limit) {
+        return mergeById(eachShard(shard -> shard.getPage(afterId, limit)), limit);
+    }
+
+    /**
+     * Walks every message in message_id order a page at a time, so only one
+     * page per shard is held at once.
+     */
+    public void streamAll(RowHandler<Message> handler) {
+        int afterId = 0;
+        List<Message> page;
+        do {
+            page = getPage(afterId, STREAM_PAGE_SIZE);
+            try {
+                for (Message message : page) {
+                    handler.handle(message);
+                }
+            } catch (IOException e) {
+                throw new DaoException("Error while writing streamed messages", e);
+            }
+            if (!page.isEmpty()) {
+                afterId = page.get(page.size() - 1).getMessage_id();
+            }
+        } while (page.size() == STREAM_PAGE_SIZE);
+    }
+
+    /**
+     * An export of one account's messages runs on that account's shard
+     * alone. Any other export walks every shard in id order through
+     * {@link #streamAll} and filters the rows.
+     */
+    @Override
+    public void export(MessageFilter filter, RowHandler<Message> handler) {
+        if (filter.getPostedBy() != null) {
+            shardFor(filter.getPostedBy()).export(filter, handler);
+        } else {
+            MessageStore.super.export(filter, handler);
+        }
+    }
+
+    public List<Message> getMessagesByAccountId(int accountId) {
+        return shardFor(accountId).getMessagesByAccountId(accountId);
+    }
+
+    public List<Message> getTimeline(int accountId, long beforeTimePostedEpoch, int beforeMessageId, int limit) {
+        return shardFor(accountId).getTimeline(accountId, beforeTimePostedEpoch, beforeMessageId, limit);
+    }
+
+    public long getTimelineStamp(int accountId) {
+        return shardFor(accountId).getTimelineStamp(accountId);
+    }
+
+    public Message insert(Message message) {
+        return shardFor(message.getPosted_by()).insert(message);
+    }
+
+    /**
+     * Inserts each shard's share of the messages as one batch, all shards in
+     * parallel. The shards commit separately; if any of them fails, the
+     * batches the others already committed are deleted again before the
+     * failure is rethrown. That compensation is not crash-safe: if the
+     * process dies, or a delete fails, between a shard committing and its
+     * batch being deleted again, those messages stay although the batch was
+     * reported as failed, and readers may briefly see them either way.
+     */
+    public List<Message> insertAll(List<Message> messages) {
+        List<List<Message>> batches = new ArrayList<>(shards.size());
+        List<List<Integer>> positions = new ArrayList<>(shards.size());
+        for (int shard = 0; shard < shards.size(); shard++) {
+            batches.add(new ArrayList<>());
+            positions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            int shard = shardOf(messages.get(i).getPosted_by());
+            batches.get(shard).add(messages.get(i));
+            positions.get(shard).add(i);
+        }
+        List<CompletableFuture<List<Message>>> results = scatter(shard -> {
+            try {
+                return CompletableFuture.completedFuture(shards.get(shard).insertAll(batches.get(shard)));
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        });
+        RuntimeException failure = null;
+        for (CompletableFuture<List<Message>> result : results) {
+            if (result.isCompletedExceptionally()) {
+                failure = result.handle((inserted, e) -> (RuntimeException) e).join();
+            }
+        }
+        if (failure != null) {
+            for (CompletableFuture<List<Message>> result : results) {
+                if (!result.isCompletedExceptionally()) {
+                    for (Message inserted : result.join()) {
+                        delete(inserted);
+                    }
+                }
+            }
+            throw failure;
+        }
+        Message[] inserted = new Message[messages.size()];
+        for (int shard = 0; shard < shards.size(); shard++) {
+            List<Message> shardInserted = results.get(shard).join();
+            for (int i = 0; i < shardInserted.size(); i++) {
+                inserted[positions.get(shard).get(i)] = shardInserted.get(i);
+            }
+        }
+        return Arrays.asList(inserted);
+    }
+
+    /**
+     * Updates the message on its account's shard, falling back to the other
+     * shards in case posted_by is not the account that posted it.
+     */
+    public boolean update(Message message) {
+        int home = shardOf(message.getPosted_by());
+        if (shards.get(home).update(message)) {
+            return true;
+        }
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (shard != home && shards.get(shard).update(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Deletes the message from its account's shard, falling back to the
+     * other shards in case posted_by is not the account that posted it.
+     */
+    public boolean delete(Message message) {
+        int home = shardOf(message.getPosted_by());
+        if (shards.get(home).delete(message)) {
+            return true;
+        }
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (shard != home && shards.get(shard).delete(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops the threads querying the shards. The shard databases' pools are
+     * left open.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import Model.MessageFilter;
+import Service.MessageExporter;
+import Util.BulkFormat;
+
+/**
+ * Command line bulk export of the message table, for jobs that would rather
+ * not go through GET /export/messages. Reads the same storage as the server,
+ * configured through the same system properties, without changing it, and
+ * writes to standard output unless --output is given:
+ *
+ * <pre>
+ * java -cp ... ExportMessages [--format ndjson|csv] [--posted-by ACCOUNT_ID]
+ *     [--from EPOCH_SECONDS] [--to EPOCH_SECONDS] [--gzip] [--output FILE]
+ * </pre>
+ *
+ * --from is inclusive and --to exclusive. --gzip compresses the output, as
+ * does an output file name ending in .gz.
+ */
+public class ExportMessages {
+    private static final String USAGE = "Usage: ExportMessages [--format ndjson|csv] [--posted-by ACCOUNT_ID]"
+            + " [--from EPOCH_SECONDS] [--to EPOCH_SECONDS] [--gzip] [--output FILE]";
+
+    public static void main(String[] args) {
+        BulkFormat format = BulkFormat.NDJSON;
+        Integer postedBy = null;
+        Long from = null;
+        Long to = null;
+        boolean gzip = false;
+        String output = null;
+        MessageFilter filter;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format":
+                        format = BulkFormat.forName(value(args, ++i));
+                        break;
+                    case "--posted-by":
+                        postedBy = Integer.valueOf(value(args, ++i));
+                        break;
+                    case "--from":
+                        from = Long.valueOf(value(args, ++i));
+                        break;
+                    case "--to":
+                        to = Long.valueOf(value(args, ++i));
+                        break;
+                    case "--gzip":
+                        gzip = true;
+                        break;
+                    case "--output":
+                        output = value(args, ++i);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            filter = new MessageFilter(postedBy, from, to);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        gzip |= output != null && output.endsWith(".gz");
+
+        try (MessageExporter exporter = new MessageExporter(); OutputStream out = open(output, gzip)) {
+            long rows = exporter.export(filter, format, out);
+            System.err.println("Exported " + rows + " messages");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Export failed: " + e);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(args[i - 1] + " needs a value");
+        }
+        return args[i];
+    }
+
+    private static OutputStream open(String output, boolean gzip) throws IOException {
+        OutputStream out = output == null ? System.out : new FileOutputStream(output);
+        return gzip ? new GZIPOutputStream(out, 64 * 1024) : new BufferedOutputStream(out, 64 * 1024);
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import Service.BulkImporter;
+import Service.PasswordHasher;
+import Util.BulkFormat;
+
+/**
+ * Command line bulk import of accounts or messages from an NDJSON or CSV
+ * file, such as one written by ExportMessages. Writes to the same database as
+ * the server, configured through the same system properties:
+ *
+ * <pre>
+ * java -cp ... ImportData accounts|messages --input FILE [--format ndjson|csv]
+ *     [--threads N] [--batch-size N] [--commit-interval N] [--job NAME]
+ *     [--rejects FILE] [--restart]
+ * </pre>
+ *
+ * The format defaults to the one named by the file extension, after a .gz
+ * suffix, which decompresses the input. Running the same job again after a
+ * failure resumes it; the job defaults to the kind of record and the input
+ * file name, and --restart starts it over from the first record. Rejected
+ * records go to --rejects, or standard output.
+ */
+public class ImportData {
+    private static final String USAGE = "Usage: ImportData accounts|messages --input FILE [--format ndjson|csv]"
+            + " [--threads N] [--batch-size N] [--commit-interval N] [--job NAME] [--rejects FILE] [--restart]";
+
+    public static void main(String[] args) {
+        String kind = null;
+        String input = null;
+        BulkFormat format = null;
+        int threads = Integer.getInteger("import.threads", Runtime.getRuntime().availableProcessors());
+        int batchSize = Integer.getInteger("import.batchSize", 1000);
+        int commitInterval = Integer.getInteger("import.commitInterval", 10_000);
+        String job = null;
+        String rejects = null;
+        boolean restart = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--input":
+                        input = value(args, ++i);
+                        break;
+                    case "--format":
+                        format = BulkFormat.forName(value(args, ++i));
+                        break;
+                    case "--threads":
+                        threads = positive(args, ++i);
+                        break;
+                    case "--batch-size":
+                        batchSize = positive(args, ++i);
+                        break;
+                    case "--commit-interval":
+                        commitInterval = positive(args, ++i);
+                        break;
+                    case "--job":
+                        job = value(args, ++i);
+                        break;
+                    case "--rejects":
+                        rejects = value(args, ++i);
+                        break;
+                    case "--restart":
+                        restart = true;
+                        break;
+                    default:
+                        if (kind != null || args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                        kind = args[i];
+                }
+            }
+            if (!"accounts".equals(kind) && !"messages".equals(kind)) {
+                throw new IllegalArgumentException("Name accounts or messages to import");
+            }
+            if (input == null) {
+                throw new IllegalArgumentException("--input is required");
+            }
+            if (format == null) {
+                String name = input.endsWith(".gz") ? input.substring(0, input.length() - 3) : input;
+                format = BulkFormat.forName(name.substring(name.lastIndexOf('.') + 1));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        if (job == null) {
+            job = kind + ":" + input;
+        }
+
+        try (BulkImporter importer = new BulkImporter(threads, batchSize, commitInterval,
+                Long.getLong("import.progressIntervalMs", 5_000L), PasswordHasher.shared());
+                Reader in = open(input);
+                Writer rejectsOut = rejects == null
+                        ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                        : new BufferedWriter(new OutputStreamWriter(new FileOutputStream(rejects, true),
+                                StandardCharsets.UTF_8))) {
+            if (restart) {
+                importer.restart(job);
+            }
+            BulkImporter.Result result = "accounts".equals(kind)
+                    ? importer.importAccounts(job, in, format, rejectsOut)
+                    : importer.importMessages(job, in, format, rejectsOut);
+            System.err.println("Imported " + result.getImported() + " " + kind + ", rejected "
+                    + result.getRejected() + ", skipped " + result.getSkipped() + " done before, "
+                    + Math.round(result.getRecordsPerSecond()) + " records/s");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Import failed, run it again to resume: " + e);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(args[i - 1] + " needs a value");
+        }
+        return args[i];
+    }
+
+    private static int positive(String[] args, int i) {
+        int value = Integer.parseInt(value(args, i));
+        if (value < 1) {
+            throw new IllegalArgumentException(args[i - 1] + " must be positive");
+        }
+        return value;
+    }
+
+    private static Reader open(String input) throws IOException {
+        InputStream in = new FileInputStream(input);
+        if (input.endsWith(".gz")) {
+            in = new GZIPInputStream(in, 64 * 1024);
+        }
+        return new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+}
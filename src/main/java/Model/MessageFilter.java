@@ -0,0 +1,63 @@
+package Model;
+
+/**
+ * Which messages a bulk export includes: optionally only one account's, and
+ * optionally only those posted within [fromEpoch, toEpoch). A null bound is
+ * left open.
+ */
+public final class MessageFilter {
+
+    /**
+     * Every message.
+     */
+    public static final MessageFilter ALL = new MessageFilter(null, null, null);
+
+    private final Integer postedBy;
+    private final Long fromEpoch;
+    private final Long toEpoch;
+
+    /**
+     * @throws IllegalArgumentException if the time range ends before it starts
+     */
+    public MessageFilter(Integer postedBy, Long fromEpoch, Long toEpoch) {
+        if (fromEpoch != null && toEpoch != null && fromEpoch > toEpoch) {
+            throw new IllegalArgumentException("Time range ends before it starts");
+        }
+        this.postedBy = postedBy;
+        this.fromEpoch = fromEpoch;
+        this.toEpoch = toEpoch;
+    }
+
+    public Integer getPostedBy() {
+        return postedBy;
+    }
+
+    /**
+     * @return the earliest time_posted_epoch included, or null for no lower bound
+     */
+    public Long getFromEpoch() {
+        return fromEpoch;
+    }
+
+    /**
+     * @return the time_posted_epoch from which messages are excluded, or null for no upper bound
+     */
+    public Long getToEpoch() {
+        return toEpoch;
+    }
+
+    public boolean matches(Message message) {
+        return (postedBy == null || message.getPosted_by() == postedBy)
+                && (fromEpoch == null || message.getTime_posted_epoch() >= fromEpoch)
+                && (toEpoch == null || message.getTime_posted_epoch() < toEpoch);
+    }
+
+    @Override
+    public String toString() {
+        return "MessageFilter{" +
+                "postedBy=" + postedBy +
+                ", fromEpoch=" + fromEpoch +
+                ", toEpoch=" + toEpoch +
+                '}';
+    }
+}
@@ -1,37 +1,90 @@
 package Service;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import DAO.AccountDao;
 import DAO.DaoException;
 import Model.Account;
+import Util.HotPathLog;
+import Util.LruCache;
 
 
 
+/**
+ * Account lookups go through two caches over the same accounts, one keyed by
+ * id and one by username, plus a short-lived negative cache of usernames that
+ * were not found. That lets registration, login and message posting answer
+ * repeated lookups without querying H2. The caches are tuned with the system
+ * properties cache.account.maxEntries (default 10000), cache.account.maxBytes
+ * (default 8 MB), cache.account.ttlMs (default 300000) and
+ * cache.account.negativeTtlMs (default 5000).
+ *
+ * Accounts added without going through a service, such as by
+ * {@link BulkImporter}, are announced with {@link #forgetUnknownAccounts()},
+ * which voids the negative entries of every service in the process. Accounts
+ * added by another process stay hidden until their negative entry expires.
+ *
+ * Passwords are stored as salted hashes made by a {@link PasswordHasher},
+ * which runs on its own bounded pool of threads. Accounts still stored with a
+ * plain text password are upgraded to a hash the next time they log in.
+ * Logins for unknown usernames are verified against a dummy hash, so they
+ * cost as much as a wrong password and do not reveal which usernames exist.
+ * Accounts returned to callers of register and login carry the password the
+ * caller sent, never the stored hash.
+ */
 public class AccountService {
     private AccountDao accountDao;
-    private static final Logger LOGGER = LoggerFactory.getLogger(AccountService.class);
+    private final PasswordHasher passwordHasher;
+    private static final HotPathLog HOT_LOG = HotPathLog.getLogger(AccountService.class);
+    private static final int CACHE_MAX_ENTRIES = Integer.getInteger("cache.account.maxEntries", 10_000);
+    private static final long CACHE_MAX_BYTES = Long.getLong("cache.account.maxBytes", 8L * 1024 * 1024);
+    private static final long CACHE_TTL_MS = Long.getLong("cache.account.ttlMs", 300_000L);
+
+    private final LruCache<Integer, Account> accountsById = new LruCache<>("account_by_id",
+            CACHE_MAX_ENTRIES, CACHE_MAX_BYTES / 2, CACHE_TTL_MS, (id, account) -> estimateSize(account));
+    private final LruCache<String, Account> accountsByUsername = new LruCache<>("account_by_username",
+            CACHE_MAX_ENTRIES, CACHE_MAX_BYTES / 2, CACHE_TTL_MS, (username, account) -> estimateSize(account));
+    /**
+     * Usernames not found, each with the {@link #UNKNOWN_ACCOUNTS_GENERATION}
+     * it was looked up in. Entries from an older generation no longer count.
+     */
+    private final LruCache<String, Long> unknownUsernames = new LruCache<>("unknown_username",
+            CACHE_MAX_ENTRIES, CACHE_MAX_BYTES / 8, Long.getLong("cache.account.negativeTtlMs", 5_000L),
+            (username, generation) -> 64 + 2L * username.length());
+    private static final AtomicLong UNKNOWN_ACCOUNTS_GENERATION = new AtomicLong();
 
     
     public AccountService() {
-        accountDao = new AccountDao();
+        this(new AccountDao());
     }
 
     
     public AccountService(AccountDao accountDao) {
+        this(accountDao, PasswordHasher.shared());
+    }
+
+    
+    public AccountService(AccountDao accountDao, PasswordHasher passwordHasher) {
         this.accountDao = accountDao;
+        this.passwordHasher = passwordHasher;
     }
 
     
     public Optional<Account> getAccountById(int id) {
-        LOGGER.info("Fetching account with ID: {}", id);
+        HOT_LOG.info("Fetching account with ID: {}", id);
         try {
+            Account cached = accountsById.get(id);
+            if (cached != null) {
+                return Optional.of(copyOf(cached));
+            }
+            long[] generations = cacheGenerations();
             Optional<Account> account = accountDao.getById(id);
-            LOGGER.info("Fetched account: {}", account.orElse(null));
+            account.ifPresent(loaded -> cacheLoadedAccount(loaded, generations));
+            HOT_LOG.info("Fetched account: {}", account.orElse(null));
             return account;
         } catch (DaoException e) {
             throw new ServiceException("Exception occurred while fetching account", e);
@@ -41,10 +94,10 @@ public class AccountService {
     
 
     public List<Account> getAllAccounts() {
-        LOGGER.info("Fetching all accounts");
+        HOT_LOG.info("Fetching all accounts");
         try {
             List<Account> accounts = accountDao.getAll();
-            LOGGER.info("Fetched {} accounts", accounts.size());
+            HOT_LOG.info("Fetched {} accounts", accounts.size());
             return accounts;
         } catch (DaoException e) {
             throw new ServiceException("Exception occurred while fetching accounts", e);
@@ -53,10 +106,10 @@ public class AccountService {
 
     
     public Optional<Account> findAccountByUsername(String username) {
-        LOGGER.info("Finding account by username: {}", username);
+        HOT_LOG.info("Finding account by username: {}", username);
         try {
-            Optional<Account> account = accountDao.findAccountByUsername(username);
-            LOGGER.info("Found account: {}", account.orElse(null));
+            Optional<Account> account = lookupByUsername(username);
+            HOT_LOG.info("Found account: {}", account.orElse(null));
             return account;
         } catch (DaoException e) {
             throw new ServiceException("Exception occurred while finding account by username " + username, e);
@@ -65,29 +118,63 @@ public class AccountService {
 
     
     public Optional<Account> validateLogin(Account account) {
-        LOGGER.info("Validating login");
+        HOT_LOG.info("Validating login");
         try {
-            Optional<Account> validatedAccount = accountDao.validateLogin(account.getUsername(),
-                    account.getPassword());
-            LOGGER.info("Login validation result: {}", validatedAccount.isPresent());
-            return validatedAccount;
+            Optional<Account> found = lookupByUsername(account.getUsername());
+            String stored = found.isPresent() ? found.get().getPassword() : passwordHasher.dummyHash();
+            if (!passwordHasher.verify(account.getPassword(), stored) || found.isEmpty()) {
+                HOT_LOG.info("Login validation result: {}", false);
+                return Optional.empty();
+            }
+            Account existing = found.get();
+            if (passwordHasher.needsRehash(existing.getPassword())) {
+                Account upgraded = new Account(existing.getAccount_id(), existing.getUsername(),
+                        passwordHasher.hash(account.getPassword()));
+                if (accountDao.update(upgraded)) {
+                    cacheAccount(upgraded);
+                }
+            }
+            HOT_LOG.info("Login validation result: {}", true);
+            return Optional.of(new Account(existing.getAccount_id(), existing.getUsername(), account.getPassword()));
         } catch (DaoException e) {
             throw new ServiceException("Exception occurred while validating login", e);
         }
     }
 
     
+    public Set<Integer> findExistingAccountIds(Set<Integer> accountIds) {
+        HOT_LOG.info("Checking existence of {} accounts", accountIds.size());
+        try {
+            Set<Integer> existing = new HashSet<>();
+            Set<Integer> unresolved = new HashSet<>();
+            for (Integer accountId : accountIds) {
+                if (accountsById.get(accountId) != null) {
+                    existing.add(accountId);
+                } else {
+                    unresolved.add(accountId);
+                }
+            }
+            existing.addAll(accountDao.findExistingIds(unresolved));
+            return existing;
+        } catch (DaoException e) {
+            throw new ServiceException("Exception occurred while checking account existence", e);
+        }
+    }
+
+    
     public Account createAccount(Account account) {
-        LOGGER.info("Creating account: {}", account);
+        HOT_LOG.info("Creating account: {}", account);
         try {
             validateAccount(account);
             Optional<Account> searchedAccount = findAccountByUsername(account.getUsername());
             if (searchedAccount.isPresent()) {
                 throw new ServiceException("Account already exist");
             }
-            Account createdAccount = accountDao.insert(account);
-            LOGGER.info("Created account: {}", createdAccount);
-            return createdAccount;
+            Account createdAccount = accountDao.insert(new Account(account.getUsername(),
+                    passwordHasher.hash(account.getPassword())));
+            cacheAccount(createdAccount);
+            HOT_LOG.info("Created account: {}", createdAccount.getAccount_id());
+            return new Account(createdAccount.getAccount_id(), createdAccount.getUsername(), account.getPassword());
         } catch (DaoException e) {
             throw new ServiceException("Exception occurred while creating account", e);
         }
@@ -95,11 +182,16 @@ public class AccountService {
 
     
     public boolean updateAccount(Account account) {
-        LOGGER.info("Updating account: {}", account);
+        HOT_LOG.info("Updating account: {}", account);
         try {
-            account.setPassword(account.password);
-            boolean updated = accountDao.update(account);
-            LOGGER.info("Updated account: {}. Update successful {}", account, updated);
+            boolean updated;
+            try {
+                updated = accountDao.update(new Account(account.getAccount_id(), account.getUsername(),
+                        passwordHasher.hash(account.getPassword())));
+            } finally {
+                evictAccount(account);
+            }
+            HOT_LOG.info("Updated account: {}. Update successful {}", account, updated);
             return updated;
         } catch (DaoException e) {
             throw new ServiceException("Exception occurred while while updating account", e);
@@ -108,13 +200,14 @@ public class AccountService {
 
     
     public boolean deleteAccount(Account account) {
-        LOGGER.info("Deleting account: {}", account);
+        HOT_LOG.info("Deleting account: {}", account);
         if (account.getAccount_id() == 0) {
             throw new IllegalArgumentException("Account ID cannot be null");
         }
         try {
             boolean deleted = accountDao.delete(account);
-            LOGGER.info("Deleted account: {} . Deletion successful {}", account, deleted);
+            evictAccount(account);
+            HOT_LOG.info("Deleted account: {} . Deletion successful {}", account, deleted);
             return deleted;
         } catch (DaoException e) {
             throw new ServiceException("Exception occurred while while deleting account", e);
@@ -123,11 +216,19 @@ public class AccountService {
 
     
     private void validateAccount(Account account) {
-        LOGGER.info("Validating account: {}", account);
+        HOT_LOG.info("Validating account: {}", account);
+        checkAccountRules(account);
+    }
+
+    /**
+     * The rules every new account must meet, shared with {@link BulkImporter}.
+     * A missing username or password counts as blank.
+     */
+    static void checkAccountRules(Account account) {
         try {
 
-            String username = account.getUsername().trim();
-            String password = account.getPassword().trim();
+            String username = account.getUsername() == null ? "" : account.getUsername().trim();
+            String password = account.getPassword() == null ? "" : account.getPassword().trim();
 
             if (username.isEmpty()) {
                 throw new ServiceException("Username cannot be blank");
@@ -139,9 +240,6 @@ public class AccountService {
             if (password.length() < 4) {
                 throw new ServiceException("Password must be at least 4 characters long");
             }
-            if (accountDao.doesUsernameExist(account.getUsername())) {
-                throw new ServiceException("The username must be unique");
-            }
         } catch (DaoException e) {
             throw new ServiceException("Exception occurred while validating account", e);
         }
@@ -149,14 +247,115 @@ public class AccountService {
 
     
     public boolean accountExists(int accountId) {
-        LOGGER.info("Checking account existence with ID: {}", accountId);
+        HOT_LOG.info("Checking account existence with ID: {}", accountId);
         try {
-            Optional<Account> account = accountDao.getById(accountId);
-            boolean exists = account.isPresent();
-            LOGGER.info("Account existence: {}", exists);
+            boolean exists = getAccountById(accountId).isPresent();
+            HOT_LOG.info("Account existence: {}", exists);
             return exists;
         } catch (DaoException e) {
             throw new ServiceException("Exception occurred while checking account existence", e);
         }
     }
+
+    /**
+     * Answers a username lookup from the positive or negative cache, falling
+     * back to a single query whose outcome is cached either way.
+     */
+    private Optional<Account> lookupByUsername(String username) {
+        Account cached = accountsByUsername.get(username);
+        if (cached != null) {
+            return Optional.of(copyOf(cached));
+        }
+        long generation = UNKNOWN_ACCOUNTS_GENERATION.get();
+        Long unknownIn = unknownUsernames.get(username);
+        if (unknownIn != null && unknownIn == generation) {
+            return Optional.empty();
+        }
+        long[] generations = cacheGenerations();
+        Optional<Account> account = accountDao.findAccountByUsername(username);
+        if (account.isPresent()) {
+            cacheLoadedAccount(account.get(), generations);
+        } else {
+            unknownUsernames.putIfUnwritten(username, generation, generations[2]);
+        }
+        return account;
+    }
+
+    /**
+     * @return the write generations of the id, username and unknown username
+     *         caches, read before an account is loaded
+     */
+    private long[] cacheGenerations() {
+        return new long[] { accountsById.getWriteGeneration(), accountsByUsername.getWriteGeneration(),
+                unknownUsernames.getWriteGeneration() };
+    }
+
+    /**
+     * Caches an account read from the DAO, in each cache that no write has
+     * reached since the {@link #cacheGenerations()} read before it, so that a
+     * row read before a concurrent update never replaces that update.
+     */
+    private void cacheLoadedAccount(Account account, long[] generations) {
+        Account copy = copyOf(account);
+        accountsById.putIfUnwritten(copy.getAccount_id(), copy, generations[0]);
+        accountsByUsername.putIfUnwritten(copy.getUsername(), copy, generations[1]);
+    }
+
+    /**
+     * Voids the negative cache entries of every AccountService in the process,
+     * after accounts were added behind their backs, so that a username looked
+     * up before is looked up again. Accounts are never changed by an import,
+     * so the positive entries stay.
+     */
+    public static void forgetUnknownAccounts() {
+        UNKNOWN_ACCOUNTS_GENERATION.incrementAndGet();
+    }
+
+    private void cacheAccount(Account account) {
+        Account copy = copyOf(account);
+        unknownUsernames.invalidate(copy.getUsername());
+        accountsById.put(copy.getAccount_id(), copy);
+        accountsByUsername.put(copy.getUsername(), copy);
+    }
+
+    /**
+     * Drops every cached entry that could describe this account, including the
+     * entry under its previous username if the username is being changed.
+     */
+    private void evictAccount(Account account) {
+        Account previous = accountsById.get(account.getAccount_id());
+        if (previous != null) {
+            accountsByUsername.invalidate(previous.getUsername());
+        }
+        accountsById.invalidate(account.getAccount_id());
+        if (account.getUsername() != null) {
+            accountsByUsername.invalidate(account.getUsername());
+            unknownUsernames.invalidate(account.getUsername());
+        }
+    }
+
+    public LruCache<Integer, Account> getAccountsByIdCache() {
+        return accountsById;
+    }
+
+    public LruCache<String, Account> getAccountsByUsernameCache() {
+        return accountsByUsername;
+    }
+
+    public LruCache<String, Long> getUnknownUsernamesCache() {
+        return unknownUsernames;
+    }
+
+    /**
+     * Account is mutable, so the caches keep their own copy and hand out copies.
+     */
+    private static Account copyOf(Account account) {
+        return new Account(account.getAccount_id(), account.getUsername(), account.getPassword());
+    }
+
+    private static long estimateSize(Account account) {
+        String username = account.getUsername();
+        String password = account.getPassword();
+        return 160 + 2L * ((username == null ? 0 : username.length()) + (password == null ? 0 : password.length()));
+    }
 }
@@ -0,0 +1,52 @@
+package Service;
+
+import Model.Message;
+
+/**
+ * Outcome of one message in a batch, reported back to the client in the same
+ * position as the message it describes. Exactly one of message and error is set.
+ */
+public class BatchItemResult {
+    private final int index;
+    private final Message message;
+    private final String error;
+
+    private BatchItemResult(int index, Message message, String error) {
+        this.index = index;
+        this.message = message;
+        this.error = error;
+    }
+
+    public static BatchItemResult created(int index, Message message) {
+        return new BatchItemResult(index, message, null);
+    }
+
+    public static BatchItemResult rejected(int index, String error) {
+        return new BatchItemResult(index, null, error);
+    }
+
+    /**
+     * @return the position of the message in the submitted batch
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the created message including its message_id, or null if it was rejected
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * @return why the message was rejected, or null if it was created
+     */
+    public String getError() {
+        return error;
+    }
+
+    public boolean isCreated() {
+        return message != null;
+    }
+}
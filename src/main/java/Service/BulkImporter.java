@@ -0,0 +1,733 @@
+package Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import DAO.AccountDao;
+import DAO.BulkImportDao;
+import DAO.BulkImportDao.Checkpoint;
+import DAO.MessageDao;
+import Model.Account;
+import Model.Message;
+import Util.BulkFormat;
+import Util.ConnectionUtil;
+import Util.JsonUtil;
+
+/**
+ * Loads accounts or messages from NDJSON or CSV in bulk, for seeding or
+ * migrating far more rows than the API can take one request at a time.
+ *
+ * The input is read on the calling thread and cut into chunks of records,
+ * which a pool of parser threads turn into accounts or messages and validate
+ * with the same rules as AccountService and MessageService. Plain text
+ * passwords are hashed there too, while passwords that are already hashes are
+ * kept as they are. Parsed chunks are taken back in input order, checked
+ * against the database (usernames and ids already taken, messages by unknown
+ * accounts) and committed every commit interval through
+ * {@link BulkImportDao}, with the job's checkpoint in the same transaction.
+ * Running a job again after a failure skips the records already dealt with
+ * and carries on from the first one that was not committed.
+ *
+ * Rejected records do not stop the import. Each is written to the rejects
+ * writer as a line of JSON holding its record number, the reason and the
+ * input, once the interval holding it has committed. Progress and throughput
+ * are logged at the progress interval.
+ *
+ * CSV input starts with a header row naming its columns, in any order:
+ * username and password, optionally account_id, for accounts; posted_by,
+ * message_text and time_posted_epoch, optionally message_id, for messages.
+ * NDJSON holds the same fields as JSON objects. Rows with an id keep it, and
+ * the generated ids restart above the highest one when the import finishes.
+ *
+ * Rows are loaded into the tables of the main H2 database, behind the back of
+ * a running server's caches, search index and read model, so the server
+ * should be stopped or restarted around an import. Account services in the
+ * same process are told to forget the usernames they found missing. Messages
+ * can only be imported when they are stored in the message table of the main
+ * database: sharded storage (db.shards above 1) and the message log
+ * (messages.storage=log) are not supported.
+ *
+ * Tuned with the system properties import.threads (default one per
+ * processor), import.batchSize (default 1000 rows per JDBC batch),
+ * import.commitInterval (default 10000 records per transaction) and
+ * import.progressIntervalMs (default 5000).
+ */
+public class BulkImporter implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkImporter.class);
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final int CHUNK_RECORDS = 500;
+
+    /**
+     * Totals of one run of an import job.
+     */
+    public static final class Result {
+        private final long skipped;
+        private final long imported;
+        private final long rejected;
+        private final long elapsedMillis;
+
+        Result(long skipped, long imported, long rejected, long elapsedMillis) {
+            this.skipped = skipped;
+            this.imported = imported;
+            this.rejected = rejected;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return the records committed by earlier runs of the job, which this run skipped
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public long getImported() {
+            return imported;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return the records this run dealt with per second
+         */
+        public double getRecordsPerSecond() {
+            return (imported + rejected) * 1000.0 / Math.max(1, elapsedMillis);
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "skipped=" + skipped +
+                    ", imported=" + imported +
+                    ", rejected=" + rejected +
+                    ", elapsedMillis=" + elapsedMillis +
+                    '}';
+        }
+    }
+
+    /**
+     * One input record and what became of it: a value to insert, or the
+     * reason it was rejected.
+     */
+    private static final class Parsed<T> {
+        final long number;
+        final String input;
+        T value;
+        String rejection;
+
+        Parsed(long number, String input) {
+            this.number = number;
+            this.input = input;
+        }
+    }
+
+    /**
+     * How to parse, check and load one kind of record.
+     */
+    private interface RecordType<T> {
+
+        String[] requiredColumns();
+
+        T fromJson(String record) throws IOException;
+
+        T fromCsv(CsvRecord record);
+
+        /**
+         * Validates the value and readies it for insertion, on a parser
+         * thread.
+         *
+         * @throws ServiceException if the value breaks a rule
+         */
+        T prepare(T value);
+
+        /**
+         * Rejects the values that the database would refuse, on the loading
+         * thread just before they are committed.
+         */
+        void screen(List<Parsed<T>> records);
+
+        void commit(String job, Checkpoint checkpoint, List<T> rows);
+
+        /**
+         * Tidies up after the run, whether or not it succeeded.
+         */
+        void finish();
+    }
+
+    /**
+     * The fields of a CSV record, looked up by header column.
+     */
+    private static final class CsvRecord {
+        final Map<String, Integer> header;
+        final List<String> fields;
+
+        CsvRecord(Map<String, Integer> header, List<String> fields) {
+            this.header = header;
+            this.fields = fields;
+        }
+
+        /**
+         * @return the field, or null when it is empty and unquoted or the
+         *         column is missing
+         */
+        String get(String column) {
+            Integer index = header.get(column);
+            return index == null || index >= fields.size() ? null : fields.get(index);
+        }
+
+        int getInt(String column, int missing) {
+            String value = get(column);
+            return value == null ? missing : Integer.parseInt(value.trim());
+        }
+
+        long getLong(String column, long missing) {
+            String value = get(column);
+            return value == null ? missing : Long.parseLong(value.trim());
+        }
+    }
+
+    private final int threads;
+    private final int batchSize;
+    private final int commitInterval;
+    private final long progressIntervalNanos;
+    private final PasswordHasher passwordHasher;
+    private final BulkImportDao importDao = new BulkImportDao();
+    private final AccountDao accountDao = new AccountDao();
+    private final MessageDao messageDao = new MessageDao();
+    private final ExecutorService parsers;
+
+    public BulkImporter() {
+        this(Integer.getInteger("import.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("import.batchSize", 1000),
+                Integer.getInteger("import.commitInterval", 10_000),
+                Long.getLong("import.progressIntervalMs", 5_000L),
+                PasswordHasher.shared());
+    }
+
+    public BulkImporter(int threads, int batchSize, int commitInterval, long progressIntervalMillis,
+            PasswordHasher passwordHasher) {
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.commitInterval = commitInterval;
+        this.progressIntervalNanos = progressIntervalMillis * 1_000_000L;
+        this.passwordHasher = passwordHasher;
+        this.parsers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "bulk-import-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Imports accounts, resuming the job where an earlier run left off.
+     *
+     * @param job     names the import, for resuming it
+     * @param rejects where rejected records are reported, or null
+     */
+    public Result importAccounts(String job, Reader input, BulkFormat format, Writer rejects) throws IOException {
+        return run(job, input, format, rejects, new AccountRecords());
+    }
+
+    /**
+     * Imports messages, resuming the job where an earlier run left off.
+     *
+     * @param job     names the import, for resuming it
+     * @param rejects where rejected records are reported, or null
+     */
+    public Result importMessages(String job, Reader input, BulkFormat format, Writer rejects) throws IOException {
+        if (ConnectionUtil.getShardCount() > 1) {
+            throw new ServiceException("Bulk import does not support sharded message storage");
+        }
+        if ("log".equals(System.getProperty("messages.storage"))) {
+            // the server reads messages from the log, so rows added to the table would never be seen
+            throw new ServiceException("Bulk import does not support messages stored in a message log");
+        }
+        return run(job, input, format, rejects, new MessageRecords());
+    }
+
+    /**
+     * Forgets how far the job got, so that it starts again from the first
+     * record. Rows it already imported stay.
+     */
+    public void restart(String job) {
+        importDao.clearCheckpoint(job);
+    }
+
+    private <T> Result run(String job, Reader input, BulkFormat format, Writer rejects, RecordType<T> type)
+            throws IOException {
+        long start = System.nanoTime();
+        RecordReader reader = new RecordReader(input, format == BulkFormat.CSV);
+        Map<String, Integer> header = format == BulkFormat.CSV ? readHeader(reader, type) : null;
+        Checkpoint checkpoint = importDao.getCheckpoint(job);
+        long skipped = reader.skip(checkpoint.getRecordsDone());
+        if (skipped > 0) {
+            LOGGER.info("Import job {} resumes after record {}", job, skipped);
+        }
+        Loader<T> loader = new Loader<>(job, type, checkpoint, rejects, start);
+        Deque<Future<List<Parsed<T>>>> inFlight = new ArrayDeque<>();
+        int chunkRecords = Math.min(CHUNK_RECORDS, commitInterval);
+        long number = skipped;
+        IOException readFailure = null;
+        try {
+            while (true) {
+                List<String> records;
+                try {
+                    records = reader.next(chunkRecords);
+                } catch (IOException e) {
+                    // Still commit the records read before the failure, so that a rerun need not repeat them
+                    readFailure = e;
+                    break;
+                }
+                if (records.isEmpty()) {
+                    break;
+                }
+                long first = number + 1;
+                number += records.size();
+                inFlight.add(parsers.submit(() -> parse(type, header, records, first)));
+                if (inFlight.size() > 2 * threads) {
+                    loader.add(join(inFlight.poll()));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                loader.add(join(inFlight.poll()));
+            }
+            loader.flush();
+        } finally {
+            inFlight.forEach(future -> future.cancel(true));
+            // commits that went through before a failure still need it
+            type.finish();
+        }
+        if (readFailure != null) {
+            LOGGER.warn("Import job {} failed reading its input after {} committed records", job,
+                    loader.checkpoint.getRecordsDone());
+            throw readFailure;
+        }
+        Result result = new Result(skipped, loader.imported, loader.rejected, (System.nanoTime() - start) / 1_000_000);
+        LOGGER.info("Import job {} finished: {} imported, {} rejected, {} skipped, {} records/s", job,
+                result.getImported(), result.getRejected(), result.getSkipped(),
+                Math.round(result.getRecordsPerSecond()));
+        return result;
+    }
+
+    private static <T> Map<String, Integer> readHeader(RecordReader reader, RecordType<T> type) throws IOException {
+        String line = reader.nextRecord();
+        if (line == null) {
+            throw new ServiceException("CSV input has no header row");
+        }
+        Map<String, Integer> header = new HashMap<>();
+        List<String> columns = splitCsv(line);
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i) != null) {
+                header.put(columns.get(i).trim().toLowerCase(Locale.ROOT), i);
+            }
+        }
+        for (String column : type.requiredColumns()) {
+            if (!header.containsKey(column)) {
+                throw new ServiceException("CSV header has no " + column + " column");
+            }
+        }
+        return header;
+    }
+
+    private static <T> List<Parsed<T>> parse(RecordType<T> type, Map<String, Integer> header, List<String> records,
+            long firstNumber) {
+        List<Parsed<T>> parsed = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            Parsed<T> record = new Parsed<>(firstNumber + i, records.get(i));
+            try {
+                T value = header == null ? type.fromJson(record.input)
+                        : type.fromCsv(new CsvRecord(header, splitCsv(record.input)));
+                record.value = type.prepare(value);
+            } catch (ServiceBusyException e) {
+                throw e;
+            } catch (ServiceException e) {
+                record.rejection = e.getMessage();
+            } catch (JsonProcessingException e) {
+                record.rejection = "Malformed record: " + e.getOriginalMessage();
+            } catch (IOException | RuntimeException e) {
+                record.rejection = "Malformed record: " + e.getMessage();
+            }
+            parsed.add(record);
+        }
+        return parsed;
+    }
+
+    private static <T> List<Parsed<T>> join(Future<List<Parsed<T>>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while parsing the import", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Failed to parse the import", e.getCause());
+        }
+    }
+
+    /**
+     * Collects parsed records in input order and commits them an interval at
+     * a time.
+     */
+    private final class Loader<T> {
+        final String job;
+        final RecordType<T> type;
+        final Writer rejects;
+        final long start;
+        final List<Parsed<T>> pending = new ArrayList<>();
+        Checkpoint checkpoint;
+        long imported;
+        long rejected;
+        long nextProgress;
+
+        Loader(String job, RecordType<T> type, Checkpoint checkpoint, Writer rejects, long start) {
+            this.job = job;
+            this.type = type;
+            this.checkpoint = checkpoint;
+            this.rejects = rejects;
+            this.start = start;
+            this.nextProgress = start + progressIntervalNanos;
+        }
+
+        void add(List<Parsed<T>> records) throws IOException {
+            pending.addAll(records);
+            while (pending.size() >= commitInterval) {
+                List<Parsed<T>> interval = pending.subList(0, commitInterval);
+                commit(interval);
+                interval.clear();
+            }
+        }
+
+        void flush() throws IOException {
+            if (!pending.isEmpty()) {
+                commit(pending);
+                pending.clear();
+            }
+        }
+
+        private void commit(List<Parsed<T>> records) throws IOException {
+            type.screen(records);
+            List<T> rows = new ArrayList<>(records.size());
+            List<Parsed<T>> rejectedRecords = new ArrayList<>();
+            for (Parsed<T> record : records) {
+                if (record.rejection == null) {
+                    rows.add(record.value);
+                } else {
+                    rejectedRecords.add(record);
+                }
+            }
+            Checkpoint next = checkpoint.advance(rows.size(), rejectedRecords.size());
+            type.commit(job, next, rows);
+            checkpoint = next;
+            imported += rows.size();
+            rejected += rejectedRecords.size();
+            if (rejects != null) {
+                for (Parsed<T> record : rejectedRecords) {
+                    Map<String, Object> reject = new LinkedHashMap<>();
+                    reject.put("record", record.number);
+                    reject.put("reason", record.rejection);
+                    reject.put("input", record.input);
+                    rejects.write(JsonUtil.MAPPER.writeValueAsString(reject));
+                    rejects.write('\n');
+                }
+                rejects.flush();
+            }
+            long now = System.nanoTime();
+            if (now >= nextProgress) {
+                nextProgress = now + progressIntervalNanos;
+                LOGGER.info("Import job {}: {} records done, {} imported, {} rejected, {} records/s", job,
+                        checkpoint.getRecordsDone(), imported, rejected,
+                        Math.round((imported + rejected) * 1e9 / Math.max(1, now - start)));
+            }
+        }
+    }
+
+    private final class AccountRecords implements RecordType<Account> {
+
+        @Override
+        public String[] requiredColumns() {
+            return new String[] { "username", "password" };
+        }
+
+        @Override
+        public Account fromJson(String record) throws IOException {
+            return JsonUtil.ACCOUNT_READER.readValue(record);
+        }
+
+        @Override
+        public Account fromCsv(CsvRecord record) {
+            return new Account(record.getInt("account_id", 0), record.get("username"), record.get("password"));
+        }
+
+        @Override
+        public Account prepare(Account account) {
+            AccountService.checkAccountRules(account);
+            if (!passwordHasher.isHash(account.getPassword())) {
+                account.setPassword(passwordHasher.hash(account.getPassword()));
+            }
+            return account;
+        }
+
+        @Override
+        public void screen(List<Parsed<Account>> records) {
+            Set<String> usernames = new HashSet<>();
+            Set<Integer> ids = new HashSet<>();
+            for (Parsed<Account> record : records) {
+                if (record.rejection == null) {
+                    usernames.add(record.value.getUsername());
+                    if (record.value.getAccount_id() > 0) {
+                        ids.add(record.value.getAccount_id());
+                    }
+                }
+            }
+            Set<String> takenUsernames = accountDao.findExistingUsernames(usernames);
+            Set<Integer> takenIds = accountDao.findExistingIds(ids);
+            for (Parsed<Account> record : records) {
+                if (record.rejection != null) {
+                    continue;
+                }
+                int id = record.value.getAccount_id();
+                if (!takenUsernames.add(record.value.getUsername())) {
+                    record.rejection = "Account already exist";
+                } else if (id > 0 && !takenIds.add(id)) {
+                    record.rejection = "Account id already exists";
+                }
+            }
+        }
+
+        @Override
+        public void commit(String job, Checkpoint checkpoint, List<Account> rows) {
+            importDao.commitAccounts(job, checkpoint, rows, batchSize);
+            AccountService.forgetUnknownAccounts();
+        }
+
+        @Override
+        public void finish() {
+            importDao.restartAccountIds();
+        }
+    }
+
+    private final class MessageRecords implements RecordType<Message> {
+        /**
+         * Accounts already seen to exist. Imports never delete accounts, so
+         * this only grows.
+         */
+        private final Set<Integer> knownAccounts = new HashSet<>();
+
+        @Override
+        public String[] requiredColumns() {
+            return new String[] { "posted_by", "message_text", "time_posted_epoch" };
+        }
+
+        @Override
+        public Message fromJson(String record) throws IOException {
+            return JsonUtil.MESSAGE_READER.readValue(record);
+        }
+
+        @Override
+        public Message fromCsv(CsvRecord record) {
+            return new Message(record.getInt("message_id", 0), record.getInt("posted_by", 0),
+                    record.get("message_text"), record.getLong("time_posted_epoch", 0));
+        }
+
+        @Override
+        public Message prepare(Message message) {
+            MessageService.checkMessageRules(message);
+            return message;
+        }
+
+        @Override
+        public void screen(List<Parsed<Message>> records) {
+            Set<Integer> unknownAccounts = new HashSet<>();
+            Set<Integer> ids = new HashSet<>();
+            for (Parsed<Message> record : records) {
+                if (record.rejection == null) {
+                    if (!knownAccounts.contains(record.value.getPosted_by())) {
+                        unknownAccounts.add(record.value.getPosted_by());
+                    }
+                    if (record.value.getMessage_id() > 0) {
+                        ids.add(record.value.getMessage_id());
+                    }
+                }
+            }
+            knownAccounts.addAll(accountDao.findExistingIds(unknownAccounts));
+            Set<Integer> takenIds = ids.isEmpty() ? new HashSet<>() : new HashSet<>(messageDao.getByIds(ids).keySet());
+            for (Parsed<Message> record : records) {
+                if (record.rejection == null) {
+                    int id = record.value.getMessage_id();
+                    if (!knownAccounts.contains(record.value.getPosted_by())) {
+                        record.rejection = "Account must exist when posting a new message";
+                    } else if (id > 0 && !takenIds.add(id)) {
+                        record.rejection = "Message id already exists";
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void commit(String job, Checkpoint checkpoint, List<Message> rows) {
+            importDao.commitMessages(job, checkpoint, rows, batchSize);
+        }
+
+        @Override
+        public void finish() {
+            importDao.restartMessageIds();
+        }
+    }
+
+    /**
+     * Reads whole records: lines, except that a CSV record goes on past line
+     * breaks inside a quoted field. Blank lines are skipped.
+     */
+    private static final class RecordReader {
+        private final BufferedReader in;
+        private final boolean csv;
+        private boolean first = true;
+
+        RecordReader(Reader in, boolean csv) {
+            this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in, 64 * 1024);
+            this.csv = csv;
+        }
+
+        String nextRecord() throws IOException {
+            String line;
+            do {
+                line = in.readLine();
+                if (line == null) {
+                    return null;
+                }
+                if (first) {
+                    first = false;
+                    if (line.startsWith("\uFEFF")) {
+                        line = line.substring(1);
+                    }
+                }
+            } while (line.isBlank());
+            if (!csv || quotes(line) % 2 == 0) {
+                return line;
+            }
+            StringBuilder record = new StringBuilder(line);
+            int quotes = quotes(line);
+            while (quotes % 2 != 0 && (line = in.readLine()) != null) {
+                record.append('\n').append(line);
+                quotes += quotes(line);
+            }
+            return record.toString();
+        }
+
+        List<String> next(int count) throws IOException {
+            List<String> records = new ArrayList<>(count);
+            String record;
+            while (records.size() < count && (record = nextRecord()) != null) {
+                records.add(record);
+            }
+            return records;
+        }
+
+        /**
+         * @return the number of records skipped, fewer than asked at the end of the input
+         */
+        long skip(long count) throws IOException {
+            long skipped = 0;
+            while (skipped < count && nextRecord() != null) {
+                skipped++;
+            }
+            return skipped;
+        }
+
+        private static int quotes(String line) {
+            int quotes = 0;
+            for (int i = 0; i < line.length(); i++) {
+                if (line.charAt(i) == '"') {
+                    quotes++;
+                }
+            }
+            return quotes;
+        }
+    }
+
+    /**
+     * Splits a CSV record into its fields. A quoted field may hold commas,
+     * line breaks and doubled quotes; an empty unquoted field is null, while
+     * an empty quoted one is an empty string, as MessageExporter writes them.
+     */
+    static List<String> splitCsv(String record) {
+        List<String> fields = new ArrayList<>();
+        int length = record.length();
+        int i = 0;
+        while (true) {
+            if (i < length && record.charAt(i) == '"') {
+                StringBuilder field = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= length) {
+                        throw new IllegalArgumentException("unterminated quoted field");
+                    }
+                    char c = record.charAt(i++);
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i < length && record.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                if (i < length && record.charAt(i) != ',') {
+                    throw new IllegalArgumentException("text after a quoted field");
+                }
+                fields.add(field.toString());
+            } else {
+                int end = record.indexOf(',', i);
+                if (end < 0) {
+                    end = length;
+                }
+                fields.add(end == i ? null : record.substring(i, end));
+                i = end;
+            }
+            if (i >= length) {
+                return fields;
+            }
+            i++;
+            if (i == length) {
+                fields.add(null);
+                return fields;
+            }
+        }
+    }
+
+    /**
+     * Stops the parser threads.
+     */
+    public void close() {
+        parsers.shutdownNow();
+    }
+}
@@ -0,0 +1,61 @@
+package Service;
+
+import java.io.UncheckedIOException;
+import java.util.Locale;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import Model.Message;
+import Util.JsonUtil;
+
+/**
+ * A committed change to a message, pushed to {@link MessageFeed} subscribers.
+ * Serializes as {@code {"type":"created","message":{...}}}.
+ */
+public class MessageEvent {
+
+    public enum Type {
+        CREATED, UPDATED, DELETED;
+
+        @JsonValue
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final Type type;
+    private final Message message;
+    private volatile String json;
+
+    public MessageEvent(Type type, Message message) {
+        this.type = type;
+        this.message = message;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the event as JSON, encoded once and shared by every subscriber
+     */
+    @JsonIgnore
+    public String getJson() {
+        String encoded = json;
+        if (encoded == null) {
+            try {
+                encoded = JsonUtil.MAPPER.writeValueAsString(this);
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+            json = encoded;
+        }
+        return encoded;
+    }
+}
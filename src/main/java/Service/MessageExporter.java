@@ -0,0 +1,137 @@
+package Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import DAO.MessageStore;
+import Model.Message;
+import Model.MessageFilter;
+import Util.BulkFormat;
+import Util.JsonUtil;
+
+/**
+ * Writes messages out for bulk export, one row at a time as the store walks
+ * them, so an export of any size needs the same small amount of memory.
+ *
+ * NDJSON rows are the messages as the API returns them, each followed by a
+ * newline. CSV starts with a header row naming the four message columns;
+ * message_text is quoted when it is empty or holds a comma, quote or line
+ * break, and a null text is left empty. Lines end with CRLF as RFC 4180 asks.
+ */
+public class MessageExporter implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageExporter.class);
+    private static final ObjectWriter NDJSON_WRITER = JsonUtil.MESSAGE_WRITER
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    private static final String CSV_HEADER = "message_id,posted_by,message_text,time_posted_epoch\r\n";
+
+    private final MessageStore messageStore;
+    private final boolean ownsStore;
+
+    /**
+     * An exporter reading the message storage configured for MessageService,
+     * for running an export outside the server, see
+     * {@link MessageService#openReadOnlyStore()}. It should be closed once
+     * done.
+     */
+    public MessageExporter() {
+        this(MessageService.openReadOnlyStore(), true);
+    }
+
+    public MessageExporter(MessageStore messageStore) {
+        this(messageStore, false);
+    }
+
+    private MessageExporter(MessageStore messageStore, boolean ownsStore) {
+        this.messageStore = messageStore;
+        this.ownsStore = ownsStore;
+    }
+
+    /**
+     * Writes every message the filter matches, in message_id order, and
+     * flushes the stream without closing it. If the store fails part way
+     * through, what was written so far stays written.
+     *
+     * @return the number of messages written
+     */
+    public long export(MessageFilter filter, BulkFormat format, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        long rows = format == BulkFormat.CSV ? exportCsv(filter, out) : exportNdjson(filter, out);
+        LOGGER.info("Exported {} messages matching {} as {} in {} ms", rows, filter, format,
+                (System.nanoTime() - start) / 1_000_000);
+        return rows;
+    }
+
+    private long exportNdjson(MessageFilter filter, OutputStream out) throws IOException {
+        long[] rows = new long[1];
+        try (JsonGenerator generator = JsonUtil.MAPPER.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            messageStore.export(filter, message -> {
+                NDJSON_WRITER.writeValue(generator, message);
+                generator.writeRaw('\n');
+                rows[0]++;
+            });
+        }
+        return rows[0];
+    }
+
+    private long exportCsv(MessageFilter filter, OutputStream out) throws IOException {
+        long[] rows = new long[1];
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write(CSV_HEADER);
+        messageStore.export(filter, message -> {
+            writer.write(Integer.toString(message.getMessage_id()));
+            writer.write(',');
+            writer.write(Integer.toString(message.getPosted_by()));
+            writer.write(',');
+            writeCsvField(writer, message.getMessage_text());
+            writer.write(',');
+            writer.write(Long.toString(message.getTime_posted_epoch()));
+            writer.write("\r\n");
+            rows[0]++;
+        });
+        writer.flush();
+        return rows[0];
+    }
+
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        // an empty text is quoted so that it reads back differently from a null one
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    /**
+     * Closes the store the exporter opened itself; a store it was given is
+     * left open.
+     */
+    @Override
+    public void close() {
+        if (ownsStore) {
+            MessageService.closeReadOnlyStore(messageStore);
+        }
+    }
+}
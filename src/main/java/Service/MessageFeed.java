@@ -0,0 +1,333 @@
+package Service;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fans committed message events out to live subscribers, such as SSE and
+ * WebSocket clients, without letting a slow client hold up writers or other
+ * clients.
+ *
+ * Publishing only offers the event to each matching subscriber's bounded
+ * queue and never blocks. Each subscriber is drained by at most one task at a
+ * time on a small shared pool of sender threads, with at most one write to the
+ * client in flight. Sinks that can write asynchronously hand back a stage and
+ * the drain carries on from its completion, so a slow client holds no sender
+ * thread. A write still unfinished after the write timeout, whether
+ * asynchronous or blocking a sender thread, gets the subscriber disconnected;
+ * closing the sink fails the write and frees the thread.
+ *
+ * A subscriber whose queue is full is handled by the slow consumer policy:
+ * DISCONNECT (default) closes it so the client reconnects and catches up with
+ * a normal read, DROP discards the event for that subscriber only.
+ *
+ * Tuned with the system properties feed.queueCapacity (default 256 events per
+ * subscriber), feed.slowConsumerPolicy (disconnect or drop), feed.senderThreads
+ * (default 2), feed.writeTimeoutMs (default 10000, 0 to disable) and
+ * feed.heartbeatSeconds (default 15, 0 to disable), the interval of heartbeats
+ * that let idle subscribers notice a dead connection. The owner of a feed must
+ * close it to stop its threads.
+ */
+public class MessageFeed implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageFeed.class);
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final MessageEvent HEARTBEAT = new MessageEvent(null, null);
+    /**
+     * Events sent per turn before a busy subscriber yields its sender thread.
+     */
+    private static final int MAX_EVENTS_PER_TURN = 64;
+    private static final long NOT_WRITING = Long.MIN_VALUE;
+
+    public enum SlowConsumerPolicy {
+        DROP, DISCONNECT
+    }
+
+    /**
+     * Where a subscriber's events are written, called from a sender thread.
+     */
+    public interface Sink {
+
+        /**
+         * Starts writing one event to the client. The returned stage completes
+         * once it is written; failing it, or throwing, ends the subscription. A
+         * sink that can only write by blocking may do so and return a completed
+         * stage, holding a sender thread meanwhile.
+         */
+        CompletionStage<?> send(MessageEvent event) throws Exception;
+
+        /**
+         * Writes something the client ignores, to detect a closed connection,
+         * the same way as {@link #send}.
+         */
+        CompletionStage<?> heartbeat() throws Exception;
+
+        /**
+         * Disconnects the client after the feed gave up on it, failing any
+         * write still in progress. Called from the publishing or timer thread,
+         * so it must not block.
+         */
+        void close();
+    }
+
+    public final class Subscription implements AutoCloseable {
+        private final Integer postedBy;
+        private final Sink sink;
+        private final ArrayBlockingQueue<MessageEvent> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final LongAdder dropped = new LongAdder();
+        private volatile boolean closed;
+        private volatile long writeStartedNanos = NOT_WRITING;
+
+        private Subscription(Integer postedBy, Sink sink) {
+            this.postedBy = postedBy;
+            this.sink = sink;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        private void offer(MessageEvent event) {
+            if (closed) {
+                return;
+            }
+            if (!queue.offer(event)) {
+                if (event == HEARTBEAT) {
+                    return;
+                }
+                dropped.increment();
+                droppedTotal.increment();
+                if (policy == SlowConsumerPolicy.DISCONNECT) {
+                    disconnectedTotal.increment();
+                    LOGGER.warn("Disconnecting a feed subscriber {} events behind", queue.size());
+                    close();
+                    // not on a sender thread, which may be the one stuck writing to this client
+                    sink.close();
+                    return;
+                }
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                for (int sent = 0; sent < MAX_EVENTS_PER_TURN && !closed; sent++) {
+                    MessageEvent event = queue.poll();
+                    if (event == null) {
+                        break;
+                    }
+                    writeStartedNanos = System.nanoTime();
+                    CompletableFuture<?> written = (event == HEARTBEAT ? sink.heartbeat() : sink.send(event))
+                            .toCompletableFuture();
+                    if (!written.isDone()) {
+                        // stays scheduled; the write's completion carries on draining
+                        written.whenComplete(this::writeCompleted);
+                        return;
+                    }
+                    writeStartedNanos = NOT_WRITING;
+                    written.join();
+                }
+            } catch (Exception e) {
+                writeStartedNanos = NOT_WRITING;
+                fail(e);
+            }
+            endTurn();
+        }
+
+        private void writeCompleted(Object result, Throwable failure) {
+            writeStartedNanos = NOT_WRITING;
+            if (failure != null) {
+                fail(failure);
+                endTurn();
+                return;
+            }
+            try {
+                senders.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // the feed is closed
+                endTurn();
+            }
+        }
+
+        private void endTurn() {
+            scheduled.set(false);
+            if (!closed && !queue.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void fail(Throwable failure) {
+            LOGGER.debug("Feed subscriber went away", failure);
+            close();
+            sink.close();
+        }
+
+        /**
+         * Disconnects the subscriber if its current write started more than
+         * the write timeout before {@code now}.
+         */
+        private void checkWriteTimeout(long now) {
+            long started = writeStartedNanos;
+            if (started != NOT_WRITING && now - started > writeTimeoutNanos && !closed) {
+                disconnectedTotal.increment();
+                LOGGER.warn("Disconnecting a feed subscriber whose write took over {} ms",
+                        TimeUnit.NANOSECONDS.toMillis(writeTimeoutNanos));
+                close();
+                sink.close();
+            }
+        }
+
+        /**
+         * @return events this subscriber missed because its queue was full
+         */
+        public long getDroppedCount() {
+            return dropped.sum();
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Stops delivery to this subscriber. Does not close the sink.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            subscriptions.remove(this);
+            queue.clear();
+        }
+    }
+
+    private final int queueCapacity;
+    private final SlowConsumerPolicy policy;
+    private final ThreadPoolExecutor senders;
+    private final long heartbeatSeconds;
+    private final long writeTimeoutNanos;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final LongAdder droppedTotal = new LongAdder();
+    private final LongAdder disconnectedTotal = new LongAdder();
+    private ScheduledExecutorService timer;
+
+    public MessageFeed() {
+        this(Integer.getInteger("feed.queueCapacity", 256),
+                SlowConsumerPolicy.valueOf(
+                        System.getProperty("feed.slowConsumerPolicy", "disconnect").toUpperCase(Locale.ROOT)),
+                Integer.getInteger("feed.senderThreads", 2),
+                Long.getLong("feed.heartbeatSeconds", 15L),
+                Long.getLong("feed.writeTimeoutMs", 10_000L));
+    }
+
+    public MessageFeed(int queueCapacity, SlowConsumerPolicy policy, int senderThreads, long heartbeatSeconds,
+            long writeTimeoutMillis) {
+        this.queueCapacity = queueCapacity;
+        this.policy = policy;
+        this.heartbeatSeconds = heartbeatSeconds;
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        this.senders = new ThreadPoolExecutor(senderThreads, senderThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "message-feed-" + THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * @param postedBy only deliver events for this account's messages, or null
+     *                 for every message
+     */
+    public Subscription subscribe(Integer postedBy, Sink sink) {
+        Subscription subscription = new Subscription(postedBy, sink);
+        subscriptions.add(subscription);
+        startTimer();
+        return subscription;
+    }
+
+    /**
+     * Starts the thread that sends heartbeats and checks for writes past the
+     * write timeout, once there is a subscriber.
+     */
+    private synchronized void startTimer() {
+        if (timer != null || (heartbeatSeconds <= 0 && writeTimeoutNanos <= 0)) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-feed-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (heartbeatSeconds > 0) {
+            timer.scheduleAtFixedRate(() -> subscriptions.forEach(s -> s.offer(HEARTBEAT)),
+                    heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        }
+        if (writeTimeoutNanos > 0) {
+            long checkEvery = Math.max(TimeUnit.MILLISECONDS.toNanos(10), writeTimeoutNanos / 4);
+            timer.scheduleAtFixedRate(() -> {
+                long now = System.nanoTime();
+                subscriptions.forEach(s -> s.checkWriteTimeout(now));
+            }, checkEvery, checkEvery, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Queues the event for every subscriber it matches. Never blocks.
+     */
+    public void publish(MessageEvent event) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.postedBy == null || subscription.postedBy == event.getMessage().getPosted_by()) {
+                subscription.offer(event);
+            }
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * @return events not delivered to some subscriber because its queue was full
+     */
+    public long getDroppedCount() {
+        return droppedTotal.sum();
+    }
+
+    /**
+     * @return subscribers disconnected for falling behind, by a full queue or
+     *         a write past the write timeout
+     */
+    public long getDisconnectedCount() {
+        return disconnectedTotal.sum();
+    }
+
+    /**
+     * Ends every subscription and stops the feed's threads. Sinks are not
+     * closed; their clients are the owner's to disconnect.
+     */
+    @Override
+    public synchronized void close() {
+        subscriptions.forEach(Subscription::close);
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        senders.shutdownNow();
+    }
+}
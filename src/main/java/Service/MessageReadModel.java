@@ -0,0 +1,472 @@
+package Service;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import Model.Message;
+
+/**
+ * Every message kept off the Java heap, so that listing and filtering them
+ * costs neither queries nor a Message object per row, and a growing table does
+ * not grow the heap the garbage collector has to walk.
+ *
+ * Each version of a message is one record in a direct arena: message_id,
+ * posted_by, time_posted_epoch and the UTF-8 message_text. A direct column of
+ * record references, one per row in message_id order, lists the messages, and
+ * each account has its own list of references to its messages, also in
+ * message_id order. Rows are written straight from the arena to a
+ * {@link JsonGenerator}, with the text handed over as UTF-8 without decoding
+ * it into a String.
+ *
+ * Readers take no lock. Writers are serialized, and never change a record a
+ * reader may see: an update appends a new record and swaps the row's reference
+ * to it with a single release store, and a delete swaps it for a deleted
+ * marker, so a reader sees either the old or the new message, never a mix. A
+ * message that arrives out of id order, e.g. from two concurrent inserts
+ * finishing in the other order, is inserted in place by moving the rows after
+ * it along one at a time from the end; a reader that meets a row twice while
+ * that happens skips it the second time. Growing, or dropping deleted rows and
+ * stale records, builds a new set of columns and swaps it in, so a reader
+ * always walks one consistent set.
+ */
+public class MessageReadModel {
+    private static final VarHandle COLUMN_REFERENCE = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+    private static final VarHandle ACCOUNT_REFERENCE = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final long DELETED = -1L;
+    private static final int NULL_TEXT = 0xFFFF;
+    private static final int ID_OFFSET = 0;
+    private static final int POSTED_BY_OFFSET = 4;
+    private static final int TIME_OFFSET = 8;
+    private static final int RECORD_HEADER = 16;
+    private static final int INITIAL_ROWS = 1024;
+    private static final int INITIAL_ACCOUNT_ROWS = 8;
+    private static final int INITIAL_ARENA_BYTES = 64 * 1024;
+    private static final SerializedString MESSAGE_ID = new SerializedString("message_id");
+    private static final SerializedString POSTED_BY = new SerializedString("posted_by");
+    private static final SerializedString MESSAGE_TEXT = new SerializedString("message_text");
+    private static final SerializedString TIME_POSTED_EPOCH = new SerializedString("time_posted_epoch");
+
+    /**
+     * A list of record references in message_id order that readers walk.
+     * Only the writer changes it, beyond {@link #size()} or through single
+     * reference stores.
+     */
+    private interface Rows {
+        int size();
+
+        long reference(int row);
+    }
+
+    /**
+     * One account's rows. The ids are only read by the writer, to find rows;
+     * readers take the id from the record.
+     */
+    private static final class AccountRows implements Rows {
+        final int[] ids;
+        final long[] references;
+        volatile int size;
+
+        AccountRows(int capacity) {
+            this.ids = new int[capacity];
+            this.references = new long[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long reference(int row) {
+            return (long) ACCOUNT_REFERENCE.getAcquire(references, row);
+        }
+
+        void setReference(int row, long reference) {
+            ACCOUNT_REFERENCE.setRelease(references, row, reference);
+        }
+
+        int find(int id) {
+            return Arrays.binarySearch(ids, 0, size, id);
+        }
+    }
+
+    /**
+     * One consistent set of columns, arena and account rows.
+     */
+    private static final class Columns implements Rows {
+        final int capacity;
+        final ByteBuffer ids;
+        final ByteBuffer references;
+        final ByteBuffer arena;
+        final ConcurrentHashMap<Integer, AccountRows> accounts = new ConcurrentHashMap<>();
+        volatile int size;
+        int arenaEnd;
+        int deletedRows;
+        long staleBytes;
+
+        Columns(int capacity, int arenaCapacity) {
+            this.capacity = capacity;
+            this.ids = ByteBuffer.allocateDirect(capacity * Integer.BYTES).order(ByteOrder.nativeOrder());
+            this.references = ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder());
+            this.arena = ByteBuffer.allocateDirect(arenaCapacity).order(ByteOrder.nativeOrder());
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long reference(int row) {
+            return (long) COLUMN_REFERENCE.getAcquire(references, row * Long.BYTES);
+        }
+
+        void setReference(int row, long reference) {
+            COLUMN_REFERENCE.setRelease(references, row * Long.BYTES, reference);
+        }
+
+        int id(int row) {
+            return ids.getInt(row * Integer.BYTES);
+        }
+
+        /**
+         * @return the row holding the id, or -(insertion point) - 1
+         */
+        int find(int id) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int midId = id(mid);
+                if (midId < id) {
+                    low = mid + 1;
+                } else if (midId > id) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        boolean fits(int rows, int recordBytes) {
+            return size + rows <= capacity && arenaEnd + recordBytes <= arena.capacity();
+        }
+
+        /**
+         * Inserts a row at {@code row}, moving the rows from there on along
+         * by one, starting from the end.
+         */
+        void insertRow(int row, int id, long reference) {
+            int last = size;
+            if (row < last) {
+                ids.putInt(last * Integer.BYTES, id(last - 1));
+                setReference(last, reference(last - 1));
+            } else {
+                ids.putInt(row * Integer.BYTES, id);
+                setReference(row, reference);
+            }
+            size = last + 1;
+            if (row == last) {
+                return;
+            }
+            for (int moved = last - 1; moved > row; moved--) {
+                ids.putInt(moved * Integer.BYTES, id(moved - 1));
+                setReference(moved, reference(moved - 1));
+            }
+            ids.putInt(row * Integer.BYTES, id);
+            setReference(row, reference);
+        }
+
+        /**
+         * Adds the reference to the account's rows, or replaces the one with
+         * the same id.
+         */
+        void putAccountRow(int accountId, int id, long reference) {
+            AccountRows rows = accounts.get(accountId);
+            if (rows == null) {
+                rows = new AccountRows(INITIAL_ACCOUNT_ROWS);
+                accounts.put(accountId, rows);
+            }
+            int row = rows.find(id);
+            if (row >= 0) {
+                rows.setReference(row, reference);
+                return;
+            }
+            row = -row - 1;
+            int last = rows.size;
+            if (last == rows.ids.length) {
+                // grown into a copy that readers of the old rows do not see
+                AccountRows grown = new AccountRows(last * 2);
+                System.arraycopy(rows.ids, 0, grown.ids, 0, row);
+                System.arraycopy(rows.references, 0, grown.references, 0, row);
+                System.arraycopy(rows.ids, row, grown.ids, row + 1, last - row);
+                System.arraycopy(rows.references, row, grown.references, row + 1, last - row);
+                grown.ids[row] = id;
+                grown.references[row] = reference;
+                grown.size = last + 1;
+                accounts.put(accountId, grown);
+                return;
+            }
+            if (row < last) {
+                rows.ids[last] = rows.ids[last - 1];
+                rows.setReference(last, rows.reference(last - 1));
+            } else {
+                rows.ids[row] = id;
+                rows.setReference(row, reference);
+            }
+            rows.size = last + 1;
+            if (row == last) {
+                return;
+            }
+            for (int moved = last - 1; moved > row; moved--) {
+                rows.ids[moved] = rows.ids[moved - 1];
+                rows.setReference(moved, rows.reference(moved - 1));
+            }
+            rows.ids[row] = id;
+            rows.setReference(row, reference);
+        }
+
+        void deleteAccountRow(int accountId, int id) {
+            AccountRows rows = accounts.get(accountId);
+            int row = rows == null ? -1 : rows.find(id);
+            if (row >= 0) {
+                rows.setReference(row, DELETED);
+            }
+        }
+
+        /**
+         * Writes a record at the end of the arena, ahead of any reference to
+         * it.
+         */
+        long appendRecord(int id, int postedById, long time, byte[] text) {
+            int offset = arenaEnd;
+            arena.putInt(offset + ID_OFFSET, id);
+            arena.putInt(offset + POSTED_BY_OFFSET, postedById);
+            arena.putLong(offset + TIME_OFFSET, time);
+            if (text != null) {
+                ByteBuffer target = arena.duplicate();
+                target.position(offset + RECORD_HEADER);
+                target.put(text);
+            }
+            long reference = recordReference(offset, text == null ? NULL_TEXT : text.length);
+            arenaEnd += recordBytes(reference);
+            return reference;
+        }
+
+        long copyRecord(Columns source, long reference) {
+            int offset = arenaEnd;
+            ByteBuffer record = source.arena.duplicate();
+            record.limit(recordOffset(reference) + recordBytes(reference)).position(recordOffset(reference));
+            ByteBuffer target = arena.duplicate();
+            target.position(offset);
+            target.put(record);
+            arenaEnd += recordBytes(reference);
+            return recordReference(offset, textLength(reference));
+        }
+
+        int postedBy(long reference) {
+            return arena.getInt(recordOffset(reference) + POSTED_BY_OFFSET);
+        }
+
+        long bytes() {
+            return (long) capacity * (Integer.BYTES + Long.BYTES) + arena.capacity();
+        }
+    }
+
+    private volatile Columns columns = new Columns(INITIAL_ROWS, INITIAL_ARENA_BYTES);
+
+    private static long recordReference(int offset, int textLength) {
+        return (long) offset << 16 | textLength;
+    }
+
+    private static int recordOffset(long reference) {
+        return (int) (reference >>> 16);
+    }
+
+    private static int textLength(long reference) {
+        return (int) (reference & 0xFFFF);
+    }
+
+    private static int recordBytes(long reference) {
+        return RECORD_HEADER + (textLength(reference) == NULL_TEXT ? 0 : textLength(reference));
+    }
+
+    private static byte[] encode(String text) {
+        if (text == null) {
+            return null;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= NULL_TEXT) {
+            throw new IllegalArgumentException("Message text of " + bytes.length + " bytes is too long");
+        }
+        return bytes;
+    }
+
+    /**
+     * Adds the message, or replaces the row with the same message_id.
+     */
+    public synchronized void put(Message message) {
+        byte[] text = encode(message.getMessage_text());
+        int recordBytes = RECORD_HEADER + (text == null ? 0 : text.length);
+        int id = message.getMessage_id();
+        Columns current = columns;
+        int row = current.find(id);
+        if (!current.fits(row < 0 ? 1 : 0, recordBytes)) {
+            current = rebuild(current, recordBytes);
+            row = current.find(id);
+        }
+        long reference = current.appendRecord(id, message.getPosted_by(), message.getTime_posted_epoch(), text);
+        if (row < 0) {
+            current.insertRow(-row - 1, id, reference);
+        } else {
+            long previous = current.reference(row);
+            if (previous == DELETED) {
+                current.deletedRows--;
+            } else {
+                current.staleBytes += recordBytes(previous);
+                if (current.postedBy(previous) != message.getPosted_by()) {
+                    current.deleteAccountRow(current.postedBy(previous), id);
+                }
+            }
+            current.setReference(row, reference);
+        }
+        current.putAccountRow(message.getPosted_by(), id, reference);
+        columns = current;
+    }
+
+    /**
+     * Marks the message's row deleted, if there is one.
+     */
+    public synchronized void remove(int messageId) {
+        Columns current = columns;
+        int row = current.find(messageId);
+        if (row < 0) {
+            return;
+        }
+        long previous = current.reference(row);
+        if (previous == DELETED) {
+            return;
+        }
+        current.staleBytes += recordBytes(previous);
+        current.setReference(row, DELETED);
+        current.deleteAccountRow(current.postedBy(previous), messageId);
+        current.deletedRows++;
+        if (current.deletedRows > INITIAL_ROWS && current.deletedRows * 2 > current.size) {
+            columns = rebuild(current, 0);
+        }
+    }
+
+    /**
+     * Copies the live rows and their current records into new, unpublished
+     * columns with room to spare, including room for one more row and
+     * {@code recordBytes} more bytes of records.
+     */
+    private static Columns rebuild(Columns source, int recordBytes) {
+        int size = source.size;
+        int rows = size - source.deletedRows + 1;
+        long liveBytes = source.arenaEnd - source.staleBytes + recordBytes;
+        long arenaBytes = Math.max(INITIAL_ARENA_BYTES, liveBytes * 2);
+        if (arenaBytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Messages exceed the read model's arena limit");
+        }
+        Columns target = new Columns(Math.max(INITIAL_ROWS, Integer.highestOneBit(rows) * 2), (int) arenaBytes);
+        for (int row = 0; row < size; row++) {
+            long reference = source.reference(row);
+            if (reference == DELETED) {
+                continue;
+            }
+            long copied = target.copyRecord(source, reference);
+            target.insertRow(target.size, source.id(row), copied);
+            target.putAccountRow(target.postedBy(copied), source.id(row), copied);
+        }
+        return target;
+    }
+
+    /**
+     * Writes every message, in message_id order, as the elements of the
+     * array the generator is in.
+     *
+     * @return the number of messages written
+     */
+    public int writeAll(JsonGenerator generator) throws IOException {
+        Columns current = columns;
+        return write(generator, current, current);
+    }
+
+    /**
+     * Writes the account's messages, in message_id order, as the elements of
+     * the array the generator is in.
+     *
+     * @return the number of messages written
+     */
+    public int writeByAccount(int accountId, JsonGenerator generator) throws IOException {
+        Columns current = columns;
+        AccountRows rows = current.accounts.get(accountId);
+        return rows == null ? 0 : write(generator, current, rows);
+    }
+
+    private int write(JsonGenerator generator, Columns current, Rows rows) throws IOException {
+        ByteBuffer arena = current.arena.duplicate().order(ByteOrder.nativeOrder());
+        byte[] text = new byte[1024];
+        int written = 0;
+        int lastId = Integer.MIN_VALUE;
+        // the size is read again on every row, as an insert in place publishes the grown size before moving rows
+        for (int row = 0; row < rows.size(); row++) {
+            long reference = rows.reference(row);
+            if (reference == DELETED) {
+                continue;
+            }
+            int offset = recordOffset(reference);
+            int id = arena.getInt(offset + ID_OFFSET);
+            if (id <= lastId) {
+                // met again after an insert moved it along
+                continue;
+            }
+            lastId = id;
+            generator.writeStartObject();
+            generator.writeFieldName(MESSAGE_ID);
+            generator.writeNumber(id);
+            generator.writeFieldName(POSTED_BY);
+            generator.writeNumber(arena.getInt(offset + POSTED_BY_OFFSET));
+            generator.writeFieldName(MESSAGE_TEXT);
+            int length = textLength(reference);
+            if (length == NULL_TEXT) {
+                generator.writeNull();
+            } else {
+                if (length > text.length) {
+                    text = new byte[length];
+                }
+                arena.position(offset + RECORD_HEADER);
+                arena.get(text, 0, length);
+                generator.writeUTF8String(text, 0, length);
+            }
+            generator.writeFieldName(TIME_POSTED_EPOCH);
+            generator.writeNumber(arena.getLong(offset + TIME_OFFSET));
+            generator.writeEndObject();
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * @return the number of messages held, not counting deleted rows
+     */
+    public synchronized int getRowCount() {
+        Columns current = columns;
+        return current.size - current.deletedRows;
+    }
+
+    /**
+     * @return the off-heap bytes allocated for the columns and the record arena
+     */
+    public long getOffHeapBytes() {
+        return columns.bytes();
+    }
+}
@@ -0,0 +1,334 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import Model.Message;
+
+/**
+ * In-memory inverted index over message_text, so a search does not have to
+ * scan the message table with LIKE. Text is split into lower case runs of
+ * letters and digits; each term maps to a sorted int array of the ids of the
+ * messages containing it, with a parallel array of their time_posted_epoch.
+ *
+ * A query matches messages that contain every one of its terms, found by
+ * intersecting the posting lists from the shortest up, and results are
+ * ranked newest first by time_posted_epoch, then by message_id. Ranking keeps
+ * only the best {@code limit} matches in a bounded heap over primitive arrays,
+ * so a common term costs O(matches log limit) and no per-match allocation.
+ *
+ * Adding a message that is already indexed replaces it, and removing one that
+ * is not indexed does nothing, so updates that race with the initial build
+ * end up consistent.
+ */
+public class MessageSearchIndex {
+
+    /**
+     * A growable, sorted array of message ids, and the time each was posted.
+     */
+    private static class PostingList {
+        final String term;
+        int[] ids = new int[4];
+        long[] times = new long[4];
+        int size;
+
+        PostingList(String term) {
+            this.term = term;
+        }
+
+        void add(int id, long time) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                times[index] = time;
+                return;
+            }
+            int insertAt = -index - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+            }
+            System.arraycopy(ids, insertAt, ids, insertAt + 1, size - insertAt);
+            System.arraycopy(times, insertAt, times, insertAt + 1, size - insertAt);
+            ids[insertAt] = id;
+            times[insertAt] = time;
+            size++;
+        }
+
+        void remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) {
+                return;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            System.arraycopy(times, index + 1, times, index, size - index - 1);
+            size--;
+        }
+    }
+
+    private final Map<String, PostingList> postings = new HashMap<>();
+    /**
+     * The terms each message is indexed under, for removing it again.
+     */
+    private final Map<Integer, String[]> messages = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Splits text into its distinct lower case terms.
+     */
+    public static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean termChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (termChar && start < 0) {
+                start = i;
+            } else if (!termChar && start >= 0) {
+                terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Indexes a message, replacing what was indexed for it before.
+     */
+    public void add(Message message) {
+        Set<String> terms = tokenize(message.getMessage_text());
+        lock.writeLock().lock();
+        try {
+            removeLocked(message.getMessage_id());
+            String[] indexedTerms = new String[terms.size()];
+            int i = 0;
+            for (String term : terms) {
+                PostingList list = postings.get(term);
+                if (list == null) {
+                    list = new PostingList(term);
+                    postings.put(term, list);
+                }
+                list.add(message.getMessage_id(), message.getTime_posted_epoch());
+                // share the posting list's copy of the term rather than keep one per message
+                indexedTerms[i++] = list.term;
+            }
+            messages.put(message.getMessage_id(), indexedTerms);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int messageId) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(messageId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeLocked(int messageId) {
+        String[] terms = messages.remove(messageId);
+        if (terms == null) {
+            return;
+        }
+        for (String term : terms) {
+            PostingList list = postings.get(term);
+            list.remove(messageId);
+            if (list.size == 0) {
+                postings.remove(term);
+            }
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            messages.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the ids of up to {@code limit} messages containing every term of
+     *         the query, newest first; empty if the query has no terms
+     */
+    public List<Integer> search(String query, int limit) {
+        Set<String> terms = tokenize(query);
+        List<Integer> result = new ArrayList<>();
+        if (terms.isEmpty()) {
+            return result;
+        }
+        lock.readLock().lock();
+        try {
+            PostingList[] lists = new PostingList[terms.size()];
+            int i = 0;
+            for (String term : terms) {
+                PostingList list = postings.get(term);
+                if (list == null) {
+                    return result;
+                }
+                lists[i++] = list;
+            }
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+            int[] matches = Arrays.copyOf(lists[0].ids, lists[0].size);
+            long[] times = Arrays.copyOf(lists[0].times, lists[0].size);
+            int matchCount = matches.length;
+            for (int l = 1; l < lists.length && matchCount > 0; l++) {
+                matchCount = intersect(matches, times, matchCount, lists[l]);
+            }
+            for (int id : newest(matches, times, matchCount, limit)) {
+                result.add(id);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Keeps the ids in {@code matches}, and their times, that are also in
+     * {@code list}, probing the longer list by binary search from where the
+     * last probe ended.
+     *
+     * @return the number of ids kept at the front of {@code matches}
+     */
+    private static int intersect(int[] matches, long[] times, int matchCount, PostingList list) {
+        int kept = 0;
+        int from = 0;
+        for (int m = 0; m < matchCount && from < list.size; m++) {
+            int index = Arrays.binarySearch(list.ids, from, list.size, matches[m]);
+            if (index >= 0) {
+                times[kept] = times[m];
+                matches[kept++] = matches[m];
+                from = index + 1;
+            } else {
+                from = -index - 1;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Picks the {@code limit} newest of the first {@code count} matches with a
+     * min-heap whose root is the oldest match kept so far.
+     *
+     * @return the ids of the picked matches, newest first
+     */
+    private static int[] newest(int[] ids, long[] times, int count, int limit) {
+        int size = Math.min(count, Math.max(0, limit));
+        int[] heapIds = new int[size];
+        long[] heapTimes = new long[size];
+        int heapSize = 0;
+        for (int m = 0; m < count && size > 0; m++) {
+            if (heapSize < size) {
+                heapIds[heapSize] = ids[m];
+                heapTimes[heapSize] = times[m];
+                siftUp(heapIds, heapTimes, heapSize++);
+            } else if (isNewer(times[m], ids[m], heapTimes[0], heapIds[0])) {
+                heapIds[0] = ids[m];
+                heapTimes[0] = times[m];
+                siftDown(heapIds, heapTimes, 0, heapSize);
+            }
+        }
+        // take the oldest off the root and fill the array from the back
+        int[] ranked = new int[heapSize];
+        while (heapSize > 0) {
+            ranked[heapSize - 1] = heapIds[0];
+            heapSize--;
+            heapIds[0] = heapIds[heapSize];
+            heapTimes[0] = heapTimes[heapSize];
+            siftDown(heapIds, heapTimes, 0, heapSize);
+        }
+        return ranked;
+    }
+
+    private static boolean isNewer(long time, int id, long otherTime, int otherId) {
+        return time != otherTime ? time > otherTime : id > otherId;
+    }
+
+    private static void siftUp(int[] ids, long[] times, int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!isNewer(times[parent], ids[parent], times[index], ids[index])) {
+                return;
+            }
+            swap(ids, times, parent, index);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(int[] ids, long[] times, int index, int size) {
+        while (true) {
+            int oldest = index;
+            for (int child = 2 * index + 1; child <= 2 * index + 2 && child < size; child++) {
+                if (isNewer(times[oldest], ids[oldest], times[child], ids[child])) {
+                    oldest = child;
+                }
+            }
+            if (oldest == index) {
+                return;
+            }
+            swap(ids, times, oldest, index);
+            index = oldest;
+        }
+    }
+
+    private static void swap(int[] ids, long[] times, int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        long time = times[a];
+        times[a] = times[b];
+        times[b] = time;
+    }
+
+    public int getDocumentCount() {
+        lock.readLock().lock();
+        try {
+            return messages.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Estimated heap held by the index: each term with its map entry and
+     * posting arrays, and each message's entry and term references.
+     */
+    public long getEstimatedBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+                bytes += 32 + 40 + 2L * entry.getKey().length() + 32 + 2 * 16 + 12L * entry.getValue().ids.length;
+            }
+            for (String[] terms : messages.values()) {
+                bytes += 32 + 16 + 16 + 8L * terms.length;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
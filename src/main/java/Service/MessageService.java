@@ -1,41 +1,338 @@
 package Service;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import DAO.MappedMessageLog;
 import DAO.MessageDao;
+import DAO.MessageStore;
 import DAO.DaoException;
+import DAO.RowHandler;
+import DAO.ShardedMessageStore;
 import Model.Account;
 import Model.Message;
+import Model.MessageFilter;
+import Util.BulkFormat;
+import Util.ConnectionUtil;
+import Util.HotPathLog;
+import Util.LruCache;
 import io.javalin.http.NotFoundResponse;
 
-public class MessageService {
-    private MessageDao messageDao;
+/**
+ * Message reads by id go through a read-through {@link LruCache} bounded by
+ * entry count, estimated heap bytes and time-to-live. The cache is tuned with
+ * the system properties cache.message.maxEntries (default 10000),
+ * cache.message.maxBytes (default 16 MB) and cache.message.ttlMs (default
+ * 60000). Writes made through this service refresh or invalidate the cached
+ * entry; writes made directly against the database are only picked up once the
+ * entry expires.
+ *
+ * New messages are written according to the messages.writeMode system property:
+ * <ul>
+ * <li>direct (default) - one insert and commit per message</li>
+ * <li>group - through a {@link MessageWritePipeline}; the caller waits until
+ * the batch holding its message has committed</li>
+ * <li>async - through the pipeline without waiting, see
+ * {@link #createMessageAsync}</li>
+ * </ul>
+ * The pipeline is sized with messages.writeQueueCapacity (default 10000),
+ * messages.writeBatchSize (default 500) and messages.writeOfferTimeoutMs
+ * (default 100). In group mode a caller gives up on its message after
+ * messages.writeTimeoutMs (default 30000); the message may still be written
+ * later. A pipeline the service created is closed by {@link #close()}.
+ *
+ * Unless search.enabled is false, every message is also kept in a
+ * {@link MessageSearchIndex}, built by streaming the table and updated by each
+ * write made through a service. Services over the default message store share
+ * one index, built by the first of them; it is only built again after
+ * {@link ConnectionUtil#resetTestDatabase()}. A service given its own store
+ * builds its own index.
+ *
+ * With messages.readModel=true, every message is also kept in a
+ * {@link MessageReadModel}, loaded and shared the same way, from which the
+ * controller serves message listings without querying. Unlike the search
+ * index it has to be complete, so failing to load it fails the service.
+ *
+ * Updates and deletes write to the store without holding any lock, then take
+ * a lock on the message, striped by message_id and shared by every service,
+ * just long enough to hand the change to the cache, the indexes and the feed.
+ * Writes to one message that overlap may reach the store in either order, so
+ * the last of them to finish reads the message back and hands over that
+ * instead of its own change. New messages take the same lock once the store
+ * has given them their id.
+ *
+ * Exports and streamed listings hold a pooled connection for as long as the
+ * client takes to read them, so at most messages.maxDownloads (default 4) run
+ * at once, across all services; any more are turned away with
+ * {@link ServiceBusyException} rather than left to starve the pool.
+ *
+ * Each account also has a timeline version, so callers can tell whether a
+ * timeline they served before is still current without reading it again. It
+ * combines the store's timeline stamp, which changes with every insert and
+ * delete whoever makes it, including {@link BulkImporter} and other
+ * processes, with a count of the edits made through any service in this
+ * process. Edits made behind this process's back are not seen.
+ *
+ * Committed creates, updates and deletes are also published to the
+ * {@link MessageFeed} the service was given, if any, for live subscribers.
+ *
+ * Messages are stored according to the messages.storage system property: h2
+ * (default) in the message table through {@link MessageDao}, or log in a
+ * {@link MappedMessageLog}. Services share one log, opened by the first of
+ * them and closed by {@link #close()} once the last has closed; a new log
+ * starts with a copy of the message table.
+ * With h2 and db.shards above 1 the message tables of several databases are
+ * used through a {@link ShardedMessageStore}.
+ */
+public class MessageService implements AutoCloseable {
+    private MessageStore messageDao;
+    private final LruCache<Integer, Message> messageCache = new LruCache<>("message",
+            Integer.getInteger("cache.message.maxEntries", 10_000),
+            Long.getLong("cache.message.maxBytes", 16L * 1024 * 1024),
+            Long.getLong("cache.message.ttlMs", 60_000L),
+            (id, message) -> estimateSize(message));
     private static final Logger LOGGER = LoggerFactory.getLogger(MessageService.class);
+    private static final HotPathLog HOT_LOG = HotPathLog.getLogger(MessageService.class);
     private static final String DB_ACCESS_ERROR_MSG = "Error accessing the database";
+    public static final int MAX_PAGE_SIZE = 1000;
+    public static final int MAX_BATCH_SIZE = 1000;
+    private final MessageWritePipeline writePipeline;
+    private final boolean ownsWritePipeline;
+    private final boolean defaultStore;
+    private final boolean asyncWrites;
+    private final long writeTimeoutMillis = Long.getLong("messages.writeTimeoutMs", 30_000L);
+    /**
+     * Downloads streamed from the store, which hold a pooled connection until
+     * the client has read the last row.
+     */
+    private static final Semaphore DOWNLOADS = new Semaphore(Integer.getInteger("messages.maxDownloads", 4));
+    private final MessageSearchIndex searchIndex;
+    private final MessageReadModel readModel;
+    /**
+     * Edits made to each account's messages in this process, which the
+     * store's timeline stamp does not reflect.
+     */
+    private static final ConcurrentHashMap<Integer, Long> TIMELINE_EDITS = new ConcurrentHashMap<>();
+    private final MessageFeed feed;
+    private final MessageExporter exporter;
+    private static MessageSearchIndex sharedSearchIndex;
+    private static long sharedSearchIndexResets;
+    private static MessageReadModel sharedReadModel;
+    private static long sharedReadModelResets;
+    private static final Object[] MESSAGE_LOCKS = new Object[64];
+    /**
+     * Updates and deletes under way, by message_id, guarded by the message's
+     * lock. A message is only in here while a write to it is running.
+     */
+    private static final Map<Integer, MessageWrites> MESSAGE_WRITES = new ConcurrentHashMap<>();
+
+    /**
+     * The updates and deletes of one message that are under way.
+     */
+    private static final class MessageWrites {
+        int running;
+        long started;
+        /**
+         * Set once a write started while another was running, after which the
+         * order they reached the store in is unknown.
+         */
+        boolean overlapped;
+    }
+
+    static {
+        for (int i = 0; i < MESSAGE_LOCKS.length; i++) {
+            MESSAGE_LOCKS[i] = new Object();
+        }
+    }
 
     
     public MessageService() {
-        messageDao = new MessageDao();
+        this((MessageFeed) null);
+    }
+
+    /**
+     * A service over the default message store that publishes committed
+     * changes to the feed, which stays owned by the caller.
+     */
+    public MessageService(MessageFeed feed) {
+        this(createMessageStore(), true, feed);
+    }
+
+    
+    public MessageService(MessageStore messageDao) {
+        this(messageDao, false, null);
+    }
+
+    private MessageService(MessageStore messageDao, boolean defaultStore, MessageFeed feed) {
+        this.messageDao = messageDao;
+        this.defaultStore = defaultStore;
+        this.feed = feed;
+        String writeMode = System.getProperty("messages.writeMode", "direct");
+        this.asyncWrites = "async".equals(writeMode);
+        this.writePipeline = "direct".equals(writeMode) ? null
+                : new MessageWritePipeline(messageDao,
+                        Integer.getInteger("messages.writeQueueCapacity", 10_000),
+                        Integer.getInteger("messages.writeBatchSize", 500),
+                        Long.getLong("messages.writeOfferTimeoutMs", 100L));
+        this.ownsWritePipeline = writePipeline != null;
+        this.searchIndex = defaultStore ? sharedSearchIndex(messageDao) : buildSearchIndex(messageDao);
+        this.readModel = defaultStore ? sharedReadModel(messageDao) : buildReadModel(messageDao);
+        this.exporter = new MessageExporter(messageDao);
     }
 
     
-    public MessageService(MessageDao messageDao) {
+    public MessageService(MessageStore messageDao, MessageWritePipeline writePipeline, boolean asyncWrites) {
         this.messageDao = messageDao;
+        this.defaultStore = false;
+        this.feed = null;
+        this.writePipeline = writePipeline;
+        this.ownsWritePipeline = false;
+        this.asyncWrites = writePipeline != null && asyncWrites;
+        this.searchIndex = buildSearchIndex(messageDao);
+        this.readModel = buildReadModel(messageDao);
+        this.exporter = new MessageExporter(messageDao);
+    }
+
+    /**
+     * @return the configured message store, to be given back with
+     *         {@link #releaseMessageStore} once no longer used
+     */
+    static synchronized MessageStore createMessageStore() {
+        if (!"log".equals(System.getProperty("messages.storage", "h2"))) {
+            if (ConnectionUtil.getShardCount() == 1) {
+                return new MessageDao();
+            }
+            ShardedMessageStore.alignConfiguredIdSequences();
+            return new ShardedMessageStore();
+        }
+        MappedMessageLog log = MappedMessageLog.acquireShared();
+        if (log.isNew()) {
+            try {
+                LOGGER.info("Copied {} messages from the message table into the new message log",
+                        log.importFrom(new MessageDao()));
+            } catch (DaoException e) {
+                LOGGER.error("Could not copy the message table into the new message log", e);
+            }
+        }
+        return log;
+    }
+
+    /**
+     * @return the configured message store, opened for reading only and left
+     *         as it is: a log is opened without locking it, or read from the
+     *         message table if it was never created, and the shards' id
+     *         sequences are not aligned. Close it with
+     *         {@link #closeReadOnlyStore}.
+     */
+    static MessageStore openReadOnlyStore() {
+        if (!"log".equals(System.getProperty("messages.storage", "h2"))) {
+            return ConnectionUtil.getShardCount() > 1 ? new ShardedMessageStore() : new MessageDao();
+        }
+        MappedMessageLog log = MappedMessageLog.openReadOnly(MappedMessageLog.configuredDirectory());
+        if (log.isNew()) {
+            // the server copies the table into the log when it first opens it
+            log.close();
+            return new MessageDao();
+        }
+        return log;
+    }
+
+    static void closeReadOnlyStore(MessageStore store) {
+        if (store instanceof MappedMessageLog) {
+            ((MappedMessageLog) store).close();
+        } else if (store instanceof ShardedMessageStore) {
+            ((ShardedMessageStore) store).close();
+        }
+    }
+
+    static void releaseMessageStore(MessageStore store) {
+        if (store instanceof MappedMessageLog) {
+            MappedMessageLog.releaseShared((MappedMessageLog) store);
+        } else if (store instanceof ShardedMessageStore) {
+            ((ShardedMessageStore) store).close();
+        }
+    }
+
+    private static MessageReadModel buildReadModel(MessageStore messageDao) {
+        if (!Boolean.parseBoolean(System.getProperty("messages.readModel", "false"))) {
+            return null;
+        }
+        MessageReadModel readModel = new MessageReadModel();
+        long start = System.nanoTime();
+        messageDao.streamAll(readModel::put);
+        LOGGER.info("Loaded {} messages into the read model in {} ms", readModel.getRowCount(),
+                (System.nanoTime() - start) / 1_000_000);
+        return readModel;
+    }
+
+    /**
+     * @return the read model over the default message store, loaded on first
+     *         use and again after each database reset
+     */
+    private static synchronized MessageReadModel sharedReadModel(MessageStore messageDao) {
+        long resets = ConnectionUtil.getResetCount();
+        if (sharedReadModel == null || sharedReadModelResets != resets) {
+            sharedReadModel = buildReadModel(messageDao);
+            sharedReadModelResets = resets;
+        }
+        return sharedReadModel;
+    }
+
+    /**
+     * @return the index over the default message store, built on first use and
+     *         again after each database reset
+     */
+    private static synchronized MessageSearchIndex sharedSearchIndex(MessageStore messageDao) {
+        long resets = ConnectionUtil.getResetCount();
+        if (sharedSearchIndex == null || sharedSearchIndexResets != resets) {
+            sharedSearchIndex = buildSearchIndex(messageDao);
+            sharedSearchIndexResets = resets;
+        }
+        return sharedSearchIndex;
+    }
+
+    private static MessageSearchIndex buildSearchIndex(MessageStore messageDao) {
+        if (!Boolean.parseBoolean(System.getProperty("search.enabled", "true"))) {
+            return null;
+        }
+        MessageSearchIndex index = new MessageSearchIndex();
+        long start = System.nanoTime();
+        try {
+            messageDao.streamAll(index::add);
+        } catch (DaoException e) {
+            LOGGER.error("Could not build the message search index, it only covers new messages", e);
+        }
+        LOGGER.info("Indexed {} messages for search in {} ms", index.getDocumentCount(),
+                (System.nanoTime() - start) / 1_000_000);
+        return index;
     }
 
     
     public Optional<Message> getMessageById(int id) {
-        LOGGER.info("Fetching message with ID: {} ", id);
+        HOT_LOG.info("Fetching message with ID: {} ", id);
         try {
-            Optional<Message> message = messageDao.getById(id);
-            if (!message.isPresent()) {
+            Message cached = messageCache.getOrLoad(id, key -> messageDao.getById(key).orElse(null));
+            if (cached == null) {
                 throw new ServiceException("Message not found");
             }
-            LOGGER.info("Fetched message: {}", message.orElse(null));
+            Optional<Message> message = Optional.of(copyOf(cached));
+            HOT_LOG.info("Fetched message: {}", message.orElse(null));
             return message;
         } catch (DaoException e) {
             throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
@@ -44,10 +341,28 @@ public class MessageService {
 
     
     public List<Message> getAllMessages() {
-        LOGGER.info("Fetching all messages");
+        HOT_LOG.info("Fetching all messages");
         try {
             List<Message> messages = messageDao.getAll();
-            LOGGER.info("Fetched {} messages", messages.size());
+            HOT_LOG.info("Fetched {} messages", messages.size());
+            return messages;
+        } catch (DaoException e) {
+            throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
+        }
+    }
+
+    
+    public List<Message> getMessagesPage(int afterId, int limit) {
+        HOT_LOG.info("Fetching {} messages after ID: {}", limit, afterId);
+        if (afterId < 0) {
+            throw new ServiceException("Cursor cannot be negative");
+        }
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ServiceException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        try {
+            List<Message> messages = messageDao.getPage(afterId, limit);
+            HOT_LOG.info("Fetched {} messages", messages.size());
             return messages;
         } catch (DaoException e) {
             throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
@@ -55,11 +370,73 @@ public class MessageService {
     }
 
     
+    /**
+     * Writes the messages the filter matches to the stream for bulk export,
+     * see {@link MessageExporter}.
+     *
+     * @return the number of messages written
+     * @throws ServiceBusyException before writing anything, if too many
+     *                              downloads are running
+     */
+    public long exportMessages(MessageFilter filter, BulkFormat format, OutputStream out) throws IOException {
+        HOT_LOG.info("Exporting messages matching {} as {}", filter, format);
+        startDownload();
+        try {
+            return exporter.export(filter, format, out);
+        } catch (DaoException e) {
+            throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
+        } finally {
+            DOWNLOADS.release();
+        }
+    }
+
+    /**
+     * Hands every message to the handler, in message_id order, as the store
+     * reads it.
+     *
+     * @throws ServiceBusyException before handling any message, if too many
+     *                              downloads are running
+     */
+    public void streamAllMessages(RowHandler<Message> handler) {
+        HOT_LOG.info("Streaming all messages");
+        startDownload();
+        try {
+            messageDao.streamAll(handler);
+        } catch (DaoException e) {
+            throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
+        } finally {
+            DOWNLOADS.release();
+        }
+    }
+
+    private static void startDownload() {
+        if (!DOWNLOADS.tryAcquire()) {
+            throw new ServiceBusyException("Too many downloads are running, try again later");
+        }
+    }
+
+    
     public List<Message> getMessagesByAccountId(int accountId) {
-        LOGGER.info("Fetching messages posted by ID account: {}", accountId);
+        HOT_LOG.info("Fetching messages posted by ID account: {}", accountId);
         try {
             List<Message> messages = messageDao.getMessagesByAccountId(accountId);
-            LOGGER.info("Fetched {} messages", messages.size());
+            HOT_LOG.info("Fetched {} messages", messages.size());
+            return messages;
+        } catch (DaoException e) {
+            throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
+        }
+    }
+
+    
+    public List<Message> getTimeline(int accountId, TimelineCursor cursor, int limit) {
+        HOT_LOG.info("Fetching {} timeline messages for account ID: {}", limit, accountId);
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ServiceException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        try {
+            List<Message> messages = messageDao.getTimeline(accountId, cursor.getTimePostedEpoch(),
+                    cursor.getMessageId(), limit);
+            HOT_LOG.info("Fetched {} messages", messages.size());
             return messages;
         } catch (DaoException e) {
             throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
@@ -68,8 +445,82 @@ public class MessageService {
 
     
     public Message createMessage(Message message, Optional<Account> account) {
-        LOGGER.info("Creating message: {}", message);
+        HOT_LOG.info("Creating message: {}", message);
+        checkNewMessage(message, account);
+        if (writePipeline != null) {
+            try {
+                Message createdMessage = submitToPipeline(message)
+                        .orTimeout(writeTimeoutMillis, TimeUnit.MILLISECONDS)
+                        .join();
+                HOT_LOG.info("Created message: {}", createdMessage);
+                return createdMessage;
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof TimeoutException) {
+                    throw new ServiceBusyException("Timed out waiting for the message to be written", e.getCause());
+                }
+                if (e.getCause() instanceof ServiceBusyException) {
+                    throw (ServiceBusyException) e.getCause();
+                }
+                throw new ServiceException(DB_ACCESS_ERROR_MSG, e.getCause());
+            }
+        }
+        try {
+            
+            Message createdMessage = messageDao.insert(message);
+            created(createdMessage);
+            HOT_LOG.info("Created message: {}", createdMessage);
+            return createdMessage;
+        } catch (DaoException e) {
+            throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
+        }
+    }
+
+    /**
+     * Validates the message and queues it on the write pipeline without waiting
+     * for it to be committed. Only available in async write mode.
+     *
+     * @return a future completed with the created message once its batch commits
+     * @throws WriteQueueFullException if the pipeline is saturated
+     */
+    public CompletableFuture<Message> createMessageAsync(Message message, Optional<Account> account) {
+        HOT_LOG.info("Queueing message: {}", message);
+        if (!asyncWrites) {
+            throw new IllegalStateException("Asynchronous writes are not enabled");
+        }
+        checkNewMessage(message, account);
+        return submitToPipeline(message);
+    }
+
+    /**
+     * @return true if new messages should be accepted with createMessageAsync
+     */
+    public boolean isAsyncWrites() {
+        return asyncWrites;
+    }
+
+    /**
+     * @return the group-commit pipeline, or null when messages are written directly
+     */
+    public MessageWritePipeline getWritePipeline() {
+        return writePipeline;
+    }
 
+    private CompletableFuture<Message> submitToPipeline(Message message) {
+        return writePipeline.submit(message).thenApply(createdMessage -> {
+            created(createdMessage);
+            return createdMessage;
+        });
+    }
+
+    private void created(Message createdMessage) {
+        synchronized (lockFor(createdMessage.getMessage_id())) {
+            messageCache.put(createdMessage.getMessage_id(), copyOf(createdMessage));
+            updateIndexes(createdMessage);
+            publish(MessageEvent.Type.CREATED, createdMessage);
+        }
+    }
+
+    private void checkNewMessage(Message message, Optional<Account> account) {
         
         if (!account.isPresent()) {
             throw new ServiceException("Account must exist when posting a new message");
@@ -80,19 +531,67 @@ public class MessageService {
 
         
         checkAccountPermission(account.get(), message.getPosted_by());
+    }
+
+    /**
+     * Validates every message up front, then inserts the valid ones in a single
+     * batch. Invalid messages are reported individually and do not stop the rest
+     * of the batch; if the batch insert itself fails, every valid message is
+     * reported as failed.
+     *
+     * @param existingAccountIds the posted_by ids known to exist, resolved by the
+     *                           caller in one lookup
+     * @return one result per submitted message, in submission order
+     */
+    public List<BatchItemResult> createMessages(List<Message> messages, Set<Integer> existingAccountIds) {
+        HOT_LOG.info("Creating a batch of {} messages", messages.size());
+        if (messages.isEmpty() || messages.size() > MAX_BATCH_SIZE) {
+            throw new ServiceException("Batch size must be between 1 and " + MAX_BATCH_SIZE);
+        }
+
+        BatchItemResult[] results = new BatchItemResult[messages.size()];
+        List<Message> valid = new ArrayList<>(messages.size());
+        List<Integer> validIndexes = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            if (message == null) {
+                results[i] = BatchItemResult.rejected(i, "Message cannot be null");
+                continue;
+            }
+            if (!existingAccountIds.contains(message.getPosted_by())) {
+                results[i] = BatchItemResult.rejected(i, "Account must exist when posting a new message");
+                continue;
+            }
+            try {
+                validateMessage(message);
+            } catch (ServiceException e) {
+                results[i] = BatchItemResult.rejected(i, e.getMessage());
+                continue;
+            }
+            valid.add(message);
+            validIndexes.add(i);
+        }
+
         try {
-            
-            Message createdMessage = messageDao.insert(message);
-            LOGGER.info("Created message: {}", createdMessage);
-            return createdMessage;
+            List<Message> created = messageDao.insertAll(valid);
+            for (int i = 0; i < created.size(); i++) {
+                Message createdMessage = created.get(i);
+                created(createdMessage);
+                results[validIndexes.get(i)] = BatchItemResult.created(validIndexes.get(i), createdMessage);
+            }
+            HOT_LOG.info("Created {} of {} messages", created.size(), messages.size());
         } catch (DaoException e) {
-            throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
+            LOGGER.error("Batch insert failed", e);
+            for (Integer index : validIndexes) {
+                results[index] = BatchItemResult.rejected(index, DB_ACCESS_ERROR_MSG);
+            }
         }
+        return Arrays.asList(results);
     }
 
     
     public Message updateMessage(Message message) {
-        LOGGER.info("Updating message: {}", message.getMessage_id());
+        HOT_LOG.info("Updating message: {}", message.getMessage_id());
 
         
         Optional<Message> retrievedMessage = this.getMessageById(message.getMessage_id());
@@ -109,9 +608,9 @@ public class MessageService {
         validateMessage(retrievedMessage.get());
 
         try {
-            
-            messageDao.update(retrievedMessage.get());
-            LOGGER.info("Updated message: {}", message);
+            writeMessage(retrievedMessage.get(), false);
+            bumpTimelineVersion(retrievedMessage.get().getPosted_by());
+            HOT_LOG.info("Updated message: {}", message);
             return retrievedMessage.get();
         } catch (DaoException e) {
             throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
@@ -120,11 +619,11 @@ public class MessageService {
 
     
     public void deleteMessage(Message message) {
-        LOGGER.info("Deleting message: {}", message);
+        HOT_LOG.info("Deleting message: {}", message);
         try {
-            boolean hasDeletedMessage = messageDao.delete(message);
+            boolean hasDeletedMessage = writeMessage(message, true);
             if (hasDeletedMessage) {
-                LOGGER.info("Deleted message {}", message);
+                HOT_LOG.info("Deleted message {}", message);
             } else {
                 throw new NotFoundResponse("Message to delete not found");
             }
@@ -134,8 +633,230 @@ public class MessageService {
     }
 
     
+    /**
+     * Finds messages whose text contains every word of the query, newest first.
+     * Ranked ids come from the search index; the messages are then read from
+     * the message cache, and any not cached are fetched in one query. Those
+     * are only cached if no write reached the cache meanwhile, as with
+     * {@link LruCache#getOrLoad}.
+     */
+    public List<Message> searchMessages(String query, int limit) {
+        HOT_LOG.info("Searching messages for: {}", query);
+        if (searchIndex == null) {
+            throw new ServiceException("Message search is disabled");
+        }
+        if (MessageSearchIndex.tokenize(query).isEmpty()) {
+            throw new ServiceException("Search query must contain at least one word");
+        }
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ServiceException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        try {
+            List<Integer> ids = searchIndex.search(query, limit);
+            Map<Integer, Message> found = new HashMap<>();
+            List<Integer> missing = new ArrayList<>();
+            for (Integer id : ids) {
+                Message cached = messageCache.get(id);
+                if (cached != null) {
+                    found.put(id, copyOf(cached));
+                } else {
+                    missing.add(id);
+                }
+            }
+            if (!missing.isEmpty()) {
+                long generation = messageCache.getWriteGeneration();
+                messageDao.getByIds(missing).forEach((id, message) -> {
+                    messageCache.putIfUnwritten(id, copyOf(message), generation);
+                    found.put(id, message);
+                });
+            }
+            List<Message> messages = new ArrayList<>(ids.size());
+            for (Integer id : ids) {
+                Message message = found.get(id);
+                if (message != null) {
+                    messages.add(message);
+                }
+            }
+            HOT_LOG.info("Found {} messages", messages.size());
+            return messages;
+        } catch (DaoException e) {
+            throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
+        }
+    }
+
+    /**
+     * @return the columnar read model, or null when messages.readModel is not true
+     */
+    public MessageReadModel getReadModel() {
+        return readModel;
+    }
+
+    /**
+     * @return the search index, or null when search.enabled is false
+     */
+    public MessageSearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Read the version before reading the timeline: a write that lands in
+     * between then only makes the version look older than the data, which
+     * costs a refetch later rather than serving stale data as current.
+     *
+     * @return the store's timeline stamp of the account, see
+     *         {@link MessageStore#getTimelineStamp}, and the number of edits
+     *         made to its messages in this process
+     */
+    public long[] getTimelineVersion(int accountId) {
+        long edits = TIMELINE_EDITS.getOrDefault(accountId, 0L);
+        try {
+            return new long[] { messageDao.getTimelineStamp(accountId), edits };
+        } catch (DaoException e) {
+            throw new ServiceException(DB_ACCESS_ERROR_MSG, e);
+        }
+    }
+
+    private static void bumpTimelineVersion(int accountId) {
+        TIMELINE_EDITS.merge(accountId, 1L, Long::sum);
+    }
+
+    /**
+     * @return the feed committed message changes are published to, or null
+     *         if they are not published
+     */
+    public MessageFeed getFeed() {
+        return feed;
+    }
+
+    private void publish(MessageEvent.Type type, Message message) {
+        if (feed != null) {
+            feed.publish(new MessageEvent(type, copyOf(message)));
+        }
+    }
+
+    private static Object lockFor(int messageId) {
+        return MESSAGE_LOCKS[Math.floorMod(messageId, MESSAGE_LOCKS.length)];
+    }
+
+    /**
+     * Updates or deletes the message in the store, then hands the change to
+     * the cache, the indexes and the feed.
+     *
+     * @return whether the store had the message to write
+     */
+    private boolean writeMessage(Message message, boolean delete) {
+        int id = message.getMessage_id();
+        MessageWrites writes;
+        synchronized (lockFor(id)) {
+            writes = MESSAGE_WRITES.computeIfAbsent(id, key -> new MessageWrites());
+            writes.overlapped |= writes.running > 0;
+            writes.running++;
+            writes.started++;
+        }
+        boolean written;
+        try {
+            written = delete ? messageDao.delete(message) : messageDao.update(message);
+        } catch (RuntimeException e) {
+            finishWrite(id, writes, message, null, false);
+            throw e;
+        }
+        finishWrite(id, writes, message,
+                !written ? null : delete ? MessageEvent.Type.DELETED : MessageEvent.Type.UPDATED, true);
+        return written;
+    }
+
+    /**
+     * @param type  the event of a write that changed the store, null if it
+     *              found no message to write or failed
+     * @param known false if the write failed, which leaves it unknown whether
+     *              it reached the store
+     */
+    private void finishWrite(int id, MessageWrites writes, Message message, MessageEvent.Type type, boolean known) {
+        long started;
+        synchronized (lockFor(id)) {
+            if (type != null) {
+                publish(type, message);
+            }
+            if (writes.running > 1) {
+                // the last write to finish hands over the message
+                writes.running--;
+                return;
+            }
+            if (!writes.overlapped) {
+                writes.running = 0;
+                MESSAGE_WRITES.remove(id);
+                if (known) {
+                    showMessage(id, type == MessageEvent.Type.UPDATED ? message : null);
+                } else {
+                    messageCache.invalidate(id);
+                }
+                return;
+            }
+            started = writes.started;
+        }
+        // still counted as running, so that a write starting now overlaps
+        Optional<Message> reread = null;
+        try {
+            reread = messageDao.getById(id);
+        } catch (DaoException e) {
+            LOGGER.warn("Could not read back message {} after overlapping writes", id, e);
+        }
+        synchronized (lockFor(id)) {
+            writes.running--;
+            if (writes.started != started) {
+                // a write started since, and hands over the message when it finishes
+                return;
+            }
+            MESSAGE_WRITES.remove(id);
+            if (reread != null) {
+                showMessage(id, reread.orElse(null));
+            } else {
+                messageCache.invalidate(id);
+            }
+        }
+    }
+
+    /**
+     * Puts the message in the cache and the indexes, or takes it out of them
+     * if it is null. Called with the message's lock held.
+     */
+    private void showMessage(int id, Message message) {
+        if (message != null) {
+            messageCache.put(id, copyOf(message));
+            updateIndexes(message);
+        } else {
+            messageCache.invalidate(id);
+            removeFromIndexes(id);
+        }
+    }
+
+    private void updateIndexes(Message message) {
+        if (searchIndex != null) {
+            searchIndex.add(message);
+        }
+        if (readModel != null) {
+            readModel.put(message);
+        }
+    }
+
+    private void removeFromIndexes(int messageId) {
+        if (searchIndex != null) {
+            searchIndex.remove(messageId);
+        }
+        if (readModel != null) {
+            readModel.remove(messageId);
+        }
+    }
+
     private void validateMessage(Message message) {
-        LOGGER.info("Validating message: {}", message);
+        HOT_LOG.info("Validating message: {}", message);
+        checkMessageRules(message);
+    }
+
+    /**
+     * The rules every new message text must meet, shared with {@link BulkImporter}.
+     */
+    static void checkMessageRules(Message message) {
         if (message.getMessage_text() == null || message.getMessage_text().trim().isEmpty()) {
             throw new ServiceException("Message text cannot be null or empty");
         }
@@ -146,10 +867,49 @@ public class MessageService {
 
     
     private void checkAccountPermission(Account account, int postedBy) {
-        LOGGER.info("Checking account permissions for messages");
+        HOT_LOG.info("Checking account permissions for messages");
         if (account.getAccount_id() != postedBy) {
             throw new ServiceException("Account not authorized to modify this message");
         }
     }
-    
+
+    /**
+     * Stops the write pipeline this service created, failing any message still
+     * queued on it, then gives back the default message store. The service
+     * should not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (ownsWritePipeline) {
+            writePipeline.close();
+        }
+        if (defaultStore) {
+            releaseMessageStore(messageDao);
+        }
+    }
+
+    /**
+     * @return the message-by-id cache, for reading its hit ratio and eviction counters
+     */
+    public LruCache<Integer, Message> getMessageCache() {
+        return messageCache;
+    }
+
+    /**
+     * Message is mutable, so the cache keeps its own copy and hands out copies;
+     * otherwise a caller editing a returned message would edit the cached one.
+     */
+    private static Message copyOf(Message message) {
+        return new Message(message.getMessage_id(), message.getPosted_by(), message.getMessage_text(),
+                message.getTime_posted_epoch());
+    }
+
+    /**
+     * Rough heap cost of a cached message: the object and its fields, the text
+     * stored as UTF-16 in the worst case, and the map entry holding it.
+     */
+    private static long estimateSize(Message message) {
+        String text = message.getMessage_text();
+        return 160 + (text == null ? 0 : 2L * text.length());
+    }
 }
@@ -0,0 +1,250 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import DAO.DaoException;
+import DAO.MessageStore;
+import Model.Message;
+
+/**
+ * Group-commit write path for new messages. Callers put already validated
+ * messages on a bounded queue; a single writer thread drains the queue and
+ * inserts everything it found with one {@link MessageStore#insertAll} batch, so a
+ * burst of N posts costs one commit instead of N.
+ *
+ * Each caller gets a future that completes once the batch holding its message
+ * has committed. When the queue is full, submit waits up to the offer timeout
+ * and then fails, pushing back on the callers instead of buffering without
+ * bound. Every future is completed one way or the other: a batch that fails
+ * for any reason fails its futures and the writer carries on, and messages
+ * still queued when the pipeline is closed are failed rather than left
+ * waiting.
+ */
+public class MessageWritePipeline implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageWritePipeline.class);
+
+    private static class PendingWrite {
+        final Message message;
+        final CompletableFuture<Message> result = new CompletableFuture<>();
+
+        PendingWrite(Message message) {
+            this.message = message;
+        }
+    }
+
+    private final MessageStore messageDao;
+    private final BlockingQueue<PendingWrite> queue;
+    private final int maxBatchSize;
+    private final long offerTimeoutMillis;
+    private final Thread writer;
+    private volatile boolean running = true;
+    /**
+     * Set by the writer once it has stopped taking messages off the queue.
+     */
+    private volatile boolean stopped;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong messagesWritten = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile int lastBatchSize;
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+
+    public MessageWritePipeline(MessageStore messageDao, int capacity, int maxBatchSize, long offerTimeoutMillis) {
+        this.messageDao = messageDao;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.writer = new Thread(this::drainLoop, "message-write-pipeline");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues a validated message for the next batch.
+     *
+     * @return a future completed with the inserted message, including its
+     *         message_id, once its batch has committed
+     * @throws WriteQueueFullException if the queue stayed full for the whole
+     *                                 offer timeout, or the pipeline is closed
+     */
+    public CompletableFuture<Message> submit(Message message) {
+        if (!running) {
+            rejected.incrementAndGet();
+            throw new WriteQueueFullException("Message write pipeline is closed");
+        }
+        PendingWrite write = new PendingWrite(message);
+        boolean queued;
+        try {
+            queued = queue.offer(write, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+        if (!queued) {
+            rejected.incrementAndGet();
+            throw new WriteQueueFullException("Message write queue is full");
+        }
+        if (stopped) {
+            // queued after the writer made its last pass over the queue
+            failQueued();
+        }
+        return write.result;
+    }
+
+    private void drainLoop() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                // interrupted by close(): stop now rather than write the rest
+                running = false;
+                fail(batch, new WriteQueueFullException("Message write pipeline is closed", e));
+                break;
+            } catch (RuntimeException e) {
+                LOGGER.error("Message write pipeline failed on a batch of {} messages", batch.size(), e);
+                fail(batch, e);
+            } finally {
+                batch.clear();
+            }
+        }
+        stopped = true;
+        failQueued();
+    }
+
+    /**
+     * Fails every message still on the queue. Called by the writer once it
+     * has stopped, and by a submitter that may have queued behind it.
+     */
+    private void failQueued() {
+        List<PendingWrite> left = new ArrayList<>();
+        queue.drainTo(left);
+        if (!left.isEmpty()) {
+            LOGGER.warn("Message write pipeline closed with {} messages still queued", left.size());
+            fail(left, new WriteQueueFullException("Message write pipeline is closed"));
+        }
+    }
+
+    private static void fail(List<PendingWrite> writes, Throwable failure) {
+        for (PendingWrite write : writes) {
+            write.result.completeExceptionally(failure);
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            messages.add(write.message);
+        }
+        long start = System.nanoTime();
+        List<Message> inserted = null;
+        RuntimeException failure = null;
+        try {
+            inserted = messageDao.insertAll(messages);
+            if (inserted.size() != batch.size()) {
+                failure = new DaoException("Inserted " + inserted.size() + " of " + batch.size() + " messages");
+            }
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // update the statistics before completing the futures, so a caller
+        // that sees its message written also sees it counted
+        batches.incrementAndGet();
+        lastBatchSize = batch.size();
+        lastFlushNanos = elapsed;
+        if (elapsed > maxFlushNanos) {
+            maxFlushNanos = elapsed;
+        }
+        if (failure != null) {
+            LOGGER.error("Failed to write a batch of {} messages", batch.size(), failure);
+            fail(batch, failure);
+            return;
+        }
+        messagesWritten.addAndGet(inserted.size());
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).result.complete(inserted.get(i));
+        }
+    }
+
+    /**
+     * @return messages waiting for the writer thread
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getMessagesWritten() {
+        return messagesWritten.get();
+    }
+
+    /**
+     * @return submissions turned away because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * @return the average number of messages committed per batch
+     */
+    public double getAverageBatchSize() {
+        long count = batches.get();
+        return count == 0 ? 0 : (double) messagesWritten.get() / count;
+    }
+
+    /**
+     * @return how long the most recent batch took to insert and commit
+     */
+    public long getLastFlushMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(lastFlushNanos);
+    }
+
+    public long getMaxFlushMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxFlushNanos);
+    }
+
+    /**
+     * Stops accepting messages and waits for the writer to commit what is
+     * already queued. If the writer does not finish in time, it is interrupted
+     * and whatever is still queued is failed.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            writer.interrupt();
+        }
+    }
+}
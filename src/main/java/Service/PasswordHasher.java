@@ -0,0 +1,216 @@
+package Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted PBKDF2-HMAC-SHA256 password hashing on a dedicated, bounded pool of
+ * threads, so a burst of logins cannot tie up every request thread with
+ * hashing. When all hashing threads are busy and the queue is full the call
+ * fails straight away with {@link ServiceBusyException} instead of waiting.
+ *
+ * Hashes are stored as {@code pbkdf2_sha256$iterations$salt$hash}, so the
+ * cost can be raised later: {@link #needsRehash} reports hashes made with a
+ * different cost, or passwords still stored in plain text, which are
+ * accepted by {@link #verify} so existing accounts can log in and be upgraded.
+ *
+ * Tuned with the system properties auth.passwordHash.iterations (default
+ * 600000), auth.passwordHash.threads (default one per processor),
+ * auth.passwordHash.queueSize (default 64) and auth.passwordHash.timeoutMs
+ * (default 10000).
+ */
+public class PasswordHasher implements AutoCloseable {
+
+    private static final String PREFIX = "pbkdf2_sha256";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private static class SharedHolder {
+        static final PasswordHasher INSTANCE = new PasswordHasher();
+    }
+
+    private final int iterations;
+    private final long timeoutMillis;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+    private volatile String dummyHash;
+
+    public PasswordHasher() {
+        this(Integer.getInteger("auth.passwordHash.iterations", 600_000),
+                Integer.getInteger("auth.passwordHash.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("auth.passwordHash.queueSize", 64),
+                Long.getLong("auth.passwordHash.timeoutMs", 10_000L));
+    }
+
+    public PasswordHasher(int iterations, int threads, int queueSize, long timeoutMillis) {
+        this.iterations = iterations;
+        this.timeoutMillis = timeoutMillis;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hash-" + THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * @return the process-wide hasher configured from system properties, so
+     *         every service shares one bound on hashing threads
+     */
+    public static PasswordHasher shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    /**
+     * @return a new salted hash of the password at the configured cost
+     * @throws ServiceBusyException if the hashing pool is saturated
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hash = run(() -> pbkdf2(password, salt, iterations));
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + '$' + iterations + '$' + encoder.encodeToString(salt) + '$' + encoder.encodeToString(hash);
+    }
+
+    /**
+     * @return true if the password matches the stored hash, or the stored plain
+     *         text password of an account that has not been upgraded yet
+     * @throws ServiceBusyException if the hashing pool is saturated
+     */
+    public boolean verify(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4 || !PREFIX.equals(parts[0])) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                    stored.getBytes(StandardCharsets.UTF_8));
+        }
+        int storedIterations;
+        byte[] salt;
+        byte[] expected;
+        try {
+            storedIterations = Integer.parseInt(parts[1]);
+            salt = Base64.getDecoder().decode(parts[2]);
+            expected = Base64.getDecoder().decode(parts[3]);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        byte[] actual = run(() -> pbkdf2(password, salt, storedIterations));
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    /**
+     * @return a hash of a random password at the configured cost, made once,
+     *         for logins to verify against when the username is unknown so
+     *         they take as long as a wrong password for a known one
+     * @throws ServiceBusyException if the hashing pool is saturated
+     */
+    public String dummyHash() {
+        String hash = dummyHash;
+        if (hash == null) {
+            byte[] password = new byte[SALT_BYTES];
+            RANDOM.nextBytes(password);
+            hash = hash(Base64.getEncoder().encodeToString(password));
+            dummyHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * @return true if the value is a hash made by this class, at any cost,
+     *         rather than a plain text password
+     */
+    public boolean isHash(String value) {
+        return value != null && value.startsWith(PREFIX + '$') && value.split("\\$").length == 4;
+    }
+
+    /**
+     * @return true if the stored password is plain text or was hashed with a
+     *         different cost than the one now configured
+     */
+    public boolean needsRehash(String stored) {
+        return stored == null || !stored.startsWith(PREFIX + '$' + iterations + '$');
+    }
+
+    private byte[] run(Callable<byte[]> task) {
+        Future<byte[]> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new ServiceBusyException("Password hashing is saturated, try again later", e);
+        }
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            rejected.increment();
+            throw new ServiceBusyException("Password hashing timed out", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while hashing a password", e);
+        } catch (ExecutionException e) {
+            throw new ServiceException("Password hashing failed", e.getCause());
+        }
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations)
+            throws NoSuchAlgorithmException, InvalidKeySpecException {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return hashing requests waiting for a free hashing thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return requests turned away because the pool was saturated or too slow
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,16 @@
+package Service;
+
+/**
+ * Thrown when a bounded resource behind the service is saturated and the
+ * request is turned away rather than queued, so callers can answer with a
+ * retryable error instead of treating it as invalid input.
+ */
+public class ServiceBusyException extends ServiceException {
+    public ServiceBusyException(String message) {
+        super(message);
+    }
+
+    public ServiceBusyException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
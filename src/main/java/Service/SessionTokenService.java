@@ -0,0 +1,226 @@
+package Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Util.LruCache;
+
+/**
+ * Issues and verifies stateless session tokens, so a logged in client can be
+ * identified from the token alone instead of from server-side session state
+ * or a database lookup. A token has the form
+ * {@code keyId.accountId.expiresAtEpochSeconds.signature}, where the signature
+ * is an HMAC-SHA256 over everything before it.
+ *
+ * Signing keys come from auth.tokenKeys as comma separated
+ * {@code keyId=base64Secret} pairs; the first key signs new tokens and the
+ * others are still accepted, which lets keys be rotated without logging
+ * everyone out. Without auth.tokenKeys a random key is generated, so tokens
+ * only survive until restart and only work on this node. Tokens live for
+ * auth.tokenTtlSeconds (default 3600).
+ *
+ * Verified tokens are remembered in an {@link LruCache}, so repeat requests
+ * skip the HMAC. Retiring a key empties the cache so its tokens are rejected
+ * straight away.
+ */
+public class SessionTokenService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionTokenService.class);
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private static class SigningKey {
+        final String id;
+        final ThreadLocal<Mac> mac;
+
+        SigningKey(String id, byte[] secret) {
+            if (id.isEmpty() || id.contains(".")) {
+                throw new IllegalArgumentException("Key id must be non-empty and must not contain '.': " + id);
+            }
+            this.id = id;
+            SecretKeySpec keySpec = new SecretKeySpec(secret, ALGORITHM);
+            newMac(keySpec);
+            this.mac = ThreadLocal.withInitial(() -> newMac(keySpec));
+        }
+
+        private static Mac newMac(SecretKeySpec keySpec) {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(keySpec);
+                return mac;
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                throw new IllegalArgumentException("Cannot create an " + ALGORITHM + " signer", e);
+            }
+        }
+
+        String sign(String payload) {
+            return ENCODER.encodeToString(mac.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII)));
+        }
+    }
+
+    private static class VerifiedToken {
+        final int accountId;
+        final long expiresAtSeconds;
+
+        VerifiedToken(int accountId, long expiresAtSeconds) {
+            this.accountId = accountId;
+            this.expiresAtSeconds = expiresAtSeconds;
+        }
+    }
+
+    private final long ttlSeconds;
+    private final LruCache<String, VerifiedToken> verifiedTokens = new LruCache<>("session_token",
+            Integer.getInteger("cache.token.maxEntries", 10_000),
+            Long.getLong("cache.token.maxBytes", 4L * 1024 * 1024),
+            Long.getLong("cache.token.ttlMs", 60_000L),
+            (token, verified) -> 96 + 2L * token.length());
+    private volatile SigningKey currentKey;
+    private volatile Map<String, SigningKey> keys;
+
+    public SessionTokenService() {
+        this(parseKeys(System.getProperty("auth.tokenKeys")), Long.getLong("auth.tokenTtlSeconds", 3600L));
+    }
+
+    /**
+     * @param keys signing keys by id, the first one signing new tokens
+     */
+    public SessionTokenService(Map<String, byte[]> keys, long ttlSeconds) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("At least one signing key is required");
+        }
+        Map<String, SigningKey> signingKeys = new LinkedHashMap<>();
+        keys.forEach((id, secret) -> signingKeys.put(id, new SigningKey(id, secret)));
+        this.keys = Collections.unmodifiableMap(signingKeys);
+        this.currentKey = signingKeys.values().iterator().next();
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    private static Map<String, byte[]> parseKeys(String property) {
+        Map<String, byte[]> keys = new LinkedHashMap<>();
+        if (property == null || property.isBlank()) {
+            LOGGER.warn("auth.tokenKeys is not set, signing session tokens with a random key for this process only");
+            byte[] secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+            keys.put("local", secret);
+            return keys;
+        }
+        for (String pair : property.split(",")) {
+            int separator = pair.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("auth.tokenKeys entries must look like keyId=base64Secret");
+            }
+            keys.put(pair.substring(0, separator).trim(),
+                    Base64.getDecoder().decode(pair.substring(separator + 1).trim()));
+        }
+        return keys;
+    }
+
+    /**
+     * @return a token identifying the account, signed with the current key
+     */
+    public String issue(int accountId) {
+        SigningKey key = currentKey;
+        long expiresAt = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + ttlSeconds;
+        String payload = key.id + '.' + accountId + '.' + expiresAt;
+        return payload + '.' + key.sign(payload);
+    }
+
+    /**
+     * @return the account the token was issued to, or empty if the token is
+     *         malformed, expired, or not signed by a known key
+     */
+    public OptionalInt verify(String token) {
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        VerifiedToken cached = verifiedTokens.get(token);
+        if (cached != null) {
+            return cached.expiresAtSeconds > now ? OptionalInt.of(cached.accountId) : OptionalInt.empty();
+        }
+        int signatureStart = token.lastIndexOf('.');
+        String[] fields = signatureStart < 0 ? new String[0] : token.substring(0, signatureStart).split("\\.");
+        if (fields.length != 3) {
+            return OptionalInt.empty();
+        }
+        SigningKey key = keys.get(fields[0]);
+        if (key == null) {
+            return OptionalInt.empty();
+        }
+        byte[] expected = key.sign(token.substring(0, signatureStart)).getBytes(StandardCharsets.US_ASCII);
+        byte[] actual = token.substring(signatureStart + 1).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            return OptionalInt.empty();
+        }
+        try {
+            VerifiedToken verified = new VerifiedToken(Integer.parseInt(fields[1]), Long.parseLong(fields[2]));
+            if (verified.expiresAtSeconds <= now) {
+                return OptionalInt.empty();
+            }
+            if (keys.containsKey(key.id)) {
+                verifiedTokens.put(token, verified);
+            }
+            return OptionalInt.of(verified.accountId);
+        } catch (NumberFormatException e) {
+            return OptionalInt.empty();
+        }
+    }
+
+    /**
+     * Makes a new key the one that signs new tokens. Tokens signed with the
+     * previous keys stay valid until those keys are retired.
+     */
+    public synchronized void rotate(String keyId, byte[] secret) {
+        SigningKey key = new SigningKey(keyId, secret);
+        Map<String, SigningKey> rotated = new LinkedHashMap<>();
+        rotated.put(keyId, key);
+        keys.forEach(rotated::putIfAbsent);
+        keys = Collections.unmodifiableMap(rotated);
+        currentKey = key;
+        LOGGER.info("Session tokens are now signed with key {}", keyId);
+    }
+
+    /**
+     * Stops accepting tokens signed with the given key. The current signing key
+     * cannot be retired; rotate to a new key first.
+     */
+    public synchronized void retire(String keyId) {
+        if (currentKey.id.equals(keyId)) {
+            throw new IllegalArgumentException("Cannot retire the current signing key " + keyId);
+        }
+        Map<String, SigningKey> remaining = new LinkedHashMap<>(keys);
+        if (remaining.remove(keyId) != null) {
+            keys = Collections.unmodifiableMap(remaining);
+            verifiedTokens.invalidateAll();
+            LOGGER.info("Retired session token key {}", keyId);
+        }
+    }
+
+    /**
+     * @return the ids of the accepted keys, the current signing key first
+     */
+    public List<String> getKeyIds() {
+        return new ArrayList<>(keys.keySet());
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public LruCache<String, ?> getVerifiedTokenCache() {
+        return verifiedTokens;
+    }
+}
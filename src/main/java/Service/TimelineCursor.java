@@ -0,0 +1,62 @@
+package Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import Model.Message;
+
+/**
+ * Continuation token for an account timeline. A timeline is ordered newest
+ * first by (time_posted_epoch, message_id), so the position after a page is the
+ * pair of those values from its last message. Clients treat the encoded form as
+ * opaque.
+ */
+public final class TimelineCursor {
+
+    /**
+     * Position before every message, used for the first page.
+     */
+    public static final TimelineCursor START = new TimelineCursor(Long.MAX_VALUE, Integer.MAX_VALUE);
+
+    private final long timePostedEpoch;
+    private final int messageId;
+
+    public TimelineCursor(long timePostedEpoch, int messageId) {
+        this.timePostedEpoch = timePostedEpoch;
+        this.messageId = messageId;
+    }
+
+    /**
+     * @return the cursor that continues the timeline after the given message
+     */
+    public static TimelineCursor after(Message message) {
+        return new TimelineCursor(message.getTime_posted_epoch(), message.getMessage_id());
+    }
+
+    public long getTimePostedEpoch() {
+        return timePostedEpoch;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    public String encode() {
+        String raw = timePostedEpoch + ":" + messageId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @throws ServiceException if the token was not produced by {@link #encode()}
+     */
+    public static TimelineCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII);
+            int separator = raw.indexOf(':');
+            return new TimelineCursor(Long.parseLong(raw.substring(0, separator)),
+                    Integer.parseInt(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new ServiceException("Invalid timeline cursor", e);
+        }
+    }
+}
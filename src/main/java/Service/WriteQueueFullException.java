@@ -0,0 +1,15 @@
+package Service;
+
+/**
+ * Thrown when the message write pipeline cannot accept more messages, so
+ * callers can tell backpressure apart from an invalid message.
+ */
+public class WriteQueueFullException extends ServiceBusyException {
+    public WriteQueueFullException(String message) {
+        super(message);
+    }
+
+    public WriteQueueFullException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
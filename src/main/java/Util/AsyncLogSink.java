@@ -0,0 +1,213 @@
+package Util;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.helpers.MessageFormatter;
+
+/**
+ * Moves log formatting and I/O off request threads. Callers claim a slot in a
+ * fixed ring of preallocated events and store the format string and arguments
+ * in it; a single writer thread formats the events in order and writes them in
+ * the same layout as slf4j-simple, flushing once the ring is drained.
+ *
+ * Arguments are snapshotted by the caller before they are stored: strings,
+ * boxed primitives and enums are immutable and kept as they are, anything else
+ * is replaced by its toString(). The writer therefore never reads an object
+ * that the caller may still be changing, and a later edit cannot change what
+ * was logged.
+ *
+ * By default publishing never blocks: when the writer has fallen a full ring
+ * behind, the event is dropped and counted instead. With blockWhenFull the
+ * caller parks until the writer frees a slot, so no event is lost but a slow
+ * destination slows the callers down.
+ *
+ * The shared sink writes to the same destination as slf4j-simple
+ * (org.slf4j.simpleLogger.logFile, System.err by default), holds
+ * log.async.bufferSize events (default 8192, rounded up to a power of two) and
+ * blocks when full if log.async.blockWhenFull is true.
+ */
+public class AsyncLogSink implements AutoCloseable {
+
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    private static final long FULL_PARK_NANOS = 50_000;
+
+    private static class Slot {
+        volatile long sequence = -1;
+        String level;
+        String loggerName;
+        String threadName;
+        String format;
+        Object arg1;
+        Object arg2;
+    }
+
+    private static final AsyncLogSink SHARED = createShared();
+
+    private final Slot[] slots;
+    private final int mask;
+    private final PrintStream out;
+    private final boolean blockWhenFull;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public AsyncLogSink(int capacity, PrintStream out) {
+        this(capacity, out, false);
+    }
+
+    public AsyncLogSink(int capacity, PrintStream out, boolean blockWhenFull) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.out = out;
+        this.blockWhenFull = blockWhenFull;
+        this.writer = new Thread(this::drainLoop, "async-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private static AsyncLogSink createShared() {
+        AsyncLogSink sink = new AsyncLogSink(Integer.getInteger("log.async.bufferSize", 8192), openLogFile(),
+                Boolean.getBoolean("log.async.blockWhenFull"));
+        Runtime.getRuntime().addShutdownHook(new Thread(sink::close, "async-log-shutdown"));
+        Metrics.counterFunction("log_async_dropped_total", "Log events dropped because the ring buffer was full.", "",
+                sink::getDroppedCount);
+        Metrics.gauge("log_async_backlog", "Log events waiting to be written.", "", sink::getBacklog);
+        return sink;
+    }
+
+    private static PrintStream openLogFile() {
+        String logFile = System.getProperty("org.slf4j.simpleLogger.logFile", "System.err");
+        if ("System.err".equals(logFile)) {
+            return System.err;
+        }
+        if ("System.out".equals(logFile)) {
+            return System.out;
+        }
+        try {
+            return new PrintStream(new FileOutputStream(logFile, true), false);
+        } catch (FileNotFoundException e) {
+            System.err.println("Could not open log file " + logFile + ", logging to System.err");
+            return System.err;
+        }
+    }
+
+    public static AsyncLogSink shared() {
+        return SHARED;
+    }
+
+    /**
+     * Queues one event for the writer thread. Only arguments that are not
+     * immutable allocate, for their toString(). If the ring is full the event
+     * is dropped, or with blockWhenFull the caller parks until the writer frees
+     * a slot.
+     */
+    public void publish(String level, String loggerName, String format, Object arg1, Object arg2) {
+        long sequence;
+        while (true) {
+            if (!running) {
+                dropped.increment();
+                return;
+            }
+            sequence = claimed.get();
+            if (sequence - consumed.get() < slots.length) {
+                if (claimed.compareAndSet(sequence, sequence + 1)) {
+                    break;
+                }
+            } else if (blockWhenFull) {
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            } else {
+                dropped.increment();
+                return;
+            }
+        }
+
+        Slot slot = slots[(int) (sequence & mask)];
+        slot.level = level;
+        slot.loggerName = loggerName;
+        slot.threadName = Thread.currentThread().getName();
+        slot.format = format;
+        slot.arg1 = snapshot(arg1);
+        slot.arg2 = snapshot(arg2);
+        slot.sequence = sequence;
+    }
+
+    /**
+     * @return the argument itself if it cannot change, otherwise its current
+     *         string form
+     */
+    static Object snapshot(Object arg) {
+        if (arg == null || arg instanceof String || arg instanceof Integer || arg instanceof Long
+                || arg instanceof Boolean || arg instanceof Enum || arg instanceof Double
+                || arg instanceof Character || arg instanceof Short || arg instanceof Byte
+                || arg instanceof Float) {
+            return arg;
+        }
+        if (arg.getClass().isArray()) {
+            // keep slf4j's rendering of array contents
+            return MessageFormatter.format("{}", arg).getMessage();
+        }
+        return arg.toString();
+    }
+
+    private void drainLoop() {
+        StringBuilder line = new StringBuilder(256);
+        long next = 0;
+        while (running || next < claimed.get()) {
+            Slot slot = slots[(int) (next & mask)];
+            if (slot.sequence != next) {
+                if (next < claimed.get()) {
+                    // claimed but still being filled in by its producer
+                    Thread.yield();
+                } else {
+                    out.flush();
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                continue;
+            }
+            line.setLength(0);
+            line.append('[').append(slot.threadName).append("] ").append(slot.level).append(' ')
+                    .append(slot.loggerName).append(" - ")
+                    .append(MessageFormatter.format(slot.format, slot.arg1, slot.arg2).getMessage());
+            slot.arg1 = null;
+            slot.arg2 = null;
+            consumed.lazySet(++next);
+            out.println(line);
+        }
+        out.flush();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return events published but not yet written
+     */
+    public long getBacklog() {
+        return claimed.get() - consumed.get();
+    }
+
+    /**
+     * Stops accepting events and waits for the writer to flush what is queued.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
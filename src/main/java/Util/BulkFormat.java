@@ -0,0 +1,40 @@
+package Util;
+
+import java.util.Locale;
+
+/**
+ * The line-oriented formats bulk exports are written in: NDJSON, one JSON
+ * object per line, or CSV with a header row. Both can be appended to and read
+ * back one row at a time, unlike a single JSON array.
+ */
+public enum BulkFormat {
+    NDJSON("application/x-ndjson", "ndjson"),
+    CSV("text/csv; charset=utf-8", "csv");
+
+    private final String mediaType;
+    private final String extension;
+
+    BulkFormat(String mediaType, String extension) {
+        this.mediaType = mediaType;
+        this.extension = extension;
+    }
+
+    /**
+     * @return the format with the given name, in any case
+     * @throws IllegalArgumentException if there is no such format
+     */
+    public static BulkFormat forName(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * @return the usual file name extension, without the dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+}
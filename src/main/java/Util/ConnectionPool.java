@@ -0,0 +1,348 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of physical JDBC connections. At most {@code maxSize}
+ * connections are handed out at once; callers that find the pool exhausted
+ * wait up to {@code acquireTimeoutMillis} before an SQLException is thrown.
+ *
+ * Connections handed out by {@link #getConnection()} are proxies: calling
+ * close() returns the physical connection to the pool instead of closing it,
+ * so DAO code can keep using try-with-resources.
+ *
+ * A background housekeeper closes connections that have been idle for longer
+ * than {@code idleTimeoutMillis} and logs the borrowing stack trace of any
+ * connection held for longer than {@code leakDetectionThresholdMillis}.
+ *
+ * Each physical connection keeps an LRU cache of up to
+ * {@code statementCacheSize} prepared statements, so repeated DAO queries skip
+ * H2's parse and plan step. A size of 0 disables the cache.
+ */
+public class ConnectionPool implements ConnectionSource, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakDetectionThresholdMillis;
+    private final int statementCacheSize;
+
+    /**
+     * One permit per connection that may be borrowed. Waiting for a permit is
+     * what bounds the pool.
+     */
+    private final Semaphore permits;
+    /**
+     * Returned connections, most recently used first, so that the ones at the
+     * tail are the first to be evicted when idle.
+     */
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicLong acquireTimeouts = new AtomicLong();
+    private final AtomicLong leaksDetected = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String username, String password, int maxSize,
+            long acquireTimeoutMillis, long idleTimeoutMillis, long leakDetectionThresholdMillis) {
+        this(url, username, password, maxSize, acquireTimeoutMillis, idleTimeoutMillis,
+                leakDetectionThresholdMillis, DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    public ConnectionPool(String url, String username, String password, int maxSize,
+            long acquireTimeoutMillis, long idleTimeoutMillis, long leakDetectionThresholdMillis,
+            int statementCacheSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = housekeepingPeriod(idleTimeoutMillis, leakDetectionThresholdMillis);
+        if (period > 0) {
+            housekeeper.scheduleWithFixedDelay(this::houseKeep, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Half the shorter of the two thresholds, so nothing outlives its
+     * threshold by more than half of it. A threshold of 0 is switched off and
+     * does not count; with both off there is nothing to do and 0 is returned.
+     */
+    private static long housekeepingPeriod(long idleTimeoutMillis, long leakDetectionThresholdMillis) {
+        long shortest = Long.MAX_VALUE;
+        if (idleTimeoutMillis > 0) {
+            shortest = idleTimeoutMillis;
+        }
+        if (leakDetectionThresholdMillis > 0) {
+            shortest = Math.min(shortest, leakDetectionThresholdMillis);
+        }
+        return shortest == Long.MAX_VALUE ? 0 : Math.max(100, shortest / 2);
+    }
+
+    /**
+     * Borrows a connection, waiting for one to be returned if the pool is at its
+     * maximum size.
+     *
+     * @return a connection whose close() returns it to this pool
+     * @throws SQLException if no connection became available within the acquire
+     *                      timeout, or a new physical connection could not be
+     *                      opened
+     */
+    public Connection getConnection() throws SQLException {
+        return borrow(null, 0);
+    }
+
+    /**
+     * Borrows a connection like {@link #getConnection()}, recording the time
+     * from this call until the connection is closed in {@code timer}. A
+     * request that fails is recorded too.
+     */
+    @Override
+    public Connection getConnection(LatencyHistogram timer) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return borrow(timer, start);
+        } catch (SQLException | RuntimeException e) {
+            timer.recordSince(start);
+            throw e;
+        }
+    }
+
+    private Connection borrow(LatencyHistogram timer, long start) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        waiting.incrementAndGet();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                acquireTimeouts.incrementAndGet();
+                throw new SQLException("Timed out after " + acquireTimeoutMillis
+                        + "ms waiting for a connection (active=" + getActiveCount() + ", max=" + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = openPhysical();
+                total.incrementAndGet();
+            }
+            pooled.markBorrowed(leakDetectionThresholdMillis > 0, timer, start);
+            borrowed.add(pooled);
+            return pooled.getProxy();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection openPhysical() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, username, password);
+        StatementCache statementCache = statementCacheSize > 0
+                ? new StatementCache(physical, statementCacheSize, statementCacheHits, statementCacheMisses)
+                : null;
+        return new PooledConnection(this, physical, statementCache);
+    }
+
+    /**
+     * Takes the most recently returned connection that is still open, closing
+     * any that were found dead along the way.
+     */
+    private PooledConnection takeIdle() {
+        while (true) {
+            PooledConnection pooled;
+            synchronized (idle) {
+                pooled = idle.pollFirst();
+            }
+            if (pooled == null) {
+                return null;
+            }
+            if (pooled.isPhysicallyOpen()) {
+                return pooled;
+            }
+            discard(pooled);
+        }
+    }
+
+    /**
+     * Called by a pooled connection's proxy when the borrower closes it.
+     */
+    void release(PooledConnection pooled) {
+        if (!borrowed.remove(pooled)) {
+            return;
+        }
+        try {
+            if (!closed && pooled.resetForReuse()) {
+                synchronized (idle) {
+                    idle.addFirst(pooled);
+                }
+            } else {
+                discard(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        total.decrementAndGet();
+        pooled.closePhysical();
+    }
+
+    private void houseKeep() {
+        long now = System.currentTimeMillis();
+        if (idleTimeoutMillis > 0) {
+            synchronized (idle) {
+                Iterator<PooledConnection> it = idle.descendingIterator();
+                while (it.hasNext()) {
+                    PooledConnection pooled = it.next();
+                    if (now - pooled.getLastReturnedAt() < idleTimeoutMillis) {
+                        break;
+                    }
+                    it.remove();
+                    discard(pooled);
+                }
+            }
+        }
+        if (leakDetectionThresholdMillis > 0) {
+            for (PooledConnection pooled : borrowed) {
+                if (now - pooled.getBorrowedAt() > leakDetectionThresholdMillis && pooled.markLeakReported()) {
+                    leaksDetected.incrementAndGet();
+                    LOGGER.warn("Connection held for more than {}ms, possible leak. Borrowed at:",
+                            leakDetectionThresholdMillis, pooled.getBorrowTrace());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of connections currently handed out
+     */
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * @return the number of open connections waiting in the pool to be reused
+     */
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * @return the number of callers currently blocked waiting for a connection
+     */
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    /**
+     * @return the number of physical connections currently open, active or idle
+     */
+    public int getTotalCount() {
+        return total.get();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getAcquireTimeoutCount() {
+        return acquireTimeouts.get();
+    }
+
+    public long getLeakCount() {
+        return leaksDetected.get();
+    }
+
+    /**
+     * @return how many prepareStatement calls were served from a statement cache
+     */
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    /**
+     * @return how many prepareStatement calls had to prepare a new statement
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    /**
+     * Closes all idle connections and stops the housekeeper. Connections that are
+     * still borrowed are closed as they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        synchronized (idle) {
+            for (PooledConnection pooled : idle) {
+                discard(pooled);
+            }
+            idle.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool{" +
+                "active=" + getActiveCount() +
+                ", idle=" + getIdleCount() +
+                ", waiting=" + getWaitingCount() +
+                ", total=" + getTotalCount() +
+                ", max=" + maxSize +
+                ", statementCacheHits=" + getStatementCacheHits() +
+                ", statementCacheMisses=" + getStatementCacheMisses() +
+                '}';
+    }
+}
@@ -0,0 +1,25 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Somewhere a DAO borrows its connections from, such as a
+ * {@link ConnectionPool} or {@link ConnectionUtil#getConnection()}. Callers
+ * must close the connections they get.
+ */
+@FunctionalInterface
+public interface ConnectionSource {
+
+    Connection getConnection() throws SQLException;
+
+    /**
+     * Borrows a connection and records in {@code timer} how long the caller
+     * waited for it and held it, once it is closed. This is how DAO methods are
+     * timed. Sources that cannot tell when a connection is closed hand it out
+     * untimed.
+     */
+    default Connection getConnection(LatencyHistogram timer) throws SQLException {
+        return getConnection();
+    }
+}
@@ -0,0 +1,95 @@
+package Util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+
+import Model.Message;
+
+/**
+ * Weak entity tags for conditional GETs. A single message is tagged with a
+ * hash of its fields, so the tag stays the same across restarts and nodes. A
+ * list is tagged with version numbers that change whenever it may have, plus
+ * a random value picked at startup so that tags handed out before a restart,
+ * when counters kept in memory start again from zero, no longer match.
+ *
+ * The tags are weak because the body is compressed after the handler has
+ * tagged it, depending on the Accept-Encoding and its size: the gzip, Brotli
+ * and identity bodies of one message share a tag, so it cannot vouch for their
+ * bytes, only for their meaning.
+ */
+public final class ETags {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final String INSTANCE = Long.toHexString(new SecureRandom().nextLong());
+
+    private ETags() {
+    }
+
+    /**
+     * @return a weak tag derived from every field of the message and the
+     *         format it is sent in
+     */
+    public static String forMessage(Message message, WireFormat format) {
+        long hash = mix(FNV_OFFSET, format.getMediaType());
+        hash = mix(hash, message.getMessage_id());
+        hash = mix(hash, message.getPosted_by());
+        hash = mix(hash, message.getTime_posted_epoch());
+        hash = mix(hash, message.getMessage_text());
+        return "W/\"" + Long.toHexString(hash) + '"';
+    }
+
+    /**
+     * @param resource identifies the representation, including any query string
+     * @param version  numbers that together change whenever the representation
+     *                 may have changed
+     * @return a weak tag for this version of the resource in this process
+     */
+    public static String forVersion(String resource, long... version) {
+        StringBuilder tag = new StringBuilder().append("W/\"").append(INSTANCE).append('-');
+        for (int i = 0; i < version.length; i++) {
+            tag.append(i == 0 ? "" : ".").append(Long.toHexString(version[i]));
+        }
+        return tag.append('-').append(Long.toHexString(mix(FNV_OFFSET, resource))).append('"').toString();
+    }
+
+    /**
+     * Compares an If-None-Match header with a tag the way RFC 9110 asks: the
+     * header may list several tags or be {@code *}, and tags are compared
+     * weakly, so a weak tag matches its strong counterpart.
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaque = opaqueTag(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || opaqueTag(candidate).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private static long mix(long hash, long value) {
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, String value) {
+        if (value == null) {
+            return mix(hash, -1L);
+        }
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return mix(hash, value.length());
+    }
+}
@@ -0,0 +1,98 @@
+package Util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logger for statements that run on every request. Each call is first gated on
+ * the SLF4J level of the class, so a disabled statement costs one check and
+ * never touches its arguments, and then optionally sampled so that only one
+ * in log.hotPath.sampleEvery calls is kept (default 1, keep all). Kept events
+ * go to the shared {@link AsyncLogSink}, which snapshots the arguments on the
+ * calling thread and formats them off it; set log.async=false to write through
+ * SLF4J directly instead.
+ *
+ * Errors and anything with a stack trace should keep using an SLF4J logger.
+ */
+public final class HotPathLog {
+
+    private static final boolean ASYNC = Boolean.parseBoolean(System.getProperty("log.async", "true"));
+    private static final int SAMPLE_EVERY = Math.max(1, Integer.getInteger("log.hotPath.sampleEvery", 1));
+
+    private final Logger logger;
+    private final String name;
+    private final AsyncLogSink sink;
+    private final int sampleEvery;
+
+    private HotPathLog(Logger logger, AsyncLogSink sink, int sampleEvery) {
+        this.logger = logger;
+        this.name = logger.getName();
+        this.sink = sink;
+        this.sampleEvery = sampleEvery;
+    }
+
+    public static HotPathLog getLogger(Class<?> type) {
+        return new HotPathLog(LoggerFactory.getLogger(type), ASYNC ? AsyncLogSink.shared() : null, SAMPLE_EVERY);
+    }
+
+    /**
+     * @param sink the sink to publish to, or null to write through SLF4J
+     */
+    public static HotPathLog create(Logger logger, AsyncLogSink sink, int sampleEvery) {
+        return new HotPathLog(logger, sink, Math.max(1, sampleEvery));
+    }
+
+    public boolean isInfoEnabled() {
+        return logger.isInfoEnabled() && sampled();
+    }
+
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled() && sampled();
+    }
+
+    private boolean sampled() {
+        return sampleEvery == 1 || ThreadLocalRandom.current().nextInt(sampleEvery) == 0;
+    }
+
+    public void info(String format) {
+        if (isInfoEnabled()) {
+            write("INFO", format, null, null);
+        }
+    }
+
+    public void info(String format, Object arg) {
+        if (isInfoEnabled()) {
+            write("INFO", format, arg, null);
+        }
+    }
+
+    public void info(String format, Object arg1, Object arg2) {
+        if (isInfoEnabled()) {
+            write("INFO", format, arg1, arg2);
+        }
+    }
+
+    public void debug(String format, Object arg) {
+        if (isDebugEnabled()) {
+            write("DEBUG", format, arg, null);
+        }
+    }
+
+    public void debug(String format, Object arg1, Object arg2) {
+        if (isDebugEnabled()) {
+            write("DEBUG", format, arg1, arg2);
+        }
+    }
+
+    private void write(String level, String format, Object arg1, Object arg2) {
+        if (sink != null) {
+            sink.publish(level, name, format, arg1, arg2);
+        } else if ("DEBUG".equals(level)) {
+            logger.debug(format, arg1, arg2);
+        } else {
+            logger.info(format, arg1, arg2);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package Util;
+
+import java.util.List;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import Model.Account;
+import Model.Message;
+
+/**
+ * The application's single Jackson ObjectMapper, plus readers and writers for
+ * the model types resolved once at class load.
+ *
+ * Creating an ObjectMapper throws away Jackson's serializer and deserializer
+ * caches, and looking up a type on every call repeats the introspection. The
+ * readers and writers below are immutable and thread-safe, so handlers should
+ * use them instead of building their own mapper per request.
+ */
+public final class JsonUtil {
+
+    public static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static final ObjectReader ACCOUNT_READER = MAPPER.readerFor(Account.class);
+    public static final ObjectWriter ACCOUNT_WRITER = MAPPER.writerFor(Account.class);
+
+    public static final ObjectReader MESSAGE_READER = MAPPER.readerFor(Message.class);
+    public static final ObjectWriter MESSAGE_WRITER = MAPPER.writerFor(Message.class);
+    public static final ObjectReader MESSAGE_LIST_READER = MAPPER.readerFor(new TypeReference<List<Message>>() {
+    });
+    public static final ObjectWriter MESSAGE_LIST_WRITER = MAPPER.writerFor(new TypeReference<List<Message>>() {
+    });
+
+    private JsonUtil() {
+    }
+}
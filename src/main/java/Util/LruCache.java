@@ -0,0 +1,236 @@
+package Util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * A small thread-safe LRU cache bounded three ways: by entry count, by an
+ * estimated memory budget in bytes, and by a time-to-live per entry. When
+ * either size bound is exceeded the least recently used entries are evicted;
+ * expired entries are dropped when they are next looked up.
+ *
+ * Values are stored as given, so callers caching mutable objects should store
+ * and hand out copies.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class LruCache<K, V> {
+
+    /**
+     * Estimates how many bytes of heap an entry keeps alive.
+     */
+    @FunctionalInterface
+    public interface Weigher<K, V> {
+        long weigh(K key, V value);
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long weight;
+        final long expiresAt;
+
+        Entry(V value, long weight, long expiresAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final String name;
+    private final int maxEntries;
+    private final long maxWeight;
+    private final long ttlNanos;
+    private final Weigher<K, V> weigher;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long weight;
+    /**
+     * Bumped on every write so that a load which raced with a write does not
+     * put a stale value back into the cache.
+     */
+    private long writeGeneration;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    public LruCache(String name, int maxEntries, long maxWeightBytes, long ttlMillis, Weigher<K, V> weigher) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeightBytes;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.weigher = weigher;
+    }
+
+    /**
+     * @return the cached value, or null if it is absent or has expired
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt > 0) {
+            removeEntry(key);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Returns the cached value, or calls the loader on a miss and caches a
+     * non-null result. The loader runs without holding the cache lock, so a slow
+     * database call does not block other keys.
+     *
+     * @return the cached or loaded value, or null if the loader found nothing
+     */
+    public V getOrLoad(K key, Function<K, V> loader) {
+        long generation;
+        synchronized (this) {
+            V cached = get(key);
+            if (cached != null) {
+                return cached;
+            }
+            generation = writeGeneration;
+        }
+        V loaded = loader.apply(key);
+        if (loaded != null) {
+            putIfUnwritten(key, loaded, generation);
+        }
+        return loaded;
+    }
+
+    /**
+     * @return the cache's write generation, to read before loading values
+     *         that are then cached with {@link #putIfUnwritten}
+     */
+    public synchronized long getWriteGeneration() {
+        return writeGeneration;
+    }
+
+    /**
+     * Caches a value the caller loaded itself, unless anything was written to
+     * the cache since it read {@code generation}, in which case the value may
+     * predate that write and is dropped.
+     *
+     * @return whether the value was cached
+     */
+    public synchronized boolean putIfUnwritten(K key, V value, long generation) {
+        if (generation != writeGeneration) {
+            return false;
+        }
+        store(key, value);
+        return true;
+    }
+
+    /**
+     * Caches a value written by the caller, replacing any previous entry.
+     */
+    public synchronized void put(K key, V value) {
+        writeGeneration++;
+        store(key, value);
+    }
+
+    public synchronized void invalidate(K key) {
+        writeGeneration++;
+        removeEntry(key);
+    }
+
+    public synchronized void invalidateAll() {
+        writeGeneration++;
+        entries.clear();
+        weight = 0;
+    }
+
+    private void store(K key, V value) {
+        long entryWeight = weigher.weigh(key, value);
+        removeEntry(key);
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        entries.put(key, new Entry<>(value, entryWeight, System.nanoTime() + ttlNanos));
+        weight += entryWeight;
+        Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || weight > maxWeight) && eldest.hasNext()) {
+            weight -= eldest.next().getValue().weight;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private void removeEntry(K key) {
+        Entry<V> removed = entries.remove(key);
+        if (removed != null) {
+            weight -= removed.weight;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the estimated bytes held by the cached entries
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return entries dropped to stay within the entry or memory bound
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return entries dropped because their time-to-live had passed
+     */
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    /**
+     * @return the fraction of lookups served from the cache, or 0 before the first lookup
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LruCache{" +
+                "name='" + name + '\'' +
+                ", size=" + entries.size() +
+                ", weight=" + weight +
+                ", hitRatio=" + getHitRatio() +
+                ", evictions=" + evictions +
+                ", expirations=" + expirations +
+                '}';
+    }
+}
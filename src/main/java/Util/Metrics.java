@@ -0,0 +1,158 @@
+package Util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process-wide registry of timers, counters and gauges, rendered in the
+ * Prometheus text exposition format by {@link #scrape()}.
+ *
+ * Metrics are looked up once, when the code that records them is set up, and
+ * the returned {@link LatencyHistogram} or {@link LongAdder} is kept in a
+ * field; the registry is not consulted again on the hot path. Registering the
+ * same name and labels twice returns the existing timer or counter, while a
+ * gauge or counter function is replaced so that it reads from the most
+ * recently registered source.
+ */
+public final class Metrics {
+
+    private enum Type {
+        SUMMARY("summary"), COUNTER("counter"), GAUGE("gauge");
+
+        final String text;
+
+        Type(String text) {
+            this.text = text;
+        }
+    }
+
+    private static class Family {
+        final String help;
+        final Type type;
+        final Map<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String help, Type type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+    private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+    private static final Map<String, Family> FAMILIES = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * @param labels Prometheus label pairs without braces, e.g.
+     *               {@code method="GET",route="/messages"}, or "" for none
+     */
+    public static LatencyHistogram timer(String name, String help, String labels) {
+        return (LatencyHistogram) family(name, help, Type.SUMMARY).series
+                .computeIfAbsent(labels, l -> new LatencyHistogram());
+    }
+
+    public static LongAdder counter(String name, String help, String labels) {
+        return (LongAdder) family(name, help, Type.COUNTER).series
+                .computeIfAbsent(labels, l -> new LongAdder());
+    }
+
+    public static void gauge(String name, String help, String labels, DoubleSupplier value) {
+        family(name, help, Type.GAUGE).series.put(labels, value);
+    }
+
+    /**
+     * A counter kept by someone else, such as a pool or cache, and read at
+     * scrape time. It is replaced like a gauge, but typed as a counter, so the
+     * value must only ever grow while the source lives.
+     */
+    public static void counterFunction(String name, String help, String labels, DoubleSupplier value) {
+        family(name, help, Type.COUNTER).series.put(labels, value);
+    }
+
+    /**
+     * Times one data access method, as dao_query_duration_seconds labelled
+     * with the DAO class and method name. The method passes the timer to
+     * {@link ConnectionSource#getConnection(LatencyHistogram)}, which records
+     * how long the connection was waited for and held.
+     */
+    public static LatencyHistogram daoTimer(String dao, String method) {
+        return timer("dao_query_duration_seconds", "Time spent in DAO methods, including connection checkout.",
+                labels("dao", dao, "method", method));
+    }
+
+    /**
+     * Builds a label string from alternating names and values.
+     */
+    public static String labels(String... namesAndValues) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (labels.length() > 0) {
+                labels.append(',');
+            }
+            labels.append(namesAndValues[i]).append("=\"")
+                    .append(namesAndValues[i + 1].replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append('"');
+        }
+        return labels.toString();
+    }
+
+    private static Family family(String name, String help, Type type) {
+        Family family = FAMILIES.computeIfAbsent(name, n -> new Family(help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type.text);
+        }
+        return family;
+    }
+
+    /**
+     * @return every registered metric in the Prometheus text format, sorted by
+     *         name and labels so consecutive scrapes are easy to compare
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : new TreeMap<>(FAMILIES).entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type.text).append('\n');
+            for (Map.Entry<String, Object> series : new TreeMap<>(family.series).entrySet()) {
+                String labels = series.getKey();
+                Object value = series.getValue();
+                if (value instanceof LatencyHistogram) {
+                    LatencyHistogram histogram = (LatencyHistogram) value;
+                    for (double quantile : QUANTILES) {
+                        String quantileLabel = "quantile=\"" + quantile + '"';
+                        sample(out, name, labels.isEmpty() ? quantileLabel : labels + ',' + quantileLabel,
+                                histogram.getValueAtPercentile(quantile * 100) / NANOS_PER_SECOND);
+                    }
+                    sample(out, name + "_sum", labels, histogram.getSumNanos() / NANOS_PER_SECOND);
+                    sample(out, name + "_count", labels, histogram.getCount());
+                } else if (value instanceof LongAdder) {
+                    sample(out, name, labels, ((LongAdder) value).sum());
+                } else {
+                    sample(out, name, labels, ((DoubleSupplier) value).getAsDouble());
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+}
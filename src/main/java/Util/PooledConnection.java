@@ -0,0 +1,173 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wraps one physical connection owned by a {@link ConnectionPool}. Borrowers
+ * only ever see the proxy returned by {@link #getProxy()}, whose close() hands
+ * the physical connection back to the pool. prepareStatement calls are served
+ * from the connection's {@link StatementCache} when one is configured.
+ */
+class PooledConnection implements InvocationHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PooledConnection.class);
+
+    private final ConnectionPool pool;
+    private final Connection physical;
+    private final StatementCache statementCache;
+
+    private volatile Connection proxy;
+    private volatile long borrowedAt;
+    private volatile long lastReturnedAt;
+    private volatile Throwable borrowTrace;
+    private volatile boolean leakReported;
+    private volatile LatencyHistogram timer;
+    private volatile long timerStart;
+
+    PooledConnection(ConnectionPool pool, Connection physical, StatementCache statementCache) {
+        this.pool = pool;
+        this.physical = physical;
+        this.statementCache = statementCache;
+    }
+
+    /**
+     * Prepares this connection for a new borrower. A fresh proxy is created per
+     * borrow so that a stale reference kept by a previous borrower cannot touch
+     * the connection after closing it. A timer, when given, records the time
+     * from {@code timerStart} until the borrower closes the connection.
+     */
+    void markBorrowed(boolean captureTrace, LatencyHistogram timer, long timerStart) {
+        this.timer = timer;
+        this.timerStart = timerStart;
+        borrowedAt = System.currentTimeMillis();
+        borrowTrace = captureTrace ? new Throwable("Connection borrowed by " + Thread.currentThread().getName()) : null;
+        leakReported = false;
+        proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, this);
+    }
+
+    Connection getProxy() {
+        return proxy;
+    }
+
+    /**
+     * Rolls back any open transaction and restores auto-commit so the next
+     * borrower sees a clean connection.
+     *
+     * @return false if the connection is no longer usable and should be discarded
+     */
+    boolean resetForReuse() {
+        proxy = null;
+        lastReturnedAt = System.currentTimeMillis();
+        if (statementCache != null) {
+            statementCache.releaseAll();
+        }
+        try {
+            if (physical.isClosed()) {
+                return false;
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            return true;
+        } catch (SQLException e) {
+            LOGGER.warn("Discarding connection that failed to reset: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    boolean isPhysicallyOpen() {
+        try {
+            return !physical.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    void closePhysical() {
+        try {
+            physical.close();
+        } catch (SQLException e) {
+            LOGGER.warn("Error while closing pooled connection: {}", e.getMessage());
+        }
+    }
+
+    long getBorrowedAt() {
+        return borrowedAt;
+    }
+
+    long getLastReturnedAt() {
+        return lastReturnedAt;
+    }
+
+    Throwable getBorrowTrace() {
+        return borrowTrace;
+    }
+
+    /**
+     * @return true the first time it is called for the current borrow, so each
+     *         leak is only reported once
+     */
+    boolean markLeakReported() {
+        if (leakReported) {
+            return false;
+        }
+        leakReported = true;
+        return true;
+    }
+
+    @Override
+    public Object invoke(Object calledOn, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        boolean released = calledOn != proxy;
+        switch (name) {
+            case "close":
+                if (!released) {
+                    LatencyHistogram borrowTimer = timer;
+                    long start = timerStart;
+                    timer = null;
+                    pool.release(this);
+                    if (borrowTimer != null) {
+                        borrowTimer.recordSince(start);
+                    }
+                }
+                return null;
+            case "isClosed":
+                return released || physical.isClosed();
+            case "equals":
+                return calledOn == args[0];
+            case "hashCode":
+                return System.identityHashCode(calledOn);
+            case "toString":
+                return "PooledConnection[" + physical + "]";
+            default:
+                break;
+        }
+        if (released) {
+            throw new SQLException("Connection has already been returned to the pool");
+        }
+        if (statementCache != null && "prepareStatement".equals(name)) {
+            if (args.length == 1) {
+                return statementCache.prepare((String) args[0], Statement.NO_GENERATED_KEYS);
+            }
+            if (args.length == 2 && args[1] instanceof Integer) {
+                return statementCache.prepare((String) args[0], (Integer) args[1]);
+            }
+        }
+        try {
+            return method.invoke(physical, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.h2.tools.RunScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the scripts in src/main/resources/migrations on top of the base
+ * schema in SocialMedia.sql, which is left untouched. Each applied script is
+ * recorded in the schema_migrations table of the database, so a database is
+ * only migrated by the scripts it has not seen yet. Scripts should still be
+ * idempotent (create ... if not exists): rebuilding the test database drops
+ * the base tables but not every table a migration creates, and forgets which
+ * scripts were applied.
+ */
+public class SchemaMigrations {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SchemaMigrations.class);
+
+    /**
+     * Migrations in the order they are applied. Append new scripts to the end.
+     */
+    private static final String[] MIGRATIONS = {
+            "migrations/V1__message_timeline_index.sql",
+            "migrations/V2__import_checkpoint.sql",
+    };
+
+    /**
+     * The message table of a shard database other than the main one, see
+     * {@link ConnectionUtil#getShardPool(int)}.
+     */
+    private static final String MESSAGE_SHARD_SCHEMA = "MessageShard.sql";
+
+    /**
+     * Creates the message table of a shard database if it does not exist yet,
+     * then runs every migration it has not seen against it. A newly created
+     * table gets every migration again.
+     */
+    public static void createMessageShard(Connection conn) throws SQLException {
+        if (!hasTable(conn, "MESSAGE")) {
+            forgetApplied(conn);
+        }
+        runScript(conn, MESSAGE_SHARD_SCHEMA);
+        migrate(conn);
+    }
+
+    /**
+     * Runs the migrations not yet recorded as applied against the given
+     * connection, recording each one once it has run.
+     *
+     * @throws SQLException if a migration fails, for example because the base
+     *                      tables have not been created yet
+     */
+    public static void migrate(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("create table if not exists schema_migrations ("
+                    + "script varchar(255) primary key, applied_at timestamp not null)");
+        }
+        Set<String> applied = new HashSet<>();
+        try (Statement statement = conn.createStatement();
+                ResultSet rs = statement.executeQuery("select script from schema_migrations")) {
+            while (rs.next()) {
+                applied.add(rs.getString(1));
+            }
+        }
+        for (String migration : MIGRATIONS) {
+            if (applied.contains(migration)) {
+                continue;
+            }
+            runScript(conn, migration);
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "insert into schema_migrations (script, applied_at) values (?, current_timestamp)")) {
+                ps.setString(1, migration);
+                ps.executeUpdate();
+            }
+            LOGGER.info("Applied migration {}", migration);
+        }
+    }
+
+    /**
+     * Forgets which migrations were applied, for when the tables they changed
+     * have been dropped and created again.
+     */
+    public static void forgetApplied(Connection conn) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("drop table if exists schema_migrations");
+        }
+    }
+
+    /**
+     * @return whether the database has the base tables of SocialMedia.sql,
+     *         which a fresh database only gets from
+     *         {@link ConnectionUtil#resetTestDatabase()}
+     */
+    public static boolean hasBaseSchema(Connection conn) throws SQLException {
+        return hasTable(conn, "ACCOUNT") && hasTable(conn, "MESSAGE");
+    }
+
+    private static boolean hasTable(Connection conn, String table) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getTables(null, null, table, new String[] { "TABLE" })) {
+            return rs.next();
+        }
+    }
+
+    private static void runScript(Connection conn, String script) throws SQLException {
+        InputStream in = SchemaMigrations.class.getClassLoader().getResourceAsStream(script);
+        if (in == null) {
+            throw new SQLException("Missing migration script: " + script);
+        }
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            RunScript.execute(conn, reader);
+        } catch (IOException e) {
+            throw new SQLException("Could not read migration script: " + script, e);
+        }
+    }
+}
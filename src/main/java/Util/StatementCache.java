@@ -0,0 +1,222 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of prepared statements for a single pooled connection, keyed by SQL
+ * text and whether generated keys were requested. A statement handed out from
+ * the cache is a proxy whose close() clears its parameters and makes it
+ * available again instead of closing it, so DAO code keeps its usual
+ * try-with-resources blocks.
+ *
+ * Settings a borrower changes, such as the fetch size or query timeout, are
+ * put back when the statement is made available again, so they never carry
+ * over to the next borrower. A statement that threw an SQLException, or whose
+ * settings cannot be put back, is closed and dropped from the cache instead.
+ *
+ * A pooled connection is only ever used by one borrower at a time, so the cache
+ * itself needs no locking. Hit and miss counters are shared with the pool.
+ */
+class StatementCache {
+
+    private final Connection physical;
+    private final int maxSize;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    StatementCache(Connection physical, int maxSize, AtomicLong hits, AtomicLong misses) {
+        this.physical = physical;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns a cached statement for the given SQL, preparing and caching a new
+     * one on a miss. If the cached statement is still open in an enclosing block,
+     * an uncached statement is returned instead.
+     */
+    PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : sql;
+        CachedStatement cached = statements.get(key);
+        if (cached != null) {
+            if (cached.inUse) {
+                return physical.prepareStatement(sql, autoGeneratedKeys);
+            }
+            hits.incrementAndGet();
+            cached.inUse = true;
+            return cached.proxy;
+        }
+        misses.incrementAndGet();
+        cached = new CachedStatement(key, physical.prepareStatement(sql, autoGeneratedKeys));
+        cached.inUse = true;
+        statements.put(key, cached);
+        evictIfNeeded();
+        return cached.proxy;
+    }
+
+    /**
+     * Makes every statement available again, for when the connection goes back
+     * to the pool with statements its borrower never closed.
+     */
+    void releaseAll() {
+        Iterator<CachedStatement> it = statements.values().iterator();
+        while (it.hasNext()) {
+            CachedStatement cached = it.next();
+            if (cached.inUse && !cached.release()) {
+                it.remove();
+            }
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, CachedStatement>> it = statements.entrySet().iterator();
+        while (statements.size() > maxSize && it.hasNext()) {
+            CachedStatement eldest = it.next().getValue();
+            if (eldest.inUse) {
+                continue;
+            }
+            it.remove();
+            eldest.evicted = true;
+            eldest.closeQuietly();
+        }
+    }
+
+    /**
+     * Statement settings that a borrower may change, by setter, with the getter
+     * that reads the value to put back. They are put back in this order, row
+     * limits first, since H2 refuses a fetch size above the maximum rows.
+     */
+    private static final Map<String, String> RESETTABLE_SETTINGS = new LinkedHashMap<>();
+    static {
+        RESETTABLE_SETTINGS.put("setMaxRows", "getMaxRows");
+        RESETTABLE_SETTINGS.put("setLargeMaxRows", "getLargeMaxRows");
+        RESETTABLE_SETTINGS.put("setFetchSize", "getFetchSize");
+        RESETTABLE_SETTINGS.put("setFetchDirection", "getFetchDirection");
+        RESETTABLE_SETTINGS.put("setMaxFieldSize", "getMaxFieldSize");
+        RESETTABLE_SETTINGS.put("setQueryTimeout", "getQueryTimeout");
+        RESETTABLE_SETTINGS.put("setPoolable", "isPoolable");
+    }
+    /**
+     * Statement settings that cannot be read back, so a statement that had them
+     * changed is not reused.
+     */
+    private static final Set<String> UNRESETTABLE_SETTINGS = Set.of("setEscapeProcessing", "setCursorName",
+            "closeOnCompletion");
+
+    private class CachedStatement implements InvocationHandler {
+        private final String key;
+        private final PreparedStatement statement;
+        private final PreparedStatement proxy;
+        /**
+         * Original values of the settings changed by the current borrower, by
+         * setter.
+         */
+        private final Map<String, Object> changedSettings = new HashMap<>();
+        private boolean inUse;
+        private boolean evicted;
+        private boolean reusable = true;
+
+        CachedStatement(String key, PreparedStatement statement) {
+            this.key = key;
+            this.statement = statement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, this);
+        }
+
+        void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+                // the connection is being discarded or the statement is already gone
+            }
+        }
+
+        /**
+         * Clears what the borrower left behind so the statement can be handed
+         * out again, or closes it when that is not possible.
+         *
+         * @return whether the statement can stay in the cache
+         */
+        boolean release() {
+            inUse = false;
+            if (reusable && !evicted) {
+                try {
+                    statement.clearParameters();
+                    statement.clearBatch();
+                    if (!changedSettings.isEmpty()) {
+                        for (String setter : RESETTABLE_SETTINGS.keySet()) {
+                            if (changedSettings.containsKey(setter)) {
+                                restore(setter, changedSettings.get(setter));
+                            }
+                        }
+                        changedSettings.clear();
+                    }
+                    return true;
+                } catch (SQLException | ReflectiveOperationException e) {
+                    reusable = false;
+                }
+            }
+            closeQuietly();
+            return false;
+        }
+
+        private void restore(String setter, Object value) throws ReflectiveOperationException {
+            Class<?> type = value instanceof Boolean ? boolean.class : value instanceof Long ? long.class : int.class;
+            PreparedStatement.class.getMethod(setter, type).invoke(statement, value);
+        }
+
+        @Override
+        public Object invoke(Object calledOn, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (inUse && !release()) {
+                        statements.remove(key, this);
+                    }
+                    return null;
+                case "isClosed":
+                    return !inUse || statement.isClosed();
+                case "equals":
+                    return calledOn == args[0];
+                case "hashCode":
+                    return System.identityHashCode(calledOn);
+                default:
+                    break;
+            }
+            if (!inUse) {
+                throw new SQLException("Statement has already been closed");
+            }
+            String getter = RESETTABLE_SETTINGS.get(name);
+            if (getter != null && !changedSettings.containsKey(name)) {
+                changedSettings.put(name, PreparedStatement.class.getMethod(getter).invoke(statement));
+            } else if (UNRESETTABLE_SETTINGS.contains(name)) {
+                reusable = false;
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException) {
+                    // the statement may be left in a state the next borrower should not inherit
+                    reusable = false;
+                }
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package Util;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import Model.Account;
+import Model.Message;
+
+/**
+ * The Jackson formats request and response bodies can be exchanged in. JSON is
+ * the default; CBOR and Smile encode the same fields in binary, which is
+ * smaller and cheaper to parse for service-to-service callers that ask for it
+ * with Content-Type and Accept.
+ *
+ * As in {@link JsonUtil}, each format keeps one mapper and resolves the model
+ * readers once, and response writers once per type.
+ */
+public enum WireFormat {
+    JSON("application/json", JsonUtil.MAPPER),
+    CBOR("application/cbor", new ObjectMapper(new CBORFactory())),
+    SMILE("application/x-jackson-smile", new ObjectMapper(new SmileFactory()));
+
+    private final String mediaType;
+    private final ObjectMapper mapper;
+    private final ObjectReader accountReader;
+    private final ObjectReader messageReader;
+    private final ObjectReader messageListReader;
+    private final ObjectWriter messageWriter;
+    private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    WireFormat(String mediaType, ObjectMapper mapper) {
+        this.mediaType = mediaType;
+        this.mapper = mapper;
+        this.accountReader = mapper.readerFor(Account.class);
+        this.messageReader = mapper.readerFor(Message.class);
+        this.messageListReader = mapper.readerFor(new TypeReference<List<Message>>() {
+        });
+        this.messageWriter = mapper.writerFor(Message.class);
+    }
+
+    /**
+     * @return the format named by a Content-Type header, JSON when it is
+     *         missing or not one of the binary formats
+     */
+    public static WireFormat forContentType(String contentType) {
+        if (contentType != null) {
+            String type = stripParameters(contentType);
+            for (WireFormat format : values()) {
+                if (format.mediaType.equals(type)) {
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+
+    /**
+     * @return the first format listed in an Accept header, JSON when the
+     *         header is missing or lists none of them before a wildcard
+     */
+    public static WireFormat forAccept(String accept) {
+        if (accept != null) {
+            for (String range : accept.split(",")) {
+                String type = stripParameters(range);
+                if (type.equals("*/*") || type.equals("application/*")) {
+                    return JSON;
+                }
+                for (WireFormat format : values()) {
+                    if (format.mediaType.equals(type)) {
+                        return format;
+                    }
+                }
+            }
+        }
+        return JSON;
+    }
+
+    private static String stripParameters(String mediaRange) {
+        int parameters = mediaRange.indexOf(';');
+        return (parameters < 0 ? mediaRange : mediaRange.substring(0, parameters)).trim().toLowerCase(Locale.ROOT);
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    public ObjectReader getAccountReader() {
+        return accountReader;
+    }
+
+    public ObjectReader getMessageReader() {
+        return messageReader;
+    }
+
+    public ObjectReader getMessageListReader() {
+        return messageListReader;
+    }
+
+    public ObjectWriter getMessageWriter() {
+        return messageWriter;
+    }
+
+    /**
+     * @return a writer for values of the given runtime type, resolved on first use
+     */
+    public ObjectWriter writerFor(Class<?> type) {
+        return writers.computeIfAbsent(type, mapper::writerFor);
+    }
+}
@@ -0,0 +1,9 @@
+-- The message table of a shard database other than the main one. Accounts only
+-- live in the main database, so posted_by cannot reference them here; the
+-- service checks the account exists before a message is written.
+create table if not exists message (
+    message_id int primary key auto_increment,
+    posted_by int,
+    message_text varchar(255),
+    time_posted_epoch bigint
+);
@@ -0,0 +1,4 @@
+-- Account timelines read one account's messages newest first. This index lets
+-- H2 seek to the account and walk its messages already in timeline order, so
+-- a page costs LIMIT rows instead of a sort of the account's whole history.
+create index if not exists message_timeline_idx on message (posted_by, time_posted_epoch desc, message_id desc);
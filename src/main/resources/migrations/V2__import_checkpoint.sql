@@ -0,0 +1,9 @@
+-- Progress of each bulk import job (see BulkImporter). A job's row is updated
+-- in the same transaction as the rows it counts, so an interrupted import
+-- resumes exactly after the last committed record.
+create table if not exists import_checkpoint (
+    job varchar(255) primary key,
+    records_done bigint not null,
+    imported bigint not null,
+    rejected bigint not null
+);
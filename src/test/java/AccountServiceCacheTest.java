@@ -0,0 +1,129 @@
+import java.util.Optional;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import DAO.AccountDao;
+import Model.Account;
+import Service.AccountService;
+import Service.PasswordHasher;
+
+public class AccountServiceCacheTest {
+    AccountDao accountDao;
+    AccountService accountService;
+
+    /**
+     * Before every test, create a service over a mock DAO that knows a single account.
+     */
+    @Before
+    public void setUp() {
+        accountDao = Mockito.mock(AccountDao.class);
+        Account testuser1 = new Account(1, "testuser1", "password");
+        Mockito.when(accountDao.findAccountByUsername("testuser1")).thenReturn(Optional.of(testuser1));
+        Mockito.when(accountDao.findAccountByUsername("newuser")).thenReturn(Optional.empty());
+        Mockito.when(accountDao.getById(1)).thenReturn(Optional.of(testuser1));
+        accountService = new AccountService(accountDao);
+    }
+
+    /**
+     * Repeated logins, and a lookup by id after a login, should be answered from the cache after the first query.
+     */
+    @Test
+    public void repeatedLoginQueriesOnce() {
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(accountService.validateLogin(new Account("testuser1", "password")).isPresent());
+        }
+        Assert.assertFalse(accountService.validateLogin(new Account("testuser1", "wrong")).isPresent());
+        Assert.assertTrue(accountService.getAccountById(1).isPresent());
+
+        Mockito.verify(accountDao, Mockito.times(1)).findAccountByUsername("testuser1");
+        Mockito.verify(accountDao, Mockito.never()).getById(1);
+    }
+
+    /**
+     * Registering a new username should check for it once, and the negative entry should not hide the new account.
+     */
+    @Test
+    public void registrationUsesOneLookupAndReplacesNegativeEntry() {
+        Mockito.when(accountDao.insert(Mockito.any(Account.class))).thenReturn(new Account(2, "newuser", "password"));
+
+        Assert.assertFalse(accountService.validateLogin(new Account("newuser", "password")).isPresent());
+        accountService.createAccount(new Account("newuser", "password"));
+        Assert.assertTrue(accountService.validateLogin(new Account("newuser", "password")).isPresent());
+
+        Mockito.verify(accountDao, Mockito.times(1)).findAccountByUsername("newuser");
+        Mockito.verify(accountDao, Mockito.never()).doesUsernameExist("newuser");
+    }
+
+    /**
+     * Updating an account should drop the cached copy so the next lookup sees the new password.
+     */
+    @Test
+    public void updateInvalidatesCachedAccount() {
+        accountService.getAccountById(1);
+        Mockito.when(accountDao.update(Mockito.any(Account.class))).thenReturn(true);
+        accountService.updateAccount(new Account(1, "testuser1", "newpassword"));
+        Mockito.when(accountDao.getById(1)).thenReturn(Optional.of(new Account(1, "testuser1", "newpassword")));
+
+        Assert.assertEquals("newpassword", accountService.getAccountById(1).get().getPassword());
+        Mockito.verify(accountDao, Mockito.times(2)).getById(1);
+    }
+
+    /**
+     * An account read before a concurrent update should not be cached over that update, by id or by username.
+     */
+    @Test
+    public void accountReadBeforeUpdateIsNotCached() {
+        Account stale = new Account(1, "testuser1", "password");
+        Mockito.when(accountDao.update(Mockito.any(Account.class))).thenReturn(true);
+        Mockito.when(accountDao.getById(1)).thenAnswer(invocation -> {
+            accountService.updateAccount(new Account(1, "testuser1", "newpassword"));
+            return Optional.of(stale);
+        });
+        Mockito.when(accountDao.findAccountByUsername("testuser1")).thenAnswer(invocation -> {
+            accountService.updateAccount(new Account(1, "testuser1", "newpassword"));
+            return Optional.of(stale);
+        });
+        accountService.getAccountById(1);
+        accountService.findAccountByUsername("testuser1");
+
+        Assert.assertNull(accountService.getAccountsByIdCache().get(1));
+        Assert.assertNull(accountService.getAccountsByUsernameCache().get("testuser1"));
+    }
+
+    /**
+     * A username found missing should be looked up again once accounts were added behind the service's back.
+     */
+    @Test
+    public void forgettingUnknownAccountsRevealsImportedAccount() {
+        Assert.assertFalse(accountService.findAccountByUsername("newuser").isPresent());
+        Assert.assertFalse(accountService.findAccountByUsername("newuser").isPresent());
+        Mockito.verify(accountDao, Mockito.times(1)).findAccountByUsername("newuser");
+
+        Mockito.when(accountDao.findAccountByUsername("newuser"))
+                .thenReturn(Optional.of(new Account(2, "newuser", "password")));
+        AccountService.forgetUnknownAccounts();
+        Assert.assertTrue(accountService.findAccountByUsername("newuser").isPresent());
+        Mockito.verify(accountDao, Mockito.times(2)).findAccountByUsername("newuser");
+    }
+
+    /**
+     * A login for an unknown username should still hash the password, against a dummy hash, so it takes as long as a
+     * wrong password for a known one.
+     */
+    @Test
+    public void unknownUsernameLoginStillHashes() {
+        PasswordHasher hasher = Mockito.spy(new PasswordHasher(1000, 1, 4, 10_000));
+        try {
+            accountService = new AccountService(accountDao, hasher);
+            Assert.assertFalse(accountService.validateLogin(new Account("newuser", "password")).isPresent());
+
+            Mockito.verify(hasher).verify("password", hasher.dummyHash());
+            Assert.assertTrue(hasher.dummyHash().startsWith("pbkdf2_sha256$1000$"));
+        } finally {
+            hasher.close();
+        }
+    }
+}
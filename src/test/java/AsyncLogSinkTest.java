@@ -0,0 +1,89 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import Util.AsyncLogSink;
+import Util.HotPathLog;
+
+public class AsyncLogSinkTest {
+
+    /**
+     * Counts how often it is turned into a string.
+     */
+    private static class CountingModel {
+        int toStringCalls;
+
+        @Override
+        public String toString() {
+            toStringCalls++;
+            return "model";
+        }
+    }
+
+    /**
+     * Events should be written in publish order, in the slf4j-simple layout, once the sink is closed.
+     */
+    @Test
+    public void writesEventsInOrder() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AsyncLogSink sink = new AsyncLogSink(16, new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        for (int i = 0; i < 100; i++) {
+            sink.publish("INFO", "Test", "event {} of {}", i, 100);
+        }
+        sink.close();
+
+        String[] lines = bytes.toString(StandardCharsets.UTF_8).split(System.lineSeparator());
+        Assert.assertEquals(100 - sink.getDroppedCount(), lines.length);
+        String thread = Thread.currentThread().getName();
+        Assert.assertEquals("[" + thread + "] INFO Test - event 0 of 100", lines[0]);
+        for (int i = 1; i < lines.length; i++) {
+            int previous = Integer.parseInt(lines[i - 1].replaceAll(".* event (\\d+) of.*", "$1"));
+            int current = Integer.parseInt(lines[i].replaceAll(".* event (\\d+) of.*", "$1"));
+            Assert.assertTrue(current > previous);
+        }
+    }
+
+    /**
+     * A statement below the configured level, or sampled out, should never format its argument.
+     */
+    @Test
+    public void disabledStatementsDoNotFormatArguments() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AsyncLogSink sink = new AsyncLogSink(1024, new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        HotPathLog log = HotPathLog.create(LoggerFactory.getLogger(AsyncLogSinkTest.class), sink, 1);
+        HotPathLog sampled = HotPathLog.create(LoggerFactory.getLogger(AsyncLogSinkTest.class), sink, 100);
+        CountingModel model = new CountingModel();
+
+        for (int i = 0; i < 1000; i++) {
+            log.debug("Debug {}", model);
+        }
+        Assert.assertEquals(0, model.toStringCalls);
+
+        for (int i = 0; i < 1000; i++) {
+            sampled.info("Sampled {}", model);
+        }
+        sink.close();
+        Assert.assertTrue(model.toStringCalls > 0);
+        Assert.assertTrue(model.toStringCalls < 100);
+    }
+
+    /**
+     * An argument changed after it was logged should still be written as it was when logged.
+     */
+    @Test
+    public void argumentsAreCapturedWhenPublished() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AsyncLogSink sink = new AsyncLogSink(16, new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        StringBuilder text = new StringBuilder("before");
+        sink.publish("INFO", "Test", "text {}", text, null);
+        text.setLength(0);
+        text.append("after");
+        sink.close();
+
+        Assert.assertTrue(bytes.toString(StandardCharsets.UTF_8).contains("text before"));
+    }
+}
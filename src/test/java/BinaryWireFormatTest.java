@@ -0,0 +1,90 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.WireFormat;
+import io.javalin.Javalin;
+
+public class BinaryWireFormatTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * A message posted as CBOR with Accept: application/cbor is created and returned as CBOR.
+     */
+    @Test
+    public void createMessageInCbor() throws IOException, InterruptedException {
+        WireFormat cbor = WireFormat.CBOR;
+        byte[] body = cbor.getMessageWriter().writeValueAsBytes(new Message(1, "binary message", 1669947800));
+        HttpResponse<byte[]> response = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .header("Content-Type", "application/cbor")
+                .header("Accept", "application/cbor")
+                .build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("application/cbor", response.headers().firstValue("Content-Type").get());
+        Message created = cbor.getMessageReader().readValue(response.body());
+        Assert.assertEquals(new Message(2, 1, "binary message", 1669947800), created);
+    }
+
+    /**
+     * GET /messages/1 and the streamed GET /messages answer in Smile when it is the preferred type, and in JSON
+     * when the client accepts anything.
+     */
+    @Test
+    public void readMessagesInSmile() throws IOException, InterruptedException {
+        WireFormat smile = WireFormat.SMILE;
+        HttpResponse<byte[]> single = get("/messages/1", "application/x-jackson-smile, application/json;q=0.5");
+        Assert.assertEquals("application/x-jackson-smile", single.headers().firstValue("Content-Type").get());
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792),
+                smile.getMessageReader().readValue(single.body()));
+
+        HttpResponse<byte[]> all = get("/messages", "application/x-jackson-smile");
+        List<Message> messages = smile.getMessageListReader().readValue(all.body());
+        Assert.assertEquals(1, messages.size());
+
+        HttpResponse<byte[]> json = get("/messages/1", "*/*, application/cbor");
+        Assert.assertTrue(json.headers().firstValue("Content-Type").get().startsWith("application/json"));
+        Assert.assertNotEquals(single.headers().firstValue("ETag").get(), json.headers().firstValue("ETag").get());
+    }
+
+    private HttpResponse<byte[]> get(String path, String accept) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .header("Accept", accept)
+                .build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
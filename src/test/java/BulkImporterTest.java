@@ -0,0 +1,241 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import DAO.AccountDao;
+import DAO.MessageDao;
+import Model.Account;
+import Model.Message;
+import Service.BulkImporter;
+import Service.PasswordHasher;
+import Service.ServiceException;
+import Util.BulkFormat;
+import Util.ConnectionUtil;
+
+public class BulkImporterTest {
+    PasswordHasher passwordHasher;
+    BulkImporter bulkImporter;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, which also forgets the checkpoints of earlier imports, and create an
+     * importer with a small commit interval and a fast password hasher.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        passwordHasher = new PasswordHasher(1000, 2, 16, 10_000);
+        bulkImporter = new BulkImporter(2, 3, 4, 60_000, passwordHasher);
+        objectMapper = new ObjectMapper();
+    }
+
+    @After
+    public void tearDown() {
+        bulkImporter.close();
+        passwordHasher.close();
+    }
+
+    /**
+     * CSV accounts are imported with hashed passwords and their own ids where given, while records breaking the
+     * account rules, duplicated usernames and malformed rows are reported as rejects.
+     */
+    @Test
+    public void importsCsvAccountsAndReportsRejects() throws IOException {
+        String csv = "username,password,account_id\r\n"
+                + "alice,secret1,\r\n"
+                + "testuser1,password,\r\n"
+                + "bob,abc,\r\n"
+                + "carol,secret3,50\r\n"
+                + "\r\n"
+                + "alice,secret4,\r\n"
+                + "dave,secret5,x\r\n"
+                + "\"eve, jr\",\"se\"\"cret\",\r\n";
+        StringWriter rejects = new StringWriter();
+        BulkImporter.Result result = bulkImporter.importAccounts("accounts", new StringReader(csv), BulkFormat.CSV,
+                rejects);
+        Assert.assertEquals(3, result.getImported());
+        Assert.assertEquals(4, result.getRejected());
+        Assert.assertEquals(0, result.getSkipped());
+
+        AccountDao accountDao = new AccountDao();
+        Account alice = accountDao.findAccountByUsername("alice").orElseThrow();
+        Assert.assertTrue(passwordHasher.verify("secret1", alice.getPassword()));
+        Assert.assertEquals(50, accountDao.findAccountByUsername("carol").orElseThrow().getAccount_id());
+        Assert.assertTrue(passwordHasher.verify("se\"cret",
+                accountDao.findAccountByUsername("eve, jr").orElseThrow().getPassword()));
+        Assert.assertEquals(51, alice.getAccount_id());
+        Assert.assertEquals(53, accountDao.insert(new Account("frank", "secret6")).getAccount_id());
+
+        String[] lines = rejects.toString().split("\n");
+        Assert.assertEquals(4, lines.length);
+        assertReject(lines[0], 2, "Account already exist", "testuser1,password,");
+        assertReject(lines[1], 3, null, "bob,abc,");
+        assertReject(lines[2], 5, "Account already exist", "alice,secret4,");
+        assertReject(lines[3], 6, null, "dave,secret5,x");
+        Assert.assertTrue(objectMapper.readTree(lines[3]).get("reason").asText().startsWith("Malformed record"));
+    }
+
+    /**
+     * Accounts with ids of their own and accounts without them can be mixed in every commit interval: the generated
+     * ids go above the given ones instead of running into them.
+     */
+    @Test
+    public void mixesExplicitAndGeneratedIdsAcrossIntervals() throws IOException {
+        String csv = "username,password,account_id\r\n"
+                + "u2,pass2,2\r\n"
+                + "g1,passg1,\r\n"
+                + "g2,passg2,\r\n"
+                + "u5,pass5,5\r\n"
+                + "g3,passg3,\r\n"
+                + "u8,pass8,8\r\n"
+                + "g4,passg4,\r\n"
+                + "u3,pass3,3\r\n";
+        StringWriter rejects = new StringWriter();
+        BulkImporter.Result result = bulkImporter.importAccounts("mixed", new StringReader(csv), BulkFormat.CSV,
+                rejects);
+        Assert.assertEquals(8, result.getImported());
+        Assert.assertEquals(0, result.getRejected());
+        Assert.assertEquals("", rejects.toString());
+
+        AccountDao accountDao = new AccountDao();
+        String[] usernames = { "u2", "g1", "g2", "u5", "g3", "u8", "g4", "u3" };
+        int[] ids = { 2, 6, 7, 5, 9, 8, 10, 3 };
+        for (int i = 0; i < usernames.length; i++) {
+            Assert.assertEquals(usernames[i], ids[i],
+                    accountDao.findAccountByUsername(usernames[i]).orElseThrow().getAccount_id());
+        }
+        Assert.assertEquals(11, accountDao.insert(new Account("frank", "secret6")).getAccount_id());
+    }
+
+    /**
+     * An import that fails part way commits whole intervals only, and running the job again carries on after the
+     * last committed interval without importing anything twice.
+     */
+    @Test
+    public void resumesAfterFailure() throws IOException {
+        Assume.assumeFalse("log".equals(System.getProperty("messages.storage")));
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 1; i <= 10; i++) {
+            int postedBy = i == 7 ? 99 : 1;
+            ndjson.append("{\"posted_by\":").append(postedBy).append(",\"message_text\":\"imported ").append(i)
+                    .append("\",\"time_posted_epoch\":").append(1669947800 + i).append("}\n");
+        }
+        String input = ndjson.toString();
+        int failAt = input.indexOf("imported 10");
+
+        StringWriter rejects = new StringWriter();
+        try {
+            bulkImporter.importMessages("messages", new FailingReader(input, failAt), BulkFormat.NDJSON, rejects);
+            Assert.fail("the import should fail with its input");
+        } catch (IOException expected) {
+        }
+        List<Message> messages = new MessageDao().getAll();
+        Assert.assertEquals(8, messages.size());
+        Assert.assertEquals(new Message(2, 1, "imported 1", 1669947801), messages.get(1));
+
+        BulkImporter.Result result = bulkImporter.importMessages("messages", new StringReader(input),
+                BulkFormat.NDJSON, rejects);
+        Assert.assertEquals(8, result.getSkipped());
+        Assert.assertEquals(2, result.getImported());
+        Assert.assertEquals(0, result.getRejected());
+        messages = new MessageDao().getAll();
+        Assert.assertEquals(10, messages.size());
+        Assert.assertEquals(new Message(10, 1, "imported 10", 1669947810), messages.get(9));
+        Optional<Message> missing = messages.stream().filter(m -> m.getMessage_text().equals("imported 7"))
+                .findAny();
+        Assert.assertFalse(missing.isPresent());
+
+        String[] lines = rejects.toString().split("\n");
+        Assert.assertEquals(1, lines.length);
+        assertReject(lines[0], 7, "Account must exist when posting a new message", input.split("\n")[6]);
+    }
+
+    /**
+     * Messages stored in a message log are read from the log, never from the message table, so importing them into
+     * the table is refused rather than reported as a success nobody can see.
+     */
+    @Test
+    public void refusesMessagesStoredInALog() throws IOException {
+        String storage = System.getProperty("messages.storage");
+        System.setProperty("messages.storage", "log");
+        try {
+            bulkImporter.importMessages("logged", new StringReader(
+                    "{\"posted_by\":1,\"message_text\":\"imported\",\"time_posted_epoch\":1669947801}\n"),
+                    BulkFormat.NDJSON, new StringWriter());
+            Assert.fail("the import should be refused");
+        } catch (ServiceException expected) {
+        } finally {
+            if (storage == null) {
+                System.clearProperty("messages.storage");
+            } else {
+                System.setProperty("messages.storage", storage);
+            }
+        }
+    }
+
+    /**
+     * Resetting the test database forgets the checkpoints of earlier imports, so a job name used again starts from
+     * its first record.
+     */
+    @Test
+    public void resetForgetsImportCheckpoints() throws IOException {
+        String csv = "username,password\r\nalice,secret1\r\n";
+        Assert.assertEquals(1, bulkImporter.importAccounts("again", new StringReader(csv), BulkFormat.CSV, null)
+                .getImported());
+        ConnectionUtil.resetTestDatabase();
+
+        BulkImporter.Result result = bulkImporter.importAccounts("again", new StringReader(csv), BulkFormat.CSV,
+                null);
+        Assert.assertEquals(0, result.getSkipped());
+        Assert.assertEquals(1, result.getImported());
+    }
+
+    private void assertReject(String line, long record, String reason, String input) throws IOException {
+        JsonNode reject = objectMapper.readTree(line);
+        Assert.assertEquals(record, reject.get("record").asLong());
+        if (reason != null) {
+            Assert.assertEquals(reason, reject.get("reason").asText());
+        }
+        Assert.assertEquals(input, reject.get("input").asText());
+    }
+
+    /**
+     * Reads the text up to a point, then fails as a broken input file would.
+     */
+    private static final class FailingReader extends Reader {
+        private final StringReader in;
+        private int remaining;
+
+        FailingReader(String text, int failAt) {
+            this.in = new StringReader(text);
+            this.remaining = failAt;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (remaining == 0) {
+                throw new IOException("input went away");
+            }
+            int read = in.read(buffer, offset, Math.min(length, remaining));
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+            in.close();
+        }
+    }
+}
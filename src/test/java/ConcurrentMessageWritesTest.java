@@ -0,0 +1,99 @@
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import DAO.MessageStore;
+import Model.Message;
+import Service.MessageService;
+
+public class ConcurrentMessageWritesTest {
+    MessageStore messageStore;
+    MessageService messageService;
+    AtomicReference<Message> stored;
+    CountDownLatch firstEditStarted;
+    CountDownLatch releaseFirstEdit;
+
+    /**
+     * Before every test, create a service over a mock store holding message 1 and message 65, which share a lock
+     * stripe. Writing the text "first edit" waits in the store until the test releases it, and does not change what
+     * the store holds, as if a later write had overtaken it.
+     */
+    @Before
+    public void setUp() {
+        messageStore = Mockito.mock(MessageStore.class);
+        stored = new AtomicReference<>(new Message(1, 1, "original text", 1669947792));
+        firstEditStarted = new CountDownLatch(1);
+        releaseFirstEdit = new CountDownLatch(1);
+        Mockito.when(messageStore.getById(1)).thenAnswer(invocation -> Optional.of(copy(stored.get())));
+        Mockito.when(messageStore.getById(65))
+                .thenReturn(Optional.of(new Message(65, 1, "other text", 1669947793)));
+        Mockito.when(messageStore.update(Mockito.any(Message.class))).thenAnswer(invocation -> {
+            Message message = invocation.getArgument(0);
+            if (message.getMessage_text().equals("first edit")) {
+                firstEditStarted.countDown();
+                Assert.assertTrue(releaseFirstEdit.await(10, TimeUnit.SECONDS));
+            } else if (message.getMessage_id() == 1) {
+                stored.set(copy(message));
+            }
+            return true;
+        });
+        messageService = new MessageService(messageStore);
+    }
+
+    @After
+    public void tearDown() {
+        releaseFirstEdit.countDown();
+        messageService.close();
+    }
+
+    /**
+     * A write waiting on the store does not hold up a write to another message behind the same lock.
+     */
+    @Test
+    public void storeWritesDoNotHoldTheMessageLock() throws Exception {
+        CompletableFuture<Message> first = CompletableFuture.supplyAsync(
+                () -> messageService.updateMessage(new Message(1, 1, "first edit", 0)));
+        Assert.assertTrue(firstEditStarted.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<Message> other = CompletableFuture.supplyAsync(
+                () -> messageService.updateMessage(new Message(65, 1, "edited other", 0)));
+        Assert.assertEquals("edited other", other.get(5, TimeUnit.SECONDS).getMessage_text());
+        Assert.assertFalse(first.isDone());
+
+        releaseFirstEdit.countDown();
+        first.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * When two edits of one message overlap, the last to finish serves the message as the store holds it, not its
+     * own edit, which the other overtook.
+     */
+    @Test
+    public void overlappingEditsServeTheStoredMessage() throws Exception {
+        CompletableFuture<Message> first = CompletableFuture.supplyAsync(
+                () -> messageService.updateMessage(new Message(1, 1, "first edit", 0)));
+        Assert.assertTrue(firstEditStarted.await(10, TimeUnit.SECONDS));
+        messageService.updateMessage(new Message(1, 1, "second edit", 0));
+
+        releaseFirstEdit.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals("second edit", messageService.getMessageById(1).get().getMessage_text());
+        List<Message> found = messageService.searchMessages("second", 10);
+        Assert.assertEquals(1, found.size());
+        Assert.assertTrue(messageService.searchMessages("first", 10).isEmpty());
+    }
+
+    private static Message copy(Message message) {
+        return new Message(message.getMessage_id(), message.getPosted_by(), message.getMessage_text(),
+                message.getTime_posted_epoch());
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import DAO.MessageDao;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ConditionalGetTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * GET /messages/1 carries a weak ETag, Cache-Control and a Vary naming the headers the body is negotiated by.
+     * Sending the ETag back in If-None-Match gets an empty 304, until the message is edited. The gzip body carries
+     * the same ETag as the plain one.
+     */
+    @Test
+    public void messageRevalidatesWithETag() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/messages/1", null);
+        Assert.assertEquals(200, first.statusCode());
+        String etag = first.headers().firstValue("ETag").get();
+        Assert.assertTrue(etag.startsWith("W/\""));
+        Assert.assertTrue(first.headers().firstValue("Cache-Control").isPresent());
+        Assert.assertEquals("Accept, Accept-Encoding", first.headers().firstValue("Vary").get());
+        HttpResponse<String> gzip = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .header("Accept-Encoding", "gzip")
+                .header("If-None-Match", etag)
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(304, gzip.statusCode());
+
+        HttpResponse<String> unchanged = get("/messages/1", etag);
+        Assert.assertEquals(304, unchanged.statusCode());
+        Assert.assertEquals("", unchanged.body());
+        Assert.assertEquals(etag, unchanged.headers().firstValue("ETag").get());
+        Assert.assertEquals(304, get("/messages/1", "\"other\", " + etag.substring(2)).statusCode());
+
+        webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated message\"}"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> changed = get("/messages/1", etag);
+        Assert.assertEquals(200, changed.statusCode());
+        Assert.assertNotEquals(etag, changed.headers().firstValue("ETag").get());
+    }
+
+    /**
+     * An account's messages revalidate with their ETag until the account posts a new message, and each page of the
+     * timeline has its own ETag.
+     */
+    @Test
+    public void timelineRevalidatesUntilAccountPosts() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/accounts/1/messages", null);
+        Assert.assertEquals(200, first.statusCode());
+        String etag = first.headers().firstValue("ETag").get();
+        Assert.assertEquals("private, no-cache", first.headers().firstValue("Cache-Control").get());
+        Assert.assertEquals(304, get("/accounts/1/messages", etag).statusCode());
+        Assert.assertEquals(200, get("/accounts/1/messages?limit=1", etag).statusCode());
+
+        HttpResponse<String> posted = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"posted_by\":1, \"message_text\": \"hello\", \"time_posted_epoch\": 1669947800}"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, posted.statusCode());
+
+        HttpResponse<String> changed = get("/accounts/1/messages", etag);
+        Assert.assertEquals(200, changed.statusCode());
+        Assert.assertTrue(changed.body().contains("hello"));
+        Assert.assertNotEquals(etag, changed.headers().firstValue("ETag").get());
+    }
+
+    /**
+     * A message written straight to the database, bypassing the service, should still change the timeline ETag.
+     */
+    @Test
+    public void timelineChangesWhenWrittenBehindTheService() throws IOException, InterruptedException {
+        Assume.assumeFalse("the message log does not see the message table",
+                "log".equals(System.getProperty("messages.storage")));
+        String etag = get("/accounts/1/messages", null).headers().firstValue("ETag").get();
+        Assert.assertEquals(304, get("/accounts/1/messages", etag).statusCode());
+
+        new MessageDao().insert(new Message(1, "imported", 1669947800L));
+
+        HttpResponse<String> changed = get("/accounts/1/messages", etag);
+        Assert.assertEquals(200, changed.statusCode());
+        Assert.assertNotEquals(etag, changed.headers().firstValue("ETag").get());
+    }
+
+    private HttpResponse<String> get(String path, String ifNoneMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
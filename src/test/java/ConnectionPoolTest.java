@@ -0,0 +1,154 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionPool;
+import Util.LatencyHistogram;
+
+public class ConnectionPoolTest {
+    ConnectionPool pool;
+
+    /**
+     * Before every test, create a small pool over a private in-memory database so the counters start from zero.
+     */
+    @Before
+    public void setUp() {
+        pool = new ConnectionPool("jdbc:h2:mem:pool_test;DB_CLOSE_DELAY=-1", "sa", "sa", 2, 200, 60_000, 0);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    /**
+     * Closing a borrowed connection should return it to the pool rather than opening a new physical connection
+     * on the next borrow.
+     */
+    @Test
+    public void closedConnectionIsReused() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            Assert.assertEquals(1, pool.getActiveCount());
+        }
+        Assert.assertEquals(0, pool.getActiveCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+
+        try (Connection conn = pool.getConnection()) {
+            Assert.assertEquals(0, pool.getIdleCount());
+        }
+        Assert.assertEquals(1, pool.getTotalCount());
+    }
+
+    /**
+     * Once maxSize connections are borrowed, the next borrower should time out instead of growing the pool.
+     */
+    @Test
+    public void exhaustedPoolTimesOut() throws SQLException {
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        try {
+            pool.getConnection();
+            Assert.fail("Expected the pool to time out");
+        } catch (SQLException e) {
+            Assert.assertEquals(1, pool.getAcquireTimeoutCount());
+        } finally {
+            first.close();
+            second.close();
+        }
+        Assert.assertEquals(2, pool.getTotalCount());
+    }
+
+    /**
+     * A connection that has been handed back must not be usable through the old reference.
+     */
+    @Test
+    public void returnedConnectionCannotBeUsed() throws SQLException {
+        Connection conn = pool.getConnection();
+        conn.close();
+        Assert.assertTrue(conn.isClosed());
+        try {
+            conn.prepareStatement("select 1");
+            Assert.fail("Expected a returned connection to reject statements");
+        } catch (SQLException expected) {
+        }
+    }
+
+    /**
+     * Preparing the same SQL twice on a pooled connection should reuse the statement prepared the first time.
+     */
+    @Test
+    public void repeatedStatementIsServedFromCache() throws SQLException {
+        for (int i = 0; i < 3; i++) {
+            try (Connection conn = pool.getConnection();
+                    PreparedStatement ps = conn.prepareStatement("select ?")) {
+                ps.setInt(1, i);
+                try (ResultSet rs = ps.executeQuery()) {
+                    Assert.assertTrue(rs.next());
+                    Assert.assertEquals(i, rs.getInt(1));
+                }
+            }
+        }
+        Assert.assertEquals(1, pool.getStatementCacheMisses());
+        Assert.assertEquals(2, pool.getStatementCacheHits());
+    }
+
+    /**
+     * A setting changed by one borrower of a cached statement should be put back before the next borrower gets it.
+     */
+    @Test
+    public void cachedStatementSettingsDoNotLeak() throws SQLException {
+        try (Connection conn = pool.getConnection();
+                PreparedStatement ps = conn.prepareStatement("select 1")) {
+            ps.setFetchSize(500);
+            ps.setMaxRows(1);
+        }
+        try (Connection conn = pool.getConnection();
+                PreparedStatement ps = conn.prepareStatement("select 1")) {
+            Assert.assertEquals(1, pool.getStatementCacheHits());
+            Assert.assertNotEquals(500, ps.getFetchSize());
+            Assert.assertEquals(0, ps.getMaxRows());
+        }
+    }
+
+    /**
+     * A cached statement that threw an SQLException should be dropped rather than handed to the next borrower.
+     */
+    @Test
+    public void failedStatementIsEvicted() throws SQLException {
+        for (int i = 0; i < 2; i++) {
+            try (Connection conn = pool.getConnection();
+                    PreparedStatement ps = conn.prepareStatement("select 1 / ?")) {
+                ps.setInt(1, 0);
+                ps.executeQuery();
+                Assert.fail("Expected division by zero");
+            } catch (SQLException expected) {
+            }
+        }
+        Assert.assertEquals(2, pool.getStatementCacheMisses());
+        Assert.assertEquals(0, pool.getStatementCacheHits());
+    }
+
+    /**
+     * A connection borrowed with a timer should record once, when it is returned, and not again on a second close.
+     */
+    @Test
+    public void timedConnectionRecordsOnClose() throws SQLException {
+        LatencyHistogram timer = new LatencyHistogram();
+        Connection conn = pool.getConnection(timer);
+        Assert.assertEquals(0, timer.getCount());
+        conn.close();
+        conn.close();
+        Assert.assertEquals(1, timer.getCount());
+
+        try (Connection untimed = pool.getConnection()) {
+            Assert.assertNotNull(untimed);
+        }
+        Assert.assertEquals(1, timer.getCount());
+    }
+}
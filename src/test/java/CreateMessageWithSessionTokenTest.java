@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class CreateMessageWithSessionTokenTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Logging in should set a session token cookie, and posting with that token as a Bearer header should create
+     * the message.
+     */
+    @Test
+    public void createMessageWithLoginToken() throws IOException, InterruptedException {
+        String token = login();
+        HttpResponse<String> response = postMessage(1, "Bearer " + token);
+
+        Assert.assertEquals(200, response.statusCode());
+        Message expectedResult = new Message(2, 1, "hello message", 1669947792);
+        Assert.assertEquals(expectedResult, objectMapper.readValue(response.body(), Message.class));
+    }
+
+    /**
+     * A token for one account should not allow posting as another account.
+     */
+    @Test
+    public void createMessageForAnotherAccountFails() throws IOException, InterruptedException {
+        String token = login();
+        HttpResponse<String> response = postMessage(2, "Bearer " + token);
+
+        Assert.assertEquals(400, response.statusCode());
+    }
+
+    /**
+     * A batch posted with a token should be refused as a whole, and create nothing, when any of its messages is
+     * posted by an existing account other than the token's.
+     */
+    @Test
+    public void createBatchForAnotherAccountFails() throws IOException, InterruptedException {
+        HttpRequest registerRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"testuser2\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> registered = webClient.send(registerRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, registered.statusCode());
+        int otherAccount = objectMapper.readTree(registered.body()).get("account_id").asInt();
+
+        String token = login();
+        HttpRequest batchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString("[" +
+                        "{\"posted_by\":1, \"message_text\": \"mine\", \"time_posted_epoch\": 1669947792}," +
+                        "{\"posted_by\":" + otherAccount + ", \"message_text\": \"not mine\", " +
+                        "\"time_posted_epoch\": 1669947792}]"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + token)
+                .build();
+        HttpResponse<String> response = webClient.send(batchRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(403, response.statusCode());
+
+        HttpRequest getAllRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .build();
+        HttpResponse<String> all = webClient.send(getAllRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(1, objectMapper.readTree(all.body()).size());
+    }
+
+    /**
+     * A token that does not carry a valid signature should be rejected.
+     */
+    @Test
+    public void createMessageWithForgedTokenFails() throws IOException, InterruptedException {
+        HttpResponse<String> response = postMessage(1, "Bearer local.1.9999999999.forged");
+
+        Assert.assertEquals(401, response.statusCode());
+    }
+
+    private String login() throws IOException, InterruptedException {
+        HttpRequest loginRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"testuser1\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(loginRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        String cookie = response.headers().firstValue("Set-Cookie").orElseThrow();
+        Assert.assertTrue(cookie.startsWith(SocialMediaController.SESSION_COOKIE + "="));
+        Assert.assertTrue(cookie.contains("HttpOnly"));
+        return cookie.substring(cookie.indexOf('=') + 1, cookie.indexOf(';'));
+    }
+
+    private HttpResponse<String> postMessage(int postedBy, String authorization)
+            throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":" + postedBy + ", " +
+                        "\"message_text\": \"hello message\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", authorization)
+                .build();
+        return webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+}
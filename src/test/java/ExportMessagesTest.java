@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageStore;
+import Model.Message;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ExportMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, add a second account with messages alongside the initial message,
+     * restart the Javalin app, and create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, SQLException {
+        ConnectionUtil.resetTestDatabase();
+        try (Connection conn = ConnectionUtil.getConnection();
+                PreparedStatement account = conn.prepareStatement(
+                        "insert into account (username, password) values ('testuser2', 'password')");
+                PreparedStatement message = conn.prepareStatement(
+                        "insert into message (posted_by, message_text, time_posted_epoch) values (?, ?, ?)")) {
+            account.executeUpdate();
+            for (int i = 2; i <= 400; i++) {
+                message.setInt(1, 1 + i % 2);
+                message.setString(2, i == 2 ? "says \"hi\", then\nleaves" : "exported message " + i);
+                message.setLong(3, 1669947800L + i);
+                message.addBatch();
+            }
+            message.executeBatch();
+        }
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * GET /export/messages writes every message as one JSON object per line, in message_id order.
+     */
+    @Test
+    public void exportsNdjson() throws IOException, InterruptedException {
+        HttpResponse<String> response = webClient.send(request("/export/messages").build(),
+                HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("application/x-ndjson", response.headers().firstValue("Content-Type").orElse(null));
+        String[] lines = response.body().split("\n", -1);
+        Assert.assertEquals(401, lines.length);
+        Assert.assertEquals("", lines[400]);
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792),
+                objectMapper.readValue(lines[0], Message.class));
+        Assert.assertEquals(new Message(2, 1, "says \"hi\", then\nleaves", 1669947802),
+                objectMapper.readValue(lines[1], Message.class));
+        Assert.assertEquals(new Message(400, 1, "exported message 400", 1669948200),
+                objectMapper.readValue(lines[399], Message.class));
+    }
+
+    /**
+     * ?format=csv with posted_by and a time range writes a header and the matching rows, quoting text that needs it,
+     * gzip compressed for a client that accepts gzip.
+     */
+    @Test
+    public void exportsFilteredCsvCompressed() throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = webClient.send(
+                request("/export/messages?format=csv&posted_by=1&from=1669947802&to=1669948000")
+                        .header("Accept-Encoding", "gzip").build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("text/csv; charset=utf-8", response.headers().firstValue("Content-Type").orElse(null));
+        Assert.assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+        String body;
+        try (InputStream in = new GZIPInputStream(response.body())) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        List<String> expected = new ArrayList<>();
+        expected.add("message_id,posted_by,message_text,time_posted_epoch");
+        expected.add("2,1,\"says \"\"hi\"\", then\nleaves\",1669947802");
+        for (int i = 4; i < 200; i += 2) {
+            expected.add(i + ",1,exported message " + i + "," + (1669947800L + i));
+        }
+        Assert.assertEquals(String.join("\r\n", expected) + "\r\n", body);
+    }
+
+    /**
+     * An unknown format, a malformed filter or a time range ending before it starts is rejected.
+     */
+    @Test
+    public void rejectsBadParameters() throws IOException, InterruptedException {
+        for (String query : new String[] { "format=xml", "posted_by=one", "from=20&to=10" }) {
+            HttpResponse<String> response = webClient.send(request("/export/messages?" + query).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(query, 400, response.statusCode());
+        }
+    }
+
+    /**
+     * Once every download slot is held by a download still being read, an export is turned away with 503 until one
+     * finishes.
+     */
+    @Test
+    public void turnsExportsAwayWhileDownloadsAreFull() throws Exception {
+        MessageStore store = Mockito.mock(MessageStore.class);
+        MessageService slowService = new MessageService(store);
+        CountDownLatch started = new CountDownLatch(Integer.getInteger("messages.maxDownloads", 4));
+        CountDownLatch finish = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            started.countDown();
+            finish.await();
+            return null;
+        }).when(store).streamAll(Mockito.any());
+        List<Thread> downloads = new ArrayList<>();
+        for (long i = started.getCount(); i > 0; i--) {
+            Thread download = new Thread(() -> slowService.streamAllMessages(message -> { }));
+            download.start();
+            downloads.add(download);
+        }
+        try {
+            started.await();
+            HttpResponse<String> response = webClient.send(request("/export/messages").build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(503, response.statusCode());
+            Assert.assertFalse(response.headers().firstValue("Content-Disposition").isPresent());
+        } finally {
+            finish.countDown();
+            for (Thread download : downloads) {
+                download.join();
+            }
+        }
+        HttpResponse<String> response = webClient.send(request("/export/messages").build(),
+                HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+    }
+
+    private static HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).GET();
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Model.Message;
+import Util.JsonUtil;
+
+public class JsonAllocationTest {
+    private static final int REQUESTS = 200;
+    private static final byte[] BODY = ("{\"posted_by\":1, \"message_text\": \"hello message\", "
+            + "\"time_posted_epoch\": 1669947792}").getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Parsing a request body with the shared, pre-resolved reader straight from the input stream should allocate
+     * far less per request than building a new ObjectMapper and parsing a String copy of the body, which is what
+     * the handlers used to do.
+     */
+    @Test
+    public void sharedReaderAllocatesLessPerRequest() throws IOException {
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+        Assume.assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        // warm up both paths so class loading is not counted
+        perRequestMapper();
+        sharedReader();
+
+        long start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < REQUESTS; i++) {
+            perRequestMapper();
+        }
+        long perRequestMapperBytes = (threads.getThreadAllocatedBytes(thread) - start) / REQUESTS;
+
+        start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < REQUESTS; i++) {
+            sharedReader();
+        }
+        long sharedReaderBytes = (threads.getThreadAllocatedBytes(thread) - start) / REQUESTS;
+
+        Assert.assertTrue("Bytes allocated per request: new ObjectMapper " + perRequestMapperBytes
+                + ", shared reader " + sharedReaderBytes, sharedReaderBytes * 5 < perRequestMapperBytes);
+    }
+
+    private static Message perRequestMapper() throws IOException {
+        String body = new String(BODY, StandardCharsets.UTF_8);
+        return new ObjectMapper().readValue(body, Message.class);
+    }
+
+    private static Message sharedReader() throws IOException {
+        return JsonUtil.MESSAGE_READER.readValue(new ByteArrayInputStream(BODY));
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            return (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,39 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+    /**
+     * Percentiles read back from a uniform spread of values should be within the histogram's 1.6% precision.
+     */
+    @Test
+    public void percentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10_000; micros++) {
+            histogram.record(micros * 1000);
+        }
+
+        Assert.assertEquals(10_000, histogram.getCount());
+        Assert.assertEquals(10_000_000, histogram.getMaxNanos());
+        Assert.assertEquals(5_000_000, histogram.getValueAtPercentile(50), 5_000_000 * 0.016);
+        Assert.assertEquals(9_900_000, histogram.getValueAtPercentile(99), 9_900_000 * 0.016);
+        Assert.assertEquals(9_990_000, histogram.getValueAtPercentile(99.9), 9_990_000 * 0.016);
+        Assert.assertEquals(10_000_000, histogram.getValueAtPercentile(100));
+    }
+
+    /**
+     * Small values are counted exactly, and an empty histogram reports zero.
+     */
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+        histogram.record(7);
+        histogram.record(42);
+        Assert.assertEquals(7, histogram.getValueAtPercentile(50));
+        Assert.assertEquals(42, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(49, histogram.getSumNanos());
+    }
+}
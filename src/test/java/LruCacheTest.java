@@ -0,0 +1,70 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.LruCache;
+
+public class LruCacheTest {
+
+    /**
+     * Entries past the memory budget should evict the least recently used entry, not the most recently read one.
+     */
+    @Test
+    public void evictsLeastRecentlyUsedOverBudget() {
+        LruCache<Integer, String> cache = new LruCache<>("test", 100, 30, 60_000, (k, v) -> 10);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.put(3, "three");
+        cache.get(1);
+        cache.put(4, "four");
+
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals(30, cache.getWeight());
+        Assert.assertNull(cache.get(2));
+        Assert.assertEquals("one", cache.get(1));
+        Assert.assertEquals(1, cache.getEvictions());
+    }
+
+    /**
+     * An entry should not be served once its time-to-live has passed.
+     */
+    @Test
+    public void expiresAfterTtl() throws InterruptedException {
+        LruCache<Integer, String> cache = new LruCache<>("test", 100, 1000, 20, (k, v) -> 1);
+        cache.put(1, "one");
+        Thread.sleep(50);
+        Assert.assertNull(cache.get(1));
+        Assert.assertEquals(1, cache.getExpirations());
+    }
+
+    /**
+     * getOrLoad should only call the loader on a miss, and should not cache a missing value.
+     */
+    @Test
+    public void readThroughCountsHitsAndMisses() {
+        LruCache<Integer, String> cache = new LruCache<>("test", 100, 1000, 60_000, (k, v) -> 1);
+        Assert.assertEquals("1", cache.getOrLoad(1, String::valueOf));
+        Assert.assertEquals("1", cache.getOrLoad(1, k -> "reloaded"));
+        Assert.assertNull(cache.getOrLoad(2, k -> null));
+        Assert.assertNull(cache.getOrLoad(2, k -> null));
+
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(3, cache.getMisses());
+        Assert.assertEquals(0.25, cache.getHitRatio(), 0.0001);
+    }
+
+    /**
+     * A value loaded before a write to the cache should not be cached over that write.
+     */
+    @Test
+    public void loadedValueIsDroppedAfterAWrite() {
+        LruCache<Integer, String> cache = new LruCache<>("test", 100, 1000, 60_000, (k, v) -> 1);
+        long generation = cache.getWriteGeneration();
+        cache.invalidate(1);
+        Assert.assertFalse(cache.putIfUnwritten(1, "stale", generation));
+        Assert.assertNull(cache.get(1));
+
+        generation = cache.getWriteGeneration();
+        Assert.assertTrue(cache.putIfUnwritten(1, "fresh", generation));
+        Assert.assertEquals("fresh", cache.get(1));
+    }
+}
@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import DAO.DaoException;
+import DAO.MappedMessageLog;
+import Model.Message;
+
+public class MappedMessageLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MappedMessageLog open() throws IOException {
+        return new MappedMessageLog(folder.getRoot().toPath(), 4, false, 0.5, 0);
+    }
+
+    /**
+     * Inserts, updates and deletes across several segments are all recovered after reopening, and message ids are
+     * not reused.
+     */
+    @Test
+    public void recoversIndexByScanningSegments() throws IOException {
+        try (MappedMessageLog log = open()) {
+            for (int i = 1; i <= 10; i++) {
+                log.insert(new Message(1 + i % 2, "message " + i, 1669947800L + i));
+            }
+            Assert.assertTrue(log.update(new Message(3, 2, "updated", 1669947803L)));
+            Assert.assertTrue(log.delete(new Message(10, 1, "message 10", 1669947810L)));
+            Assert.assertFalse(log.delete(new Message(10, 1, "message 10", 1669947810L)));
+            Assert.assertFalse(log.update(new Message(11, 1, "missing", 1669947811L)));
+            Assert.assertEquals(3, log.getSegmentCount());
+        }
+        try (MappedMessageLog log = open()) {
+            Assert.assertFalse(log.isNew());
+            Assert.assertEquals(9, log.getMessageCount());
+            Assert.assertEquals(new Message(3, 2, "updated", 1669947803L), log.getById(3).get());
+            Assert.assertFalse(log.getById(10).isPresent());
+            Assert.assertEquals(Arrays.asList(2, 4, 6, 8), ids(log.getMessagesByAccountId(1)));
+            Assert.assertEquals(Arrays.asList(7, 5), ids(log.getTimeline(2, 1669947808L, Integer.MAX_VALUE, 2)));
+            Assert.assertEquals(11, log.insert(new Message(1, "after reopen", 1669947900L)).getMessage_id());
+        }
+    }
+
+    /**
+     * A second log cannot be opened on a directory while the first is open, and a closed log refuses writes and
+     * lets the directory be opened again.
+     */
+    @Test
+    public void onlyOneLogOpensTheDirectory() throws IOException {
+        MappedMessageLog log = open();
+        log.insert(new Message(1, "first", 1669947801L));
+        try {
+            open();
+            Assert.fail("a second log opened the same directory");
+        } catch (DaoException expected) {
+            // the directory is locked by the first log
+        }
+        log.close();
+        try {
+            log.insert(new Message(1, "after close", 1669947802L));
+            Assert.fail("a closed log accepted a write");
+        } catch (DaoException expected) {
+            // closed
+        }
+        try (MappedMessageLog reopened = open()) {
+            Assert.assertEquals(2, reopened.insert(new Message(1, "second", 1669947803L)).getMessage_id());
+        }
+    }
+
+    /**
+     * A read-only log opens the directory while the writing log has it, sees what was written before, and refuses
+     * writes.
+     */
+    @Test
+    public void readOnlyLogReadsAlongsideTheWriter() throws IOException {
+        try (MappedMessageLog log = open()) {
+            for (int i = 1; i <= 6; i++) {
+                log.insert(new Message(1, "message " + i, 1669947800L + i));
+            }
+            try (MappedMessageLog reader = MappedMessageLog.openReadOnly(folder.getRoot().toPath())) {
+                Assert.assertEquals(log.getAll(), reader.getAll());
+                try {
+                    reader.insert(new Message(1, "through the reader", 1669947810L));
+                    Assert.fail("a read-only log accepted a write");
+                } catch (DaoException expected) {
+                    // read-only
+                }
+            }
+            Assert.assertEquals(7, log.insert(new Message(1, "after the reader", 1669947811L)).getMessage_id());
+        }
+        try (MappedMessageLog empty = MappedMessageLog.openReadOnly(folder.getRoot().toPath().resolve("missing"))) {
+            Assert.assertTrue(empty.isNew());
+            Assert.assertTrue(empty.getAll().isEmpty());
+        }
+    }
+
+    /**
+     * Compaction moves the live records out of the sealed segments and deletes them, without losing messages or
+     * letting deleted ones come back after a restart.
+     */
+    @Test
+    public void compactionDropsDeadRecords() throws IOException {
+        try (MappedMessageLog log = open()) {
+            for (int i = 1; i <= 8; i++) {
+                log.insert(new Message(1, "message " + i, 1669947800L + i));
+            }
+            for (int id = 1; id <= 6; id++) {
+                log.delete(new Message(id, 1, null, 0));
+            }
+            log.delete(new Message(8, 1, null, 0));
+            Assert.assertTrue(log.compact());
+            Assert.assertFalse(log.compact());
+            Assert.assertEquals(Arrays.asList(7), ids(log.getAll()));
+        }
+        try (MappedMessageLog log = open()) {
+            Assert.assertEquals(Arrays.asList(7), ids(log.getAll()));
+            Assert.assertEquals(9, log.insert(new Message(1, "after compaction", 1669947900L)).getMessage_id());
+            Assert.assertTrue(segmentFiles().size() < 4);
+        }
+    }
+
+    /**
+     * A record cut short by a crash fails its checksum and is ignored, and its slot is reused.
+     */
+    @Test
+    public void tornRecordIsIgnored() throws IOException {
+        try (MappedMessageLog log = open()) {
+            log.insert(new Message(1, "kept", 1669947801L));
+            log.insert(new Message(1, "torn", 1669947802L));
+        }
+        try (RandomAccessFile segment = new RandomAccessFile(segmentFiles().get(0).toFile(), "rw")) {
+            segment.seek(MappedMessageLog.RECORD_SIZE + 30);
+            segment.write('X');
+        }
+        try (MappedMessageLog log = open()) {
+            Assert.assertEquals(Arrays.asList(1), ids(log.getAll()));
+            Assert.assertEquals(new Message(2, 1, "again", 1669947803L),
+                    log.insert(new Message(1, "again", 1669947803L)));
+        }
+        try (MappedMessageLog log = open()) {
+            Assert.assertEquals(Arrays.asList(1, 2), ids(log.getAll()));
+        }
+    }
+
+    @Test
+    public void batchWithOversizedTextWritesNothing() throws IOException {
+        try (MappedMessageLog log = open()) {
+            List<Message> batch = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                batch.add(new Message(1, "batch " + i, 1669947800L));
+            }
+            batch.add(new Message(1, new String(new char[MappedMessageLog.MAX_TEXT_BYTES + 1]).replace('\0', 'x'),
+                    1669947800L));
+            Assert.assertThrows(DaoException.class, () -> log.insertAll(batch));
+            Assert.assertTrue(log.isNew());
+            Assert.assertEquals(6, log.insertAll(batch.subList(0, 6)).size());
+            Assert.assertEquals(6, log.getPage(0, 10).size());
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static List<Integer> ids(List<Message> messages) {
+        return messages.stream().map(Message::getMessage_id).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import Model.Message;
+import Service.MessageReadModel;
+import Util.WireFormat;
+
+public class MessageReadModelTest {
+
+    /**
+     * Adds, updates and deletes enough messages to grow the columns and the text arena and to drop deleted rows,
+     * and checks the written list against the expected messages after each step.
+     */
+    @Test
+    public void tracksWritesAcrossRebuilds() throws IOException {
+        MessageReadModel readModel = new MessageReadModel();
+        TreeMap<Integer, Message> expected = new TreeMap<>();
+        for (int id = 1; id <= 3000; id++) {
+            put(readModel, expected, new Message(id, 1 + id % 3, "message number " + id + " with some text", 1669947800L + id));
+        }
+        assertMatches(readModel, expected);
+
+        for (int id = 1; id <= 3000; id += 2) {
+            put(readModel, expected, new Message(id, 1 + id % 3, "updated \u00fcn\u00efc\u00f6d\u00e9 text of message " + id, 1669947800L + id));
+        }
+        assertMatches(readModel, expected);
+
+        for (int id = 1; id <= 2000; id++) {
+            readModel.remove(id);
+            expected.remove(id);
+        }
+        readModel.remove(1);
+        Assert.assertEquals(1000, readModel.getRowCount());
+        assertMatches(readModel, expected);
+
+        put(readModel, expected, new Message(1500, 2, "arrived out of order", 1669947800L));
+        put(readModel, expected, new Message(3001, 2, "appended after the rebuild", 1669947800L));
+        assertMatches(readModel, expected);
+    }
+
+    /**
+     * While one thread updates messages, moving them between accounts, and inserts messages out of id order, every
+     * listing read alongside lists each message once, in id order, with a text that belongs to its posted_by.
+     */
+    @Test
+    public void readersSeeWholeMessagesWhileWritesContinue() throws Exception {
+        MessageReadModel readModel = new MessageReadModel();
+        for (int id = 2; id <= 2000; id += 2) {
+            readModel.put(new Message(id, 1, "account 1", 1669947800L + id));
+        }
+        Thread writer = new Thread(() -> {
+            for (int round = 0; round < 20; round++) {
+                for (int id = 2; id <= 2000; id += 2) {
+                    int account = 1 + (id + round) % 2;
+                    readModel.put(new Message(id, account, "account " + account, 1669947800L + id));
+                }
+            }
+            for (int id = 1999; id >= 1; id -= 2) {
+                readModel.put(new Message(id, 2, "account 2", 1669947800L + id));
+            }
+        });
+        writer.start();
+        WireFormat json = WireFormat.JSON;
+        do {
+            for (Integer accountId : Arrays.asList(null, 1, 2)) {
+                List<Message> messages = json.getMessageListReader().readValue(write(readModel, json, accountId));
+                int lastId = 0;
+                for (Message message : messages) {
+                    Assert.assertTrue(message.getMessage_id() > lastId);
+                    Assert.assertEquals("account " + message.getPosted_by(), message.getMessage_text());
+                    if (accountId != null) {
+                        Assert.assertEquals(accountId.intValue(), message.getPosted_by());
+                    }
+                    lastId = message.getMessage_id();
+                }
+            }
+        } while (writer.isAlive());
+        Assert.assertEquals(2000, readModel.getRowCount());
+    }
+
+    @Test
+    public void writesBinaryFormats() throws IOException {
+        MessageReadModel readModel = new MessageReadModel();
+        readModel.put(new Message(1, 1, "test message 1", 1669947792));
+        WireFormat cbor = WireFormat.CBOR;
+        List<Message> messages = cbor.getMessageListReader().readValue(write(readModel, cbor, null));
+        Assert.assertEquals(1, messages.size());
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792), messages.get(0));
+    }
+
+    private static void put(MessageReadModel readModel, TreeMap<Integer, Message> expected, Message message) {
+        readModel.put(message);
+        expected.put(message.getMessage_id(), message);
+    }
+
+    private static void assertMatches(MessageReadModel readModel, TreeMap<Integer, Message> expected)
+            throws IOException {
+        WireFormat json = WireFormat.JSON;
+        Assert.assertEquals(new ArrayList<>(expected.values()),
+                json.getMessageListReader().readValue(write(readModel, json, null)));
+        Assert.assertEquals(expected.values().stream().filter(m -> m.getPosted_by() == 2).collect(Collectors.toList()),
+                json.getMessageListReader().readValue(write(readModel, json, 2)));
+    }
+
+    private static byte[] write(MessageReadModel readModel, WireFormat format, Integer accountId) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = format.getMapper().getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            if (accountId == null) {
+                readModel.writeAll(generator);
+            } else {
+                readModel.writeByAccount(accountId, generator);
+            }
+            generator.writeEndArray();
+        }
+        return out.toByteArray();
+    }
+}
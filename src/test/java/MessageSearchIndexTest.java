@@ -0,0 +1,55 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Model.Message;
+import Service.MessageSearchIndex;
+
+public class MessageSearchIndexTest {
+
+    /**
+     * A limited search should return the newest matches, ties broken by the higher id, in the same order as a full
+     * ranking.
+     */
+    @Test
+    public void limitedSearchReturnsNewestMatches() {
+        MessageSearchIndex index = new MessageSearchIndex();
+        for (int id = 1; id <= 50; id++) {
+            // ids 1-50 posted at times that repeat, and out of id order
+            index.add(new Message(id, 1, id % 2 == 0 ? "hello even" : "hello odd", (id * 7L) % 10));
+        }
+
+        List<Integer> all = index.search("hello", 100);
+        Assert.assertEquals(50, all.size());
+        List<Integer> expected = new ArrayList<>();
+        for (long time = 9; time >= 0; time--) {
+            for (int id = 50; id >= 1; id--) {
+                if ((id * 7L) % 10 == time) {
+                    expected.add(id);
+                }
+            }
+        }
+        Assert.assertEquals(expected, all);
+        Assert.assertEquals(expected.subList(0, 7), index.search("hello", 7));
+        Assert.assertEquals(Arrays.asList(), index.search("hello", 0));
+    }
+
+    /**
+     * Updating a message should rank it by its new time and drop it from terms it no longer has.
+     */
+    @Test
+    public void updatedMessageIsReindexed() {
+        MessageSearchIndex index = new MessageSearchIndex();
+        index.add(new Message(1, 1, "first post", 100));
+        index.add(new Message(2, 1, "second post", 200));
+        index.add(new Message(1, 1, "edited post", 300));
+
+        Assert.assertEquals(Arrays.asList(1, 2), index.search("post", 10));
+        Assert.assertEquals(Arrays.asList(), index.search("first", 10));
+        index.remove(1);
+        Assert.assertEquals(Arrays.asList(2), index.search("post", 10));
+    }
+}
@@ -0,0 +1,248 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.MessageEvent;
+import Service.MessageFeed;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageStreamTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * An SSE subscriber receives a created event for a new message, while a subscriber filtered to another
+     * account does not.
+     */
+    @Test
+    public void sseSubscriberReceivesCreatedMessages() throws IOException, InterruptedException {
+        BlockingQueue<String> all = openEventStream("/messages/stream");
+        BlockingQueue<String> otherAccount = openEventStream("/messages/stream?posted_by=99");
+        Thread.sleep(500);
+
+        postMessage("streamed message");
+
+        Assert.assertEquals("event: created", poll(all, "event:"));
+        String data = poll(all, "data:");
+        Assert.assertTrue(data, data.contains("\"type\":\"created\"") && data.contains("streamed message"));
+        Assert.assertNull(otherAccount.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * A WebSocket subscriber on the same path receives the event as a text frame.
+     */
+    @Test
+    public void webSocketSubscriberReceivesCreatedMessages() throws InterruptedException, IOException {
+        BlockingQueue<String> frames = new LinkedBlockingQueue<>();
+        WebSocket socket = webClient.newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:8080/messages/stream?posted_by=1"), new WebSocket.Listener() {
+                    @Override
+                    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+                        frames.add(data.toString());
+                        webSocket.request(1);
+                        return null;
+                    }
+                }).join();
+        Thread.sleep(500);
+
+        postMessage("socket message");
+
+        String frame = frames.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(frame);
+        Assert.assertTrue(frame, frame.contains("\"type\":\"created\"") && frame.contains("socket message"));
+        socket.sendClose(WebSocket.NORMAL_CLOSURE, "").join();
+    }
+
+    @Test
+    public void invalidPostedByIsRejected() throws IOException, InterruptedException {
+        HttpResponse<String> response = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/stream?posted_by=abc"))
+                .header("Accept", "text/event-stream")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(400, response.statusCode());
+    }
+
+    /**
+     * A subscriber that stops reading is disconnected once its queue is full, without blocking the publisher;
+     * with the drop policy it stays subscribed and misses events instead.
+     */
+    @Test
+    public void slowSubscriberIsDisconnectedOrDropped() throws InterruptedException {
+        for (MessageFeed.SlowConsumerPolicy policy : MessageFeed.SlowConsumerPolicy.values()) {
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch closed = new CountDownLatch(1);
+            try (MessageFeed feed = new MessageFeed(2, policy, 1, 0, 0)) {
+                MessageFeed.Subscription subscription = feed.subscribe(null, new MessageFeed.Sink() {
+                    @Override
+                    public CompletionStage<?> send(MessageEvent event) throws InterruptedException {
+                        release.await();
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    @Override
+                    public CompletionStage<?> heartbeat() {
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    @Override
+                    public void close() {
+                        closed.countDown();
+                    }
+                });
+                for (int i = 0; i < 10; i++) {
+                    feed.publish(new MessageEvent(MessageEvent.Type.CREATED, new Message(i, 1, "m" + i, i)));
+                }
+                if (policy == MessageFeed.SlowConsumerPolicy.DISCONNECT) {
+                    Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+                    Assert.assertTrue(subscription.isClosed());
+                    Assert.assertEquals(1, feed.getDisconnectedCount());
+                    Assert.assertEquals(0, feed.getSubscriberCount());
+                } else {
+                    Assert.assertFalse(subscription.isClosed());
+                    Assert.assertTrue(subscription.getDroppedCount() >= 7);
+                    Assert.assertEquals(1, feed.getSubscriberCount());
+                }
+                release.countDown();
+            }
+        }
+    }
+
+    /**
+     * A subscriber whose writes stall, whether they block a sender thread or never complete, is disconnected after
+     * the write timeout, and the single sender thread keeps serving the other subscribers.
+     */
+    @Test
+    public void stalledWritesTimeOutWithoutHoldingUpOthers() throws InterruptedException {
+        try (MessageFeed feed = new MessageFeed(16, MessageFeed.SlowConsumerPolicy.DISCONNECT, 1, 0, 200)) {
+            CountDownLatch blockingClosed = new CountDownLatch(1);
+            CountDownLatch pendingClosed = new CountDownLatch(1);
+            feed.subscribe(null, new StalledSink(blockingClosed) {
+                @Override
+                public CompletionStage<?> send(MessageEvent event) throws InterruptedException {
+                    closed.await();
+                    throw new IllegalStateException("connection aborted");
+                }
+            });
+            feed.subscribe(null, new StalledSink(pendingClosed) {
+                @Override
+                public CompletionStage<?> send(MessageEvent event) {
+                    return new CompletableFuture<>();
+                }
+            });
+            BlockingQueue<String> received = new LinkedBlockingQueue<>();
+            feed.subscribe(null, new StalledSink(new CountDownLatch(1)) {
+                @Override
+                public CompletionStage<?> send(MessageEvent event) {
+                    received.add(event.getMessage().getMessage_text());
+                    return CompletableFuture.completedFuture(null);
+                }
+            });
+
+            feed.publish(new MessageEvent(MessageEvent.Type.CREATED, new Message(1, 1, "first", 1)));
+            Assert.assertTrue(blockingClosed.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(pendingClosed.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals("first", received.poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, feed.getSubscriberCount());
+            Assert.assertEquals(2, feed.getDisconnectedCount());
+
+            feed.publish(new MessageEvent(MessageEvent.Type.CREATED, new Message(2, 1, "second", 2)));
+            Assert.assertEquals("second", received.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * A sink that counts down its latch when the feed closes it.
+     */
+    private abstract static class StalledSink implements MessageFeed.Sink {
+        final CountDownLatch closed;
+
+        StalledSink(CountDownLatch closed) {
+            this.closed = closed;
+        }
+
+        @Override
+        public CompletionStage<?> heartbeat() {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    private BlockingQueue<String> openEventStream(String path) {
+        BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        webClient.sendAsync(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .header("Accept", "text/event-stream")
+                .build(), HttpResponse.BodyHandlers.ofLines())
+                .thenAccept(response -> {
+                    try (Stream<String> body = response.body()) {
+                        body.forEach(lines::add);
+                    } catch (RuntimeException e) {
+                        // connection closed by the server when the test ends
+                    }
+                });
+        return lines;
+    }
+
+    private static String poll(BlockingQueue<String> lines, String prefix) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            String line = lines.poll(100, TimeUnit.MILLISECONDS);
+            if (line != null && line.startsWith(prefix)) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    private void postMessage(String text) throws IOException, InterruptedException {
+        HttpResponse<String> response = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"posted_by\":1, \"message_text\": \"" + text + "\", \"time_posted_epoch\": 1669947800}"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+    }
+}
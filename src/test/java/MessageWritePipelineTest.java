@@ -0,0 +1,156 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import DAO.MessageDao;
+import Model.Message;
+import Service.MessageWritePipeline;
+import Service.WriteQueueFullException;
+import Util.ConnectionUtil;
+
+public class MessageWritePipelineTest {
+    MessageWritePipeline pipeline;
+
+    /**
+     * Before every test, reset the database.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    /**
+     * Concurrent posts should all be committed with distinct ids, using fewer commits than messages.
+     */
+    @Test
+    public void concurrentPostsShareCommits() throws Exception {
+        MessageDao messageDao = new MessageDao();
+        pipeline = new MessageWritePipeline(messageDao, 1000, 100, 1000);
+        int posts = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<CompletableFuture<Message>>> submitted = new ArrayList<>();
+        for (int i = 0; i < posts; i++) {
+            Message message = new Message(1, "post " + i, 1669947792L + i);
+            submitted.add(executor.submit(() -> pipeline.submit(message)));
+        }
+        Set<Integer> ids = new HashSet<>();
+        for (Future<CompletableFuture<Message>> future : submitted) {
+            ids.add(future.get().get(10, TimeUnit.SECONDS).getMessage_id());
+        }
+        executor.shutdown();
+
+        Assert.assertEquals(posts, ids.size());
+        Assert.assertEquals(posts + 1, messageDao.getAll().size());
+        Assert.assertEquals(posts, pipeline.getMessagesWritten());
+        Assert.assertTrue(pipeline.getBatchCount() < posts);
+    }
+
+    /**
+     * When the writer falls behind and the queue fills up, submit should fail fast instead of buffering more.
+     */
+    @Test
+    public void fullQueueRejectsSubmissions() throws Exception {
+        MessageDao messageDao = Mockito.mock(MessageDao.class);
+        CountDownLatch writerStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Mockito.when(messageDao.insertAll(Mockito.anyList())).thenAnswer(invocation -> {
+            writerStarted.countDown();
+            release.await();
+            return invocation.getArgument(0);
+        });
+        pipeline = new MessageWritePipeline(messageDao, 2, 10, 10);
+
+        CompletableFuture<Message> first = pipeline.submit(new Message(1, "first", 1L));
+        Assert.assertTrue(writerStarted.await(5, TimeUnit.SECONDS));
+        pipeline.submit(new Message(1, "second", 2L));
+        pipeline.submit(new Message(1, "third", 3L));
+        try {
+            pipeline.submit(new Message(1, "fourth", 4L));
+            Assert.fail("Expected the full queue to reject the message");
+        } catch (WriteQueueFullException expected) {
+            Assert.assertEquals(1, pipeline.getRejectedCount());
+        }
+
+        release.countDown();
+        Assert.assertEquals("first", first.get(5, TimeUnit.SECONDS).getMessage_text());
+    }
+
+    /**
+     * A batch failing with an unexpected exception should fail its callers, and the writer should keep going.
+     */
+    @Test
+    public void unexpectedFailureFailsBatchAndWriterCarriesOn() throws Exception {
+        MessageDao messageDao = Mockito.mock(MessageDao.class);
+        Mockito.when(messageDao.insertAll(Mockito.anyList()))
+                .thenThrow(new IllegalStateException("boom"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        pipeline = new MessageWritePipeline(messageDao, 10, 10, 10);
+
+        CompletableFuture<Message> failed = pipeline.submit(new Message(1, "first", 1L));
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected the failed batch to fail its future");
+        } catch (ExecutionException expected) {
+            Assert.assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals("second",
+                pipeline.submit(new Message(1, "second", 2L)).get(5, TimeUnit.SECONDS).getMessage_text());
+    }
+
+    /**
+     * Closing a pipeline whose writer is stuck should fail what is still queued, and refuse new messages.
+     */
+    @Test
+    public void closeFailsQueuedSubmissions() throws Exception {
+        MessageDao messageDao = Mockito.mock(MessageDao.class);
+        CountDownLatch writerStarted = new CountDownLatch(1);
+        Mockito.when(messageDao.insertAll(Mockito.anyList())).thenAnswer(invocation -> {
+            writerStarted.countDown();
+            new CountDownLatch(1).await();
+            return invocation.getArgument(0);
+        });
+        pipeline = new MessageWritePipeline(messageDao, 10, 1, 10);
+
+        CompletableFuture<Message> first = pipeline.submit(new Message(1, "first", 1L));
+        Assert.assertTrue(writerStarted.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Message> queued = pipeline.submit(new Message(1, "second", 2L));
+        pipeline.close();
+
+        for (CompletableFuture<Message> future : Arrays.asList(first, queued)) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected the message to fail when the pipeline closed");
+            } catch (ExecutionException expected) {
+                // failed rather than left waiting
+            }
+        }
+        try {
+            pipeline.submit(new Message(1, "third", 3L));
+            Assert.fail("Expected a closed pipeline to reject the message");
+        } catch (WriteQueueFullException expected) {
+            // refused
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MetricsEndpointTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * After a request to GET /messages/1, GET /metrics should report it in Prometheus text format: a latency
+     * summary and a 2xx count for the route, and a timer for the DAO method it used.
+     */
+    @Test
+    public void metricsReportRoutesAndDaoMethods() throws IOException, InterruptedException {
+        String before = get("/metrics").body();
+        get("/messages/1");
+        get("/messages/notanumber");
+        HttpResponse<String> response = get("/metrics");
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").get().startsWith("text/plain"));
+        String body = response.body();
+        String route = "method=\"GET\",route=\"/messages/{message_id}\"";
+        Assert.assertTrue(body.contains("# TYPE http_server_request_duration_seconds summary"));
+        Assert.assertTrue(body.contains("http_server_request_duration_seconds{" + route + ",quantile=\"0.99\"}"));
+        Assert.assertEquals(count(before, "http_server_requests_total{" + route + ",status=\"2xx\"}") + 1,
+                count(body, "http_server_requests_total{" + route + ",status=\"2xx\"}"));
+        Assert.assertEquals(count(before, "http_server_requests_total{" + route + ",status=\"4xx\"}") + 1,
+                count(body, "http_server_requests_total{" + route + ",status=\"4xx\"}"));
+        String dao = "log".equals(System.getProperty("messages.storage")) ? "MappedMessageLog" : "MessageDao";
+        Assert.assertTrue(count(body, "dao_query_duration_seconds_count{dao=\"" + dao + "\",method=\"getById\"}") > 0);
+        Assert.assertTrue(body.contains("db_pool_connections{state=\"active\"}"));
+        Assert.assertTrue(body.contains("# TYPE db_pool_acquire_timeouts_total counter"));
+        Assert.assertTrue(body.contains("# TYPE cache_hits_total counter"));
+    }
+
+    /**
+     * A request answered from an HttpResponseException, here the 404 of deleting a message that was removed behind
+     * the service's back after it was cached, should be counted under that status rather than as a server error.
+     */
+    @Test
+    public void failedRequestsCountUnderTheirStatus() throws IOException, InterruptedException, SQLException {
+        Assume.assumeFalse("log".equals(System.getProperty("messages.storage")));
+        Assume.assumeTrue(ConnectionUtil.getShardCount() == 1);
+        get("/messages/1");
+        try (Connection conn = ConnectionUtil.getConnection();
+                PreparedStatement ps = conn.prepareStatement("delete from message where message_id = 1")) {
+            ps.executeUpdate();
+        }
+        String before = get("/metrics").body();
+        HttpRequest delete = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .DELETE()
+                .build();
+        Assert.assertEquals(404, webClient.send(delete, HttpResponse.BodyHandlers.ofString()).statusCode());
+        String body = get("/metrics").body();
+
+        String route = "method=\"DELETE\",route=\"/messages/{message_id}\"";
+        Assert.assertEquals(count(before, "http_server_requests_total{" + route + ",status=\"4xx\"}") + 1,
+                count(body, "http_server_requests_total{" + route + ",status=\"4xx\"}"));
+        Assert.assertEquals(count(before, "http_server_requests_total{" + route + ",status=\"5xx\"}"),
+                count(body, "http_server_requests_total{" + route + ",status=\"5xx\"}"));
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static long count(String scrape, String series) {
+        for (String line : scrape.split("\n")) {
+            if (line.startsWith(series + " ")) {
+                return Long.parseLong(line.substring(series.length() + 1));
+            }
+        }
+        return 0;
+    }
+}
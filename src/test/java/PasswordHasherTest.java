@@ -0,0 +1,83 @@
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import Service.PasswordHasher;
+import Service.ServiceBusyException;
+
+public class PasswordHasherTest {
+    PasswordHasher hasher;
+
+    @After
+    public void tearDown() {
+        if (hasher != null) {
+            hasher.close();
+        }
+    }
+
+    /**
+     * A hash should verify the password it was made from and no other, and hashing twice should use different salts.
+     */
+    @Test
+    public void hashVerifiesOnlyItsPassword() {
+        hasher = new PasswordHasher(1000, 1, 4, 10_000);
+        String hash = hasher.hash("password");
+
+        Assert.assertTrue(hash.startsWith("pbkdf2_sha256$1000$"));
+        Assert.assertNotEquals(hash, hasher.hash("password"));
+        Assert.assertTrue(hasher.verify("password", hash));
+        Assert.assertFalse(hasher.verify("Password", hash));
+        Assert.assertFalse(hasher.needsRehash(hash));
+    }
+
+    /**
+     * Plain text passwords left from before hashing should still verify, and should be reported for rehashing, as
+     * should hashes made at a different cost.
+     */
+    @Test
+    public void legacyAndOutdatedPasswordsNeedRehash() {
+        hasher = new PasswordHasher(1000, 1, 4, 10_000);
+        String cheaper = new PasswordHasher(500, 1, 4, 10_000).hash("password");
+
+        Assert.assertTrue(hasher.verify("password", "password"));
+        Assert.assertFalse(hasher.verify("other", "password"));
+        Assert.assertTrue(hasher.needsRehash("password"));
+        Assert.assertTrue(hasher.verify("password", cheaper));
+        Assert.assertTrue(hasher.needsRehash(cheaper));
+    }
+
+    /**
+     * Once the only hashing thread is busy and the queue is full, a further request should be rejected at once
+     * rather than wait.
+     */
+    @Test
+    public void saturatedPoolRejectsImmediately() throws InterruptedException {
+        hasher = new PasswordHasher(20_000_000, 1, 1, 60_000);
+        for (int i = 0; i < 2; i++) {
+            Thread caller = new Thread(() -> {
+                try {
+                    hasher.hash("password");
+                } catch (RuntimeException e) {
+                    // the pool is closed at the end of the test
+                }
+            });
+            caller.setDaemon(true);
+            caller.start();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((hasher.getActiveCount() < 1 || hasher.getQueueDepth() < 1) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        long start = System.nanoTime();
+        try {
+            hasher.hash("password");
+            Assert.fail("Expected the saturated pool to reject the request");
+        } catch (ServiceBusyException expected) {
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+            Assert.assertEquals(1, hasher.getRejectedCount());
+        }
+    }
+}
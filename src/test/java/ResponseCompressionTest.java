@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ResponseCompressionTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * A large streamed GET /messages is gzip compressed for a client that accepts gzip, and decompresses to the
+     * complete list. The same request without Accept-Encoding is sent as is.
+     */
+    @Test
+    public void largeListIsCompressed() throws IOException, InterruptedException {
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < 300; i++) {
+            batch.append(i == 0 ? "" : ",").append("{\"posted_by\":1, \"message_text\": \"compressible message ")
+                    .append(i).append("\", \"time_posted_epoch\": ").append(1669947800 + i).append('}');
+        }
+        HttpResponse<String> created = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(batch.append(']').toString()))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, created.statusCode());
+
+        HttpResponse<InputStream> compressed = get("/messages", "gzip, deflate");
+        Assert.assertEquals(200, compressed.statusCode());
+        Assert.assertEquals("gzip", compressed.headers().firstValue("Content-Encoding").orElse(null));
+        Assert.assertTrue(String.join(",", compressed.headers().allValues("Vary"))
+                .matches("(.*,)? *Accept-Encoding *(,.*)?"));
+        List<Message> messages;
+        try (InputStream body = new GZIPInputStream(compressed.body())) {
+            messages = objectMapper.readValue(body, new TypeReference<List<Message>>() {});
+        }
+        Assert.assertEquals(301, messages.size());
+
+        HttpResponse<InputStream> plain = get("/messages", null);
+        Assert.assertFalse(plain.headers().firstValue("Content-Encoding").isPresent());
+        try (InputStream body = plain.body()) {
+            Assert.assertEquals(messages, objectMapper.readValue(body, new TypeReference<List<Message>>() {}));
+        }
+    }
+
+    /**
+     * A response below the minimum size is sent uncompressed even when the client accepts gzip.
+     */
+    @Test
+    public void smallResponseIsNotCompressed() throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = get("/messages/1", "gzip");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertFalse(response.headers().firstValue("Content-Encoding").isPresent());
+        try (InputStream body = response.body()) {
+            Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792),
+                    objectMapper.readValue(body, Message.class));
+        }
+    }
+
+    private HttpResponse<InputStream> get(String path, String acceptEncoding)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+        if (acceptEncoding != null) {
+            request.header("Accept-Encoding", acceptEncoding);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+    }
+}
@@ -0,0 +1,141 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesPageTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, add messages 2 through 5 alongside the initial message, restart the
+     * Javalin app, and create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, SQLException {
+        ConnectionUtil.resetTestDatabase();
+        addMessages(4);
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?after=1&limit=2
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of messages 2 and 3
+     *  Link header pointing at the page after message 3
+     */
+    @Test
+    public void getFullPageHasNextLink() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages?after=1&limit=2");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(2, 1, "message 2", 1669947800));
+        expectedResult.add(new Message(3, 1, "message 3", 1669947800));
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(expectedResult, actualResult);
+        Assert.assertEquals("</messages?after=3&limit=2>; rel=\"next\"", response.headers().firstValue("Link").orElse(null));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?after=4&limit=2, the last page
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of message 5 only
+     *  No Link header
+     */
+    @Test
+    public void getLastPageHasNoNextLink() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages?after=4&limit=2");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(1, actualResult.size());
+        Assert.assertEquals(5, actualResult.get(0).getMessage_id());
+        Assert.assertFalse(response.headers().firstValue("Link").isPresent());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?limit=0
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getPageInvalidLimit() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages?limit=0");
+        Assert.assertEquals(400, response.statusCode());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages without paging parameters streams every message
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of all five messages in id order
+     */
+    @Test
+    public void getAllMessagesStreamsEveryRow() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(5, actualResult.size());
+        for (int i = 0; i < actualResult.size(); i++) {
+            Assert.assertEquals(i + 1, actualResult.get(i).getMessage_id());
+        }
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void addMessages(int count) throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection();
+                PreparedStatement ps = conn.prepareStatement(
+                        "insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, 1669947800)")) {
+            for (int i = 0; i < count; i++) {
+                ps.setString(1, "message " + (i + 2));
+                ps.executeUpdate();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDao;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveTimelineForUserTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, add three more messages for account 1 (two of them sharing a timestamp),
+     * restart the Javalin app, and create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, SQLException {
+        ConnectionUtil.resetTestDatabase();
+        try (Connection conn = ConnectionUtil.getConnection();
+                PreparedStatement ps = conn.prepareStatement(
+                        "insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)")) {
+            long[] times = {1669947900, 1669947900, 1669948000};
+            for (int i = 0; i < times.length; i++) {
+                ps.setString(1, "message " + (i + 2));
+                ps.setLong(2, times[i]);
+                ps.executeUpdate();
+            }
+        }
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Following the Link headers of GET localhost:8080/accounts/1/messages?limit=2 should visit every message
+     * exactly once, newest first, with ties on time_posted_epoch broken by message_id.
+     */
+    @Test
+    public void followTimelineCursors() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/accounts/1/messages?limit=2");
+        Assert.assertEquals(200, first.statusCode());
+        List<Message> firstPage = objectMapper.readValue(first.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(4, firstPage.get(0).getMessage_id());
+        Assert.assertEquals(3, firstPage.get(1).getMessage_id());
+
+        String link = first.headers().firstValue("Link").orElseThrow();
+        String next = link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+        HttpResponse<String> second = get(next);
+        List<Message> secondPage = objectMapper.readValue(second.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(2, secondPage.size());
+        Assert.assertEquals(2, secondPage.get(0).getMessage_id());
+        Assert.assertEquals(1, secondPage.get(1).getMessage_id());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/messages with a cursor that was not issued by the API
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void invalidCursor() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/accounts/1/messages?cursor=not-a-cursor");
+        Assert.assertEquals(400, response.statusCode());
+    }
+
+    /**
+     * The timeline query should seek through message_timeline_idx and read rows in index order rather than sorting.
+     */
+    @Test
+    public void timelineQueryUsesIndexOrder() throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection();
+                PreparedStatement ps = conn.prepareStatement("EXPLAIN " + MessageDao.TIMELINE_SQL)) {
+            ps.setInt(1, 1);
+            ps.setLong(2, Long.MAX_VALUE);
+            ps.setLong(3, Long.MAX_VALUE);
+            ps.setInt(4, Integer.MAX_VALUE);
+            ps.setInt(5, 10);
+            try (ResultSet rs = ps.executeQuery()) {
+                Assert.assertTrue(rs.next());
+                String plan = rs.getString(1);
+                Assert.assertTrue(plan, plan.contains("MESSAGE_TIMELINE_IDX: POSTED_BY = ?1"));
+                Assert.assertTrue(plan, plan.contains("/* index sorted */"));
+            }
+        }
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,141 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.MessageSearchIndex;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SearchMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * The message already in the database when the app starts is found by GET /messages/search, regardless of
+     * case and word order.
+     */
+    @Test
+    public void searchFindsExistingMessage() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages/search?q=MESSAGE%20test");
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> expected = Arrays.asList(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expected, readMessages(response));
+    }
+
+    /**
+     * Created, updated and deleted messages are reflected in search results straight away. Only messages with
+     * every query word match, newest first.
+     */
+    @Test
+    public void searchFollowsWrites() throws IOException, InterruptedException {
+        post("{\"posted_by\":1, \"message_text\": \"hello search world\", \"time_posted_epoch\": 1669947800}");
+        post("{\"posted_by\":1, \"message_text\": \"hello world\", \"time_posted_epoch\": 1669947900}");
+
+        Assert.assertEquals(Arrays.asList(new Message(3, 1, "hello world", 1669947900),
+                new Message(2, 1, "hello search world", 1669947800)),
+                readMessages(get("/messages/search?q=world%20hello")));
+        Assert.assertEquals(Arrays.asList(new Message(2, 1, "hello search world", 1669947800)),
+                readMessages(get("/messages/search?q=hello+search")));
+
+        webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"goodbye\"}"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertTrue(readMessages(get("/messages/search?q=search")).isEmpty());
+        Assert.assertEquals(Arrays.asList(new Message(2, 1, "goodbye", 1669947800)),
+                readMessages(get("/messages/search?q=goodbye")));
+
+        webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/3"))
+                .DELETE()
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertTrue(readMessages(get("/messages/search?q=hello")).isEmpty());
+    }
+
+    /**
+     * A query without any words, or with a bad limit, is rejected.
+     */
+    @Test
+    public void searchRejectsEmptyQuery() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("/messages/search").statusCode());
+        Assert.assertEquals(400, get("/messages/search?q=%20!").statusCode());
+        Assert.assertEquals(400, get("/messages/search?q=test&limit=0").statusCode());
+    }
+
+    /**
+     * The limit keeps the newest matches, and removing a message frees its postings.
+     */
+    @Test
+    public void indexLimitsAndRemoves() {
+        MessageSearchIndex index = new MessageSearchIndex();
+        for (int id = 1; id <= 10; id++) {
+            index.add(new Message(id, 1, "shared word " + id, 1000 + id));
+        }
+        Assert.assertEquals(Arrays.asList(10, 9, 8), index.search("Shared, WORD", 3));
+        Assert.assertEquals(Arrays.asList(4), index.search("word 4", 10));
+
+        long bytes = index.getEstimatedBytes();
+        for (int id = 1; id <= 10; id++) {
+            index.remove(id);
+        }
+        Assert.assertEquals(0, index.getDocumentCount());
+        Assert.assertEquals(0, index.getTermCount());
+        Assert.assertTrue(index.getEstimatedBytes() < bytes);
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void post(String body) throws IOException, InterruptedException {
+        HttpResponse<String> response = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+    }
+
+    private List<Message> readMessages(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>() {});
+    }
+}
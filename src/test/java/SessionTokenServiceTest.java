@@ -0,0 +1,56 @@
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalInt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Service.SessionTokenService;
+
+public class SessionTokenServiceTest {
+
+    private static SessionTokenService service(long ttlSeconds) {
+        Map<String, byte[]> keys = new LinkedHashMap<>();
+        keys.put("k1", "first secret".getBytes(StandardCharsets.UTF_8));
+        return new SessionTokenService(keys, ttlSeconds);
+    }
+
+    /**
+     * A token should verify to the account it was issued to, and a tampered or expired token should not verify.
+     */
+    @Test
+    public void verifiesIssuedTokensOnly() {
+        SessionTokenService tokens = service(3600);
+        String token = tokens.issue(7);
+
+        Assert.assertEquals(OptionalInt.of(7), tokens.verify(token));
+        Assert.assertEquals(OptionalInt.of(7), tokens.verify(token));
+        Assert.assertEquals(1, tokens.getVerifiedTokenCache().getHits());
+
+        String otherAccount = token.replaceFirst("^k1\\.7\\.", "k1.8.");
+        Assert.assertFalse(tokens.verify(otherAccount).isPresent());
+        Assert.assertFalse(tokens.verify("garbage").isPresent());
+        Assert.assertFalse(service(3600).verify(token.replaceFirst("^k1", "k2")).isPresent());
+        Assert.assertFalse(service(-1).verify(service(-1).issue(7)).isPresent());
+    }
+
+    /**
+     * After a rotation, tokens signed with the old key should keep working until that key is retired.
+     */
+    @Test
+    public void rotationKeepsOldTokensUntilRetired() {
+        SessionTokenService tokens = service(3600);
+        String oldToken = tokens.issue(1);
+        tokens.rotate("k2", "second secret".getBytes(StandardCharsets.UTF_8));
+        String newToken = tokens.issue(1);
+
+        Assert.assertTrue(newToken.startsWith("k2."));
+        Assert.assertTrue(tokens.verify(oldToken).isPresent());
+        Assert.assertTrue(tokens.verify(newToken).isPresent());
+
+        tokens.retire("k1");
+        Assert.assertFalse(tokens.verify(oldToken).isPresent());
+        Assert.assertTrue(tokens.verify(newToken).isPresent());
+    }
+}
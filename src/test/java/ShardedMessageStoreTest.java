@@ -0,0 +1,134 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.DaoException;
+import DAO.MessageDao;
+import DAO.ShardedMessageStore;
+import Model.Message;
+import Util.ConnectionPool;
+import Util.SchemaMigrations;
+
+public class ShardedMessageStoreTest {
+
+    private static final int SHARDS = 3;
+
+    private final List<ConnectionPool> pools = new ArrayList<>();
+    private final List<MessageDao> shards = new ArrayList<>();
+
+    @Before
+    public void setUp() throws SQLException {
+        for (int shard = 0; shard < SHARDS; shard++) {
+            ConnectionPool pool = new ConnectionPool("jdbc:h2:mem:sharded-test-" + shard + ";DB_CLOSE_DELAY=-1",
+                    "sa", "sa", 4, 5_000, 60_000, 0, 16);
+            try (Connection conn = pool.getConnection(); Statement statement = conn.createStatement()) {
+                statement.execute("drop table if exists message");
+                SchemaMigrations.createMessageShard(conn);
+            }
+            pools.add(pool);
+            shards.add(new MessageDao(pool));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        pools.forEach(ConnectionPool::close);
+    }
+
+    /**
+     * Every account's messages land on one shard, ids are unique across shards and continue above the ids that were
+     * there before, and the scatter-gather reads merge the shards back into message_id order.
+     */
+    @Test
+    public void routesByAccountAndMergesById() throws Exception {
+        List<Message> inserted = new ArrayList<>();
+        inserted.add(shards.get(0).insert(new Message(1, "before sharding", 1669947792L)));
+        inserted.add(shards.get(0).insert(new Message(1, "before sharding", 1669947793L)));
+        ShardedMessageStore.alignIdSequences(shards);
+        try (ShardedMessageStore store = new ShardedMessageStore(shards, 2)) {
+            for (int i = 0; i < 30; i++) {
+                inserted.add(store.insert(new Message(1 + i % 5, "message " + i, 1669947800L + i)));
+            }
+            Set<Integer> ids = inserted.stream().map(Message::getMessage_id).collect(Collectors.toSet());
+            Assert.assertEquals(32, ids.size());
+
+            for (int account = 1; account <= 5; account++) {
+                int accountId = account;
+                List<Message> expected = inserted.stream().filter(m -> m.getPosted_by() == accountId)
+                        .collect(Collectors.toList());
+                Assert.assertEquals(expected, byId(shards.get(store.shardOf(account)).getMessagesByAccountId(account)));
+                Assert.assertEquals(expected, byId(store.getMessagesByAccountId(account)));
+            }
+
+            List<Message> all = store.getAll();
+            Assert.assertEquals(byId(inserted), all);
+            Assert.assertEquals(all.subList(10, 17), store.getPage(all.get(9).getMessage_id(), 7));
+            List<Message> streamed = new ArrayList<>();
+            store.streamAll(streamed::add);
+            Assert.assertEquals(all, streamed);
+
+            Message third = inserted.get(4);
+            Assert.assertEquals(third, store.getById(third.getMessage_id()).orElseThrow());
+            Assert.assertEquals(3, store.getByIds(List.of(1, third.getMessage_id(), inserted.get(5).getMessage_id(),
+                    Integer.MAX_VALUE)).size());
+
+            Message updated = new Message(third.getMessage_id(), third.getPosted_by(), "updated",
+                    third.getTime_posted_epoch());
+            Assert.assertTrue(store.update(updated));
+            Assert.assertEquals(updated, store.getById(third.getMessage_id()).orElseThrow());
+            Assert.assertTrue(store.delete(updated));
+            Assert.assertFalse(store.getById(third.getMessage_id()).isPresent());
+        }
+    }
+
+    /**
+     * A batch keeps its input order, and when one shard fails the batches other shards already committed are
+     * removed again.
+     */
+    @Test
+    public void insertsBatchesAcrossShardsAllOrNone() throws Exception {
+        ShardedMessageStore.alignIdSequences(shards);
+        try (ShardedMessageStore store = new ShardedMessageStore(shards, 2)) {
+            List<Message> batch = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                batch.add(new Message(1 + i % 4, "batched " + i, 1669947800L + i));
+            }
+            List<Message> inserted = store.insertAll(batch);
+            Assert.assertEquals(12, inserted.size());
+            Set<Integer> ids = new HashSet<>();
+            for (int i = 0; i < 12; i++) {
+                Assert.assertEquals(batch.get(i).getPosted_by(), inserted.get(i).getPosted_by());
+                Assert.assertEquals(batch.get(i).getMessage_text(), inserted.get(i).getMessage_text());
+                ids.add(inserted.get(i).getMessage_id());
+            }
+            Assert.assertEquals(12, ids.size());
+
+            try (Connection conn = pools.get(2).getConnection(); Statement statement = conn.createStatement()) {
+                statement.execute("drop table message");
+            }
+            try {
+                store.insertAll(batch);
+                Assert.fail("Expected the batch to fail on the shard without a message table");
+            } catch (DaoException expected) {
+                // shard 2 has no table
+            }
+            Assert.assertEquals(6, shards.get(0).getAll().size());
+            Assert.assertEquals(3, shards.get(1).getAll().size());
+        }
+    }
+
+    private static List<Message> byId(List<Message> messages) {
+        return messages.stream().sorted(Comparator.comparingInt(Message::getMessage_id)).collect(Collectors.toList());
+    }
+}